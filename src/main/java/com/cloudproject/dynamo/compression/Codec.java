@@ -0,0 +1,175 @@
+package com.cloudproject.dynamo.compression;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Enum of the compression codecs of record values. The id of the codec is stored next to every
+ * compressed value (in the record header on disk, in the value encoding on the network), so values
+ * written with different codecs stay readable side by side:
+ * 1. NONE    - values are stored as they are.
+ * 2. DEFLATE - java.util.zip Deflate: best ratio, highest CPU cost.
+ * 3. LZ      - {@link LzCodec}: lower ratio at a fraction of the CPU cost of Deflate.
+ * A compressed value is laid out as | uncompressed length (4) | compressed bytes |.
+ */
+public enum Codec {
+    NONE(0), DEFLATE(1), LZ(2);
+
+    private static final int NULL_VALUE = -1;
+
+    private final int id;
+
+    Codec(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Method to look up a codec by the id stored with a value
+     *
+     * @param id id of the codec
+     * @return the codec
+     * @throws IOException if no codec has this id
+     */
+    public static Codec forId(int id) throws IOException {
+        for (Codec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IOException("Unknown compression codec " + id);
+    }
+
+    /**
+     * Method to compress a value, if it is worth it
+     *
+     * @param raw       the uncompressed value
+     * @param threshold size below which values are left uncompressed
+     * @return the compressed value, or null if the value is below the threshold or does not shrink
+     */
+    public byte[] compress(byte[] raw, int threshold) {
+        if (this == NONE || raw.length < threshold) {
+            return null;
+        }
+        byte[] compressed = this == LZ ? LzCodec.compress(raw) : deflate(raw);
+        if (compressed.length + 4 >= raw.length) {
+            return null;
+        }
+        byte[] value = new byte[compressed.length + 4];
+        value[0] = (byte) (raw.length >>> 24);
+        value[1] = (byte) (raw.length >>> 16);
+        value[2] = (byte) (raw.length >>> 8);
+        value[3] = (byte) raw.length;
+        System.arraycopy(compressed, 0, value, 4, compressed.length);
+        return value;
+    }
+
+    /**
+     * Method to decompress a value compressed by {@link #compress}
+     *
+     * @param value the compressed value
+     * @return the uncompressed value
+     * @throws IOException if the value is corrupt
+     */
+    public byte[] decompress(byte[] value) throws IOException {
+        if (this == NONE) {
+            return value;
+        }
+        if (value.length < 4) {
+            throw new IOException("Truncated compressed value");
+        }
+        int rawLength = ((value[0] & 0xff) << 24) | ((value[1] & 0xff) << 16) | ((value[2] & 0xff) << 8)
+                | (value[3] & 0xff);
+        if (rawLength < 0) {
+            throw new IOException("Corrupt compressed value");
+        }
+        byte[] compressed = new byte[value.length - 4];
+        System.arraycopy(value, 4, compressed, 0, compressed.length);
+        return this == LZ ? LzCodec.decompress(compressed, rawLength) : inflate(compressed, rawLength);
+    }
+
+    /**
+     * Method to write a string value to a stream, compressed with this codec when it is worth it
+     *
+     * @param out       the stream
+     * @param value     the value, may be null
+     * @param threshold size below which values are left uncompressed
+     * @throws IOException if the write fails
+     */
+    public void writeValue(DataOutput out, String value, int threshold) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_VALUE);
+            return;
+        }
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = compress(raw, threshold);
+        Codec codec = compressed == null ? NONE : this;
+        byte[] bytes = compressed == null ? raw : compressed;
+        out.writeByte(codec.id);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Method to read a string value written by {@link #writeValue}, whatever codec it was written with
+     *
+     * @param in the stream
+     * @return the value, may be null
+     * @throws IOException if the read fails or the value is corrupt
+     */
+    public static String readValue(DataInput in) throws IOException {
+        int id = in.readByte();
+        if (id == NULL_VALUE) {
+            return null;
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(forId(id).decompress(bytes), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(raw, length, rawLength - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != rawLength) {
+                throw new IOException("Truncated compressed value");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
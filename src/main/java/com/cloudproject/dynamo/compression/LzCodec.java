@@ -0,0 +1,163 @@
+package com.cloudproject.dynamo.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 compressor in pure Java, using the sequence layout of the LZ4 block format. The input is
+ * cut into sequences of (literals, match), each encoded as:
+ * <pre>
+ * | token: literal length (4 bits), match length - 4 (4 bits) | extra literal length | literals |
+ * | match offset (2, little endian) | extra match length |
+ * </pre>
+ * A length nibble of 15 is continued by bytes of 255 and one final byte below 255. Matches are found
+ * through a hash table of the last position of every 4 byte sequence, within a 64 KB window. The
+ * block ends with a sequence of literals only, so decompression stops once the expected number of
+ * bytes is produced.
+ */
+class LzCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 14;
+
+    private LzCodec() {
+    }
+
+    /**
+     * Method to compress a block
+     *
+     * @param src the bytes to be compressed
+     * @return the compressed block
+     */
+    static byte[] compress(byte[] src) {
+        int length = src.length;
+        byte[] dst = new byte[length + length / 255 + 16];
+        int[] table = new int[1 << HASH_BITS];
+        int out = 0;
+        int anchor = 0;
+        int position = 0;
+        int limit = length - MATCH_FIND_LIMIT;
+        while (position < limit) {
+            int sequence = readInt(src, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            // positions are stored plus one, so that 0 marks an empty slot
+            int candidate = table[hash] - 1;
+            table[hash] = position + 1;
+            if (candidate < 0 || position - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                position++;
+                continue;
+            }
+            while (position > anchor && candidate > 0 && src[position - 1] == src[candidate - 1]) {
+                position--;
+                candidate--;
+            }
+            int matchLength = MIN_MATCH;
+            int matchLimit = length - LAST_LITERALS;
+            while (position + matchLength < matchLimit && src[candidate + matchLength] == src[position + matchLength]) {
+                matchLength++;
+            }
+            out = writeSequence(src, anchor, position - anchor, position - candidate, matchLength, dst, out);
+            position += matchLength;
+            anchor = position;
+        }
+        out = writeLiterals(src, anchor, length - anchor, dst, out);
+        return Arrays.copyOf(dst, out);
+    }
+
+    /**
+     * Method to decompress a block
+     *
+     * @param src       the compressed block
+     * @param rawLength the length of the decompressed bytes
+     * @return the decompressed bytes
+     * @throws IOException if the block is corrupt
+     */
+    static byte[] decompress(byte[] src, int rawLength) throws IOException {
+        byte[] dst = new byte[rawLength];
+        int in = 0;
+        int out = 0;
+        try {
+            while (true) {
+                int token = src[in++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int extra;
+                    do {
+                        extra = src[in++] & 0xff;
+                        literals += extra;
+                    } while (extra == 255);
+                }
+                System.arraycopy(src, in, dst, out, literals);
+                in += literals;
+                out += literals;
+                if (out == rawLength) {
+                    return dst;
+                }
+                int offset = (src[in++] & 0xff) | ((src[in++] & 0xff) << 8);
+                int matchLength = token & 0x0f;
+                if (matchLength == 15) {
+                    int extra;
+                    do {
+                        extra = src[in++] & 0xff;
+                        matchLength += extra;
+                    } while (extra == 255);
+                }
+                matchLength += MIN_MATCH;
+                int from = out - offset;
+                if (offset == 0 || from < 0 || out + matchLength > rawLength) {
+                    throw new IOException("Corrupt compressed block");
+                }
+                // byte by byte, since a match may overlap the bytes it produces
+                for (int i = 0; i < matchLength; i++) {
+                    dst[out++] = dst[from + i];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt compressed block", e);
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+                                     byte[] dst, int out) {
+        int token = out++;
+        int matchCode = matchLength - MIN_MATCH;
+        dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchCode, 15));
+        out = writeLength(literals, dst, out);
+        System.arraycopy(src, literalStart, dst, out, literals);
+        out += literals;
+        dst[out++] = (byte) offset;
+        dst[out++] = (byte) (offset >>> 8);
+        return writeLength(matchCode, dst, out);
+    }
+
+    private static int writeLiterals(byte[] src, int literalStart, int literals, byte[] dst, int out) {
+        dst[out++] = (byte) (Math.min(literals, 15) << 4);
+        out = writeLength(literals, dst, out);
+        System.arraycopy(src, literalStart, dst, out, literals);
+        return out + literals;
+    }
+
+    /**
+     * Writes the continuation bytes of a length whose nibble in the token is 15
+     */
+    private static int writeLength(int length, byte[] dst, int out) {
+        if (length < 15) {
+            return out;
+        }
+        int remaining = length - 15;
+        while (remaining >= 255) {
+            dst[out++] = (byte) 255;
+            remaining -= 255;
+        }
+        dst[out++] = (byte) remaining;
+        return out;
+    }
+
+    private static int readInt(byte[] bytes, int position) {
+        return (bytes[position] & 0xff) | ((bytes[position + 1] & 0xff) << 8)
+                | ((bytes[position + 2] & 0xff) << 16) | ((bytes[position + 3] & 0xff) << 24);
+    }
+}
@@ -0,0 +1,369 @@
+package com.cloudproject.dynamo.config;
+
+import com.cloudproject.dynamo.compression.Codec;
+import com.cloudproject.dynamo.models.Durability;
+import com.cloudproject.dynamo.models.MessageTypes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class which defines the node-local storage settings. Every value can be overridden at startup
+ * with a JVM system property (for example -Ddynamo.data.dir=/var/lib/dynamo)
+ */
+public class StorageConfig {
+
+    /**
+     * Method to return the root directory under which every bucket is stored
+     *
+     * @return path of the data directory
+     */
+    public static String getDataDir() {
+        return System.getProperty("dynamo.data.dir", "/");
+    }
+
+    /**
+     * Method to return the data directories of the node, one per volume (disk). Buckets are striped
+     * across all of them by key hash, so the list must not change once data has been written
+     *
+     * @return paths of the data directories; the single data directory unless several are set
+     */
+    public static List<String> getDataDirs() {
+        String dirs = System.getProperty("dynamo.data.dirs");
+        if (dirs == null || dirs.trim().isEmpty()) {
+            return Collections.singletonList(getDataDir());
+        }
+        List<String> paths = new ArrayList<>();
+        for (String dir : dirs.split(",")) {
+            if (!dir.trim().isEmpty()) {
+                paths.add(dir.trim());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Method to return the number of I/O threads of each volume, when the node has several data
+     * directories
+     *
+     * @return threads per volume
+     */
+    public static int getVolumeThreads() {
+        return Integer.getInteger("dynamo.storage.volume.threads", 8);
+    }
+
+    /**
+     * Method to return the name of the storage engine used by this node ("bitcask", "lsm", "file" or
+     * "memory")
+     *
+     * @return name of the storage engine
+     */
+    public static String getEngine() {
+        return System.getProperty("dynamo.storage.engine", "bitcask");
+    }
+
+    /**
+     * Method to return the size (in bytes) after which the active segment of a bucket is sealed
+     * and a new one is started
+     *
+     * @return maximum size of a segment in bytes
+     */
+    public static long getSegmentSize() {
+        return Long.getLong("dynamo.storage.segment.bytes", 64L * 1024 * 1024);
+    }
+
+    /**
+     * Method to return the time interval (in milliseconds) between two runs of the background merge
+     *
+     * @return merge interval in milliseconds
+     */
+    public static long getMergeInterval() {
+        return Long.getLong("dynamo.storage.merge.interval", 60_000L);
+    }
+
+    /**
+     * Method to return the time interval (in milliseconds) between two checkpoints of the key
+     * directories of the buckets. Only the records written after the last checkpoint are replayed
+     * on restart
+     *
+     * @return checkpoint interval in milliseconds
+     */
+    public static long getCheckpointInterval() {
+        return Long.getLong("dynamo.storage.checkpoint.interval", 30_000L);
+    }
+
+    /**
+     * Method to return the number of records per second the background sweepers of the file and
+     * memory engines may examine while looking for expired records. 0 disables them, leaving expired
+     * records on disk until they are deleted or overwritten
+     *
+     * @return records examined per second
+     */
+    public static int getExpirySweepRate() {
+        return Integer.getInteger("dynamo.storage.ttl.sweep.rate", 1000);
+    }
+
+    /**
+     * Method to return the number of records per second the file engine moves from the flat layout
+     * of a bucket written by an earlier version into its hashed directory tree
+     *
+     * @return records moved per second
+     */
+    public static int getFanoutMigrationRate() {
+        return Integer.getInteger("dynamo.storage.fanout.migration.rate", 2000);
+    }
+
+    /**
+     * Method to return the number of files per second the background reclaimer may delete from the
+     * directories of dropped buckets
+     *
+     * @return files deleted per second
+     */
+    public static int getReclaimRate() {
+        return Integer.getInteger("dynamo.storage.reclaim.rate", 1000);
+    }
+
+    /**
+     * Method to return the time (in seconds) a node taking part in a bulk import or export waits for
+     * another node: the coordinator of an import for a replica to load a batch, the coordinator of an
+     * export for a node to stream all its records, and a streaming node for the coordinator to take
+     * a batch
+     *
+     * @return bulk transfer timeout in seconds
+     */
+    public static long getBulkTimeout() {
+        return Long.getLong("dynamo.bulk.timeout", 600L);
+    }
+
+    /**
+     * Method to return the time (in seconds) the API gateway waits for the answer to a request before
+     * answering the client that it timed out. The timeout of an operation takes precedence over the
+     * one of every request; bulk imports and exports wait twice the bulk timeout unless set
+     *
+     * @param operation the operation requested
+     * @return request timeout in seconds
+     */
+    public static long getRequestTimeout(MessageTypes operation) {
+        long timeout = operation == MessageTypes.BUCKET_IMPORT || operation == MessageTypes.BUCKET_EXPORT
+                ? 2 * getBulkTimeout()
+                : Long.getLong("dynamo.request.timeout", 20L);
+        return Long.getLong("dynamo.request." + operation.name().toLowerCase() + ".timeout", timeout);
+    }
+
+    /**
+     * Method to return the directory the dumps of bulk imports and exports are read from and written
+     * to by the coordinator. Clients name dumps relative to it
+     *
+     * @return path of the bulk directory
+     */
+    public static String getBulkDir() {
+        return System.getProperty("dynamo.bulk.dir", "bulk");
+    }
+
+    /**
+     * Method to return the size (in bytes) of the largest message a node sends or accepts. Messages
+     * larger than a datagram are sent in chunks, and the receiver holds every chunk of a message
+     * until it is complete
+     *
+     * @return maximum size of a message in bytes
+     */
+    public static int getMaxMessageSize() {
+        return Integer.getInteger("dynamo.transfer.max.bytes", 64 * 1024 * 1024);
+    }
+
+    /**
+     * Method to return the number of chunks of a large message sent before waiting for the receiver
+     * to acknowledge them
+     *
+     * @return chunks per window
+     */
+    public static int getTransferWindow() {
+        return Integer.getInteger("dynamo.transfer.window", 32);
+    }
+
+    /**
+     * Method to return the memory (in bytes) the chunks of the large messages being received by a node
+     * may hold at once, over all their senders
+     *
+     * @return bytes of chunks held at most
+     */
+    public static long getTransferMemory() {
+        return Long.getLong("dynamo.transfer.memory.bytes", 256L * 1024 * 1024);
+    }
+
+    /**
+     * Method to return the number of large messages a node receives at once from the same sender
+     *
+     * @return transfers open per sender
+     */
+    public static int getTransfersPerSender() {
+        return Integer.getInteger("dynamo.transfer.per.sender", 8);
+    }
+
+    /**
+     * Method to return the number of idle datagram channels a node keeps open for sending messages.
+     * Senders beyond that open a channel of their own, closed once their message is sent
+     *
+     * @return idle send channels kept open
+     */
+    public static int getSendChannels() {
+        return Integer.getInteger("dynamo.transfer.channels", 16);
+    }
+
+    /**
+     * Method to return the time (in milliseconds) a chunked transfer may go without progress before
+     * the sender gives up and the receiver forgets the chunks received so far
+     *
+     * @return transfer timeout in milliseconds
+     */
+    public static long getTransferTimeout() {
+        return Long.getLong("dynamo.transfer.timeout", 10_000L);
+    }
+
+    /**
+     * Method to return the number of event loop threads receiving the messages sent to a node
+     *
+     * @return number of event loop threads
+     */
+    public static int getEventLoopThreads() {
+        return Integer.getInteger("dynamo.transfer.loop.threads", 2);
+    }
+
+    /**
+     * Method to return the number of worker threads serving the requests of other coordinators on the
+     * records of a node. A write waits for its durability on its worker, so writes arriving together
+     * need as many workers to share a group commit
+     *
+     * @return number of worker threads
+     */
+    public static int getRequestThreads() {
+        return Integer.getInteger("dynamo.request.threads", 32);
+    }
+
+    /**
+     * Method to return the fraction of dead (overwritten or deleted) bytes in the sealed segments of a
+     * bucket above which the bucket is merged
+     *
+     * @return dead bytes ratio that triggers a merge
+     */
+    public static double getMergeThreshold() {
+        return Double.parseDouble(System.getProperty("dynamo.storage.merge.threshold", "0.4"));
+    }
+
+    /**
+     * Method to return the size (in bytes) after which the memtable of an LSM bucket is flushed
+     *
+     * @return maximum size of a memtable in bytes
+     */
+    public static long getMemtableSize() {
+        return Long.getLong("dynamo.storage.memtable.bytes", 4L * 1024 * 1024);
+    }
+
+    /**
+     * Method to return the target size (in bytes) of the sorted tables written by an LSM compaction
+     *
+     * @return target size of a sorted table in bytes
+     */
+    public static long getTableSize() {
+        return Long.getLong("dynamo.storage.sstable.bytes", 2L * 1024 * 1024);
+    }
+
+    /**
+     * Method to return the size budget (in bytes) of level 1 of an LSM bucket. Every deeper level
+     * gets ten times the budget of the previous one
+     *
+     * @return size budget of level 1 in bytes
+     */
+    public static long getLevelBaseSize() {
+        return Long.getLong("dynamo.storage.level.bytes", 10L * 1024 * 1024);
+    }
+
+    /**
+     * Method to return the cap (in bytes) on the total size of the data files memory-mapped for reads.
+     * Files that do not fit under the cap are read with positioned reads
+     *
+     * @return maximum number of mapped bytes
+     */
+    public static long getMappedSize() {
+        return Long.getLong("dynamo.storage.mmap.bytes", 1024L * 1024 * 1024);
+    }
+
+    /**
+     * Method to return the durability of the writes to a bucket that do not request one themselves
+     * ("none", "batch" or "sync"). A per-bucket setting (-Ddynamo.bucket.NAME.durability) takes
+     * precedence over the node-wide one
+     *
+     * @param bucket name of the bucket
+     * @return default durability of the bucket
+     */
+    public static Durability getDurability(String bucket) {
+        String durability = System.getProperty("dynamo.bucket." + bucket + ".durability",
+                System.getProperty("dynamo.storage.durability", "batch"));
+        return Durability.valueOf(durability.toUpperCase());
+    }
+
+    /**
+     * Method to return the time interval (in microseconds) between two group commits. Writes with
+     * batch durability wait at most this long for their sync, and share it with every other write
+     * of the interval
+     *
+     * @return group commit interval in microseconds
+     */
+    public static long getGroupCommitInterval() {
+        return Long.getLong("dynamo.storage.commit.interval", 2_000L);
+    }
+
+    /**
+     * Method to return the memory bound (in bytes) of the cache of hot records kept in front of the
+     * storage engine. A bound of 0 disables the cache
+     *
+     * @return maximum size of the object cache in bytes
+     */
+    public static long getCacheSize() {
+        return Long.getLong("dynamo.cache.bytes", 32L * 1024 * 1024);
+    }
+
+    /**
+     * Method to return the target false positive rate of the Bloom filters kept over the keys of
+     * every bucket, from which the filters are sized
+     *
+     * @return false positive rate of the Bloom filters
+     */
+    public static double getBloomFalsePositiveRate() {
+        return Double.parseDouble(System.getProperty("dynamo.storage.bloom.fpp", "0.01"));
+    }
+
+    /**
+     * Method to return the codec with which the values of a bucket are compressed on disk ("none",
+     * "deflate" or "lz"). A per-bucket setting (-Ddynamo.bucket.NAME.compression) takes precedence
+     * over the node-wide one
+     *
+     * @param bucket name of the bucket
+     * @return compression codec of the bucket
+     */
+    public static Codec getCompression(String bucket) {
+        String codec = System.getProperty("dynamo.bucket." + bucket + ".compression",
+                System.getProperty("dynamo.storage.compression", "lz"));
+        return Codec.valueOf(codec.toUpperCase());
+    }
+
+    /**
+     * Method to return the size (in bytes) below which values are neither compressed on disk nor on
+     * the network
+     *
+     * @return compression threshold in bytes
+     */
+    public static int getCompressionThreshold() {
+        return Integer.getInteger("dynamo.storage.compression.threshold", 1024);
+    }
+
+    /**
+     * Method to return the codec with which values are compressed in the messages sent to other nodes
+     *
+     * @return compression codec of the replication traffic
+     */
+    public static Codec getReplicationCompression() {
+        return Codec.valueOf(System.getProperty("dynamo.replication.compression", "lz").toUpperCase());
+    }
+}
@@ -1,14 +1,19 @@
 package com.cloudproject.dynamo.controller;
 
 import com.cloudproject.dynamo.models.BucketInputModel;
+import com.cloudproject.dynamo.models.BulkInputModel;
 import com.cloudproject.dynamo.models.MessageTypes;
 import com.cloudproject.dynamo.models.ObjectInputModel;
 import com.cloudproject.dynamo.models.OutputModel;
+import com.cloudproject.dynamo.models.ScanOutputModel;
 import com.cloudproject.dynamo.msgmanager.DynamoServer;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import java.net.SocketException;
+import java.util.concurrent.CompletableFuture;
 
 @Path("/")
 public class Home {
@@ -59,39 +64,42 @@ public class Home {
     /**
      * Method to be used for creating a new bucket in the database
      * @param inputModel POJO (generated by de-serializing the JSON request body) containing the bucket name
-     * @return POJO containing the response message. This is serialized to JSON to give REST API response
+     * @param response suspended response, resumed with the POJO containing the response message once the cluster
+     *                 answered. This is serialized to JSON to give REST API response
      * @throws SocketException may sometimes occur
      */
     @POST
     @Path("bucket")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public OutputModel createBucket(BucketInputModel inputModel) throws SocketException {
+    public void createBucket(BucketInputModel inputModel,
+                             @Suspended AsyncResponse response) throws SocketException {
         OutputModel outputModel = new OutputModel();
         startDynamoServer();
 //        dynamoServer.createBucket(inputModel.getBucketName(), outputModel);
-        dynamoServer.forwardToRandNode(MessageTypes.BUCKET_CREATE, inputModel.getBucketName(), outputModel);
+        resume(response, dynamoServer.forwardToRandNode(
+                MessageTypes.BUCKET_CREATE, inputModel.getBucketName(), outputModel), outputModel);
 //        bucketOutputModel.setResponse("Bucket " + inputModel.getBucketName() + " created successfully");
-        return outputModel;
     }
 
     /**
      * Method to be used for deleting a bucket from the database
      * @param inputModel POJO (generated by de-serailizing the JSON request body) containing the bucket name
-     * @return POJO containing the response message. This is serialized to JSON to give REST API response
+     * @param response suspended response, resumed with the POJO containing the response message once the cluster
+     *                 answered. This is serialized to JSON to give REST API response
      * @throws SocketException may sometimes occur
      */
     @DELETE
     @Path("bucket")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public OutputModel deleteBucket(BucketInputModel inputModel) throws SocketException {
+    public void deleteBucket(BucketInputModel inputModel,
+                             @Suspended AsyncResponse response) throws SocketException {
         OutputModel outputModel = new OutputModel();
         startDynamoServer();
 //        bucketOutputModel.setResponse("Bucket " + inputModel.getBucketName() + " deleted successfully");
-        dynamoServer.forwardToRandNode(MessageTypes.BUCKET_DELETE, inputModel.getBucketName(), outputModel);
-
-        return outputModel;
+        resume(response, dynamoServer.forwardToRandNode(
+                MessageTypes.BUCKET_DELETE, inputModel.getBucketName(), outputModel), outputModel);
     }
 
     /**
@@ -99,20 +107,21 @@ public class Home {
      * @param inputModel POJO (generated by de-serializing JSON request body) containing the key and value of the object
      * @param bucketName String (contained in the JSON request body) specifying the name of the bucket in which thhe
      *                   object is to be created
-     * @return POJO containing the response message. This is serialized to JSON to give REST API response
+     * @param response suspended response, resumed with the POJO containing the response message once the cluster
+     *                 answered. This is serialized to JSON to give REST API response
      * @throws SocketException may sometimes occur
      */
     @POST
     @Path("{bucketName}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public OutputModel createObject(ObjectInputModel inputModel, @PathParam("bucketName") String bucketName) throws SocketException {
+    public void createObject(ObjectInputModel inputModel, @PathParam("bucketName") String bucketName,
+                             @Suspended AsyncResponse response) throws SocketException {
         OutputModel outputModel = new OutputModel();
         startDynamoServer();
 
-        dynamoServer.forwardToRandNode(MessageTypes.OBJECT_CREATE, bucketName, inputModel, outputModel);
-
-        return outputModel;
+        resume(response, dynamoServer.forwardToRandNode(
+                MessageTypes.OBJECT_CREATE, bucketName, inputModel, outputModel), outputModel);
     }
 
     /**
@@ -121,21 +130,21 @@ public class Home {
      *                   the key and new value of the object
      * @param bucketName String (contained in the JSON request body) specifying the name
      *                   of the bucket in which the object is to be created
-     * @return POJO containing the response message. This is serialized to JSON to give REST API response
+     * @param response suspended response, resumed with the POJO containing the response message once the cluster
+     *                 answered. This is serialized to JSON to give REST API response
      * @throws SocketException may sometimes occur
      */
     @PUT
     @Path("{bucketName}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public OutputModel updateObject(ObjectInputModel inputModel, @PathParam("bucketName") String bucketName)
-            throws SocketException {
+    public void updateObject(ObjectInputModel inputModel, @PathParam("bucketName") String bucketName,
+                             @Suspended AsyncResponse response) throws SocketException {
         OutputModel outputModel = new OutputModel();
         startDynamoServer();
 
-        dynamoServer.forwardToRandNode(MessageTypes.OBJECT_UPDATE, bucketName, inputModel, outputModel);
-
-        return outputModel;
+        resume(response, dynamoServer.forwardToRandNode(
+                MessageTypes.OBJECT_UPDATE, bucketName, inputModel, outputModel), outputModel);
     }
 
     /**
@@ -143,20 +152,21 @@ public class Home {
      * @param bucketName String (contained in the JSON request body) specifying the name of the bucket in which the
      *                   object is to be created
      * @param key String containing the key of the object to be deleted
-     * @return POJO containing the response message. This is serialized to JSON to give REST API response
+     * @param response suspended response, resumed with the POJO containing the response message once the cluster
+     *                 answered. This is serialized to JSON to give REST API response
      * @throws SocketException may sometimes occur
      */
     @DELETE
     @Path("{bucketName}/{objectKey}")
     @Produces(MediaType.APPLICATION_JSON)
-    public OutputModel deleteObject(@PathParam("bucketName") String bucketName,
-                                    @PathParam("objectKey") String key) throws SocketException {
+    public void deleteObject(@PathParam("bucketName") String bucketName,
+                             @PathParam("objectKey") String key,
+                             @Suspended AsyncResponse response) throws SocketException {
         OutputModel outputModel = new OutputModel();
         startDynamoServer();
 
-        dynamoServer.forwardToRandNode(MessageTypes.OBJECT_DELETE, bucketName, key, outputModel);
-
-        return outputModel;
+        resume(response, dynamoServer.forwardToRandNode(
+                MessageTypes.OBJECT_DELETE, bucketName, key, outputModel), outputModel);
     }
 
     /**
@@ -164,20 +174,110 @@ public class Home {
      * @param bucketName String (contained in the JSON request body) specifying the name of the bucket in which the
      *                   object is to be created
      * @param objectKey String containing the key of the object to be read
-     * @return POJO containing the response message. This is serialized to JSON to give REST API response
+     * @param response suspended response, resumed with the POJO containing the response message once the cluster
+     *                 answered. This is serialized to JSON to give REST API response
      * @throws SocketException may sometimes occur
      */
     @GET
     @Path("{bucketName}/{objectKey}")
     @Produces(MediaType.APPLICATION_JSON)
-    public OutputModel readObject(@PathParam("bucketName") String bucketName,
-                                  @PathParam("objectKey") String objectKey) throws SocketException {
+    public void readObject(@PathParam("bucketName") String bucketName,
+                           @PathParam("objectKey") String objectKey,
+                           @Suspended AsyncResponse response) throws SocketException {
         OutputModel outputModel = new OutputModel();
         startDynamoServer();
 
-        dynamoServer.forwardToRandNode(MessageTypes.OBJECT_READ, bucketName, objectKey, outputModel);
+        resume(response, dynamoServer.forwardToRandNode(
+                MessageTypes.OBJECT_READ, bucketName, objectKey, outputModel), outputModel);
+    }
 
-        return outputModel;
+    /**
+     * Method to list the records of a bucket in key order, one page at a time
+     * @param bucketName String specifying the name of the bucket to be listed
+     * @param prefix String every returned key starts with (optional)
+     * @param start continuation token returned with the previous page (optional, first page if absent)
+     * @param limit maximum number of records in the page (optional, 100 by default)
+     * @param response suspended response, resumed with the POJO containing the records and the continuation token
+     *                 of the next page, absent once the whole bucket is listed. This is serialized to JSON to give
+     *                 REST API response
+     * @throws SocketException may sometimes occur
+     */
+    @GET
+    @Path("{bucketName}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void scanBucket(@PathParam("bucketName") String bucketName,
+                           @QueryParam("prefix") String prefix,
+                           @QueryParam("start") String start,
+                           @DefaultValue("100") @QueryParam("limit") int limit,
+                           @Suspended AsyncResponse response) throws SocketException {
+        ScanOutputModel outputModel = new ScanOutputModel();
+        startDynamoServer();
+
+        resume(response, dynamoServer.scanBucket(bucketName, prefix, start, limit, outputModel), outputModel);
+    }
+
+    /**
+     * Method to bulk load a bucket from a binary dump sorted by key. The dump is split by the hash ring
+     * and every node loads the records it is a replica of straight into its storage
+     * @param inputModel POJO (generated by de-serializing JSON request body) containing the name of the dump,
+     *                   relative to the bulk directory shared by every node
+     * @param bucketName String specifying the name of the bucket to be loaded, which must exist
+     * @param response suspended response, resumed with the POJO containing the response message once the cluster
+     *                 answered. This is serialized to JSON to give REST API response
+     * @throws SocketException may sometimes occur
+     */
+    @POST
+    @Path("{bucketName}/import")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void importBucket(BulkInputModel inputModel, @PathParam("bucketName") String bucketName,
+                             @Suspended AsyncResponse response) throws SocketException {
+        OutputModel outputModel = new OutputModel();
+        startDynamoServer();
+
+        resume(response, dynamoServer.bulkTransfer(
+                MessageTypes.BUCKET_IMPORT, bucketName, inputModel.getPath(), outputModel), outputModel);
+    }
+
+    /**
+     * Method to export a bucket into a binary dump sorted by key. Every node dumps its records at the
+     * same time, and the dumps are merged keeping the highest version of every record
+     * @param inputModel POJO (generated by de-serializing JSON request body) containing the name of the dump,
+     *                   relative to the bulk directory shared by every node
+     * @param bucketName String specifying the name of the bucket to be exported
+     * @param response suspended response, resumed with the POJO containing the response message once the cluster
+     *                 answered. This is serialized to JSON to give REST API response
+     * @throws SocketException may sometimes occur
+     */
+    @POST
+    @Path("{bucketName}/export")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void exportBucket(BulkInputModel inputModel, @PathParam("bucketName") String bucketName,
+                             @Suspended AsyncResponse response) throws SocketException {
+        OutputModel outputModel = new OutputModel();
+        startDynamoServer();
+
+        resume(response, dynamoServer.bulkTransfer(
+                MessageTypes.BUCKET_EXPORT, bucketName, inputModel.getPath(), outputModel), outputModel);
+    }
+
+    /**
+     * Method to answer a suspended request once the cluster answered it. The request holds no thread of the
+     * servlet container meanwhile; the answer comes at the latest after the request timeout of its operation
+     * ({@link com.cloudproject.dynamo.config.StorageConfig#getRequestTimeout})
+     * @param response    the suspended response
+     * @param answer      future completed once the output is set
+     * @param outputModel POJO to resume the response with
+     */
+    private static void resume(AsyncResponse response, CompletableFuture<Void> answer, OutputModel outputModel) {
+        answer.whenComplete((result, error) -> {
+            if (error != null) {
+                outputModel.setStatus(false);
+                outputModel.setResponse(error.getMessage());
+            }
+            response.resume(outputModel);
+        });
     }
 
     /**
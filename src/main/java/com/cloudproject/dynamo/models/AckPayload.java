@@ -36,7 +36,7 @@ public class AckPayload implements Serializable {
     }
 
     /**
-     * Method to return the transaction ID of the request [not currently in use]
+     * Method to return the transaction ID of the request being acknowledged
      * @return transaction id of the request
      */
     public long getTxnID() {
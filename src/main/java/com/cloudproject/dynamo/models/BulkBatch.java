@@ -0,0 +1,62 @@
+package com.cloudproject.dynamo.models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * POJO holding a batch of records of a bucket in key order, as streamed between the nodes by a bulk
+ * import or export. The coordinator of an import sends every replica its records in batches, the
+ * last one asking the replica to sync the bucket; every node taking part in an export sends its
+ * records to the coordinator in batches, the last one telling that it has no record left
+ */
+public class BulkBatch implements Serializable {
+    private String bucket;
+    private ArrayList<Map.Entry<String, ObjectIOModel>> records;
+    private boolean last;
+    private long ackID;
+
+    public BulkBatch(String bucket, ArrayList<Map.Entry<String, ObjectIOModel>> records, boolean last, long ackID) {
+        this.bucket = bucket;
+        this.records = records;
+        this.last = last;
+        this.ackID = ackID;
+    }
+
+    /**
+     * Method to get the bucket the records belong to
+     *
+     * @return name of the bucket
+     */
+    public String getBucket() {
+        return bucket;
+    }
+
+    /**
+     * Method to get the records of the batch
+     *
+     * @return records in key order
+     */
+    public ArrayList<Map.Entry<String, ObjectIOModel>> getRecords() {
+        return records;
+    }
+
+    /**
+     * Method to tell if the batch is the last one of its stream
+     *
+     * @return true if no batch follows
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+    /**
+     * Method to get the transaction ID the receiver acknowledges the batch with, so that the sender
+     * only sends the next batches once the receiver has taken the previous ones
+     *
+     * @return transaction id of the acknowledgement, 0 if the batch is acknowledged like its request
+     */
+    public long getAckID() {
+        return ackID;
+    }
+}
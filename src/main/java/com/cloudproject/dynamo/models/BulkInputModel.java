@@ -0,0 +1,26 @@
+package com.cloudproject.dynamo.models;
+
+/**
+ * POJO holding the location of the dump of a bulk import or export
+ */
+public class BulkInputModel {
+
+    public String path;
+
+    /**
+     * Method used to get the path of the dump
+     *
+     * @return path of the dump, the same on every node
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Method used to set the path of the dump
+     * @param path path of the dump, on a directory shared by every node
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+}
@@ -0,0 +1,11 @@
+package com.cloudproject.dynamo.models;
+
+/**
+ * Enum to choose when a write is acknowledged with respect to the storage device:
+ * 1. NONE  - as soon as the write reached the operating system; a crash may lose it.
+ * 2. BATCH - once a group commit has synced it, together with every other write of the same batch.
+ * 3. SYNC  - once it has been synced on its own.
+ */
+public enum Durability {
+    NONE, BATCH, SYNC
+}
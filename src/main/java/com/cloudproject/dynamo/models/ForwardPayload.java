@@ -41,7 +41,7 @@ public class ForwardPayload implements Serializable {
     }
 
     /**
-     * Method to get the transaction ID (currently not in use)
+     * Method to get the transaction ID, carried back by the answer of the coordinator
      * @return transaction ID of the request
      */
     public long getTxnID() {
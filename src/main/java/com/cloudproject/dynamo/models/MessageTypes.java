@@ -1,10 +1,12 @@
 package com.cloudproject.dynamo.models;
 
 /**
- * Enum to categorize each message that is exchanged within the system
+ * Enum to categorize each message that is exchanged within the system. The ordinal of a type is its
+ * tag on the wire, so new types are only ever appended
  */
 public enum MessageTypes {
     PING, NODE_LIST, BUCKET_CREATE, BUCKET_DELETE, OBJECT_CREATE,
     OBJECT_READ, OBJECT_UPDATE, OBJECT_DELETE, ACKNOWLEDGEMENT, FORWARD,
-    FORWARD_ACK, FORWARD_ACK_READ
+    FORWARD_ACK, FORWARD_ACK_READ, BUCKET_SCAN, SCAN_RESULT, FORWARD_ACK_SCAN,
+    BUCKET_IMPORT, BUCKET_EXPORT, BULK_LOAD, BULK_DUMP, BULK_RECORDS
 }
\ No newline at end of file
@@ -1,19 +1,34 @@
 package com.cloudproject.dynamo.models;
 
+import com.cloudproject.dynamo.compression.Codec;
+import com.cloudproject.dynamo.config.StorageConfig;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
- * POJO for handling IO payloads
+ * POJO for handling IO payloads. When sent to another node, a large value is compressed with the
+ * replication codec. A record written with a time to live carries the time it expires at, after
+ * which every storage engine treats it as absent
  */
 public class ObjectIOModel implements Serializable {
     private long version;
     private String value;
+    private long expiresAt;
 
     public ObjectIOModel(long version, String value) {
         this.version = version;
         this.value = value;
     }
 
+    public ObjectIOModel(long version, String value, long expiresAt) {
+        this.version = version;
+        this.value = value;
+        this.expiresAt = expiresAt;
+    }
+
     public ObjectIOModel() {
         // necessary public constructor for serialization
     }
@@ -50,4 +65,41 @@ public class ObjectIOModel implements Serializable {
     public void setValue(String value) {
         this.value = value;
     }
+
+    /**
+     * Method to return the time the object expires at
+     * @return expiry time in milliseconds since the epoch, or 0 if the object never expires
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Method to set the time the object expires at
+     * @param expiresAt expiry time in milliseconds since the epoch, or 0 if the object never expires
+     */
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Method to check if the object has expired
+     * @param now the current time in milliseconds since the epoch
+     * @return true if the object has a time to live that has run out
+     */
+    public boolean expiredAt(long now) {
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeLong(version);
+        out.writeLong(expiresAt);
+        StorageConfig.getReplicationCompression().writeValue(out, value, StorageConfig.getCompressionThreshold());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+        version = in.readLong();
+        expiresAt = in.readLong();
+        value = Codec.readValue(in);
+    }
 }
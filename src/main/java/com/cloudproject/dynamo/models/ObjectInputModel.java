@@ -1,14 +1,24 @@
 package com.cloudproject.dynamo.models;
 
+import com.cloudproject.dynamo.compression.Codec;
+import com.cloudproject.dynamo.config.StorageConfig;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
- * Class used to deserialize an input JSON into a POJO
+ * Class used to deserialize an input JSON into a POJO. When sent to another node, a large value is
+ * compressed with the replication codec. The optional time to live is sent as is, so that every
+ * replica computes the expiry of the record from its own clock
  */
 public class ObjectInputModel implements Serializable {
 
     private String key;
     private String value;
+    private Durability durability;
+    private Long ttl;
 
     /**
      * Method to get the key
@@ -42,4 +52,50 @@ public class ObjectInputModel implements Serializable {
     public void setValue(String value) {
         this.value = value;
     }
+
+    /**
+     * Method to get the durability requested for the write
+     * @return The durability, or null to use the default of the bucket
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Method to set the durability requested for the write. Used for deserialization
+     * @param durability The durability of the write ("NONE", "BATCH" or "SYNC")
+     */
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * Method to get the time to live requested for the record
+     * @return The time to live in seconds, or null if the record never expires
+     */
+    public Long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Method to set the time to live of the record. Used for deserialization
+     * @param ttl The time to live in seconds, or null if the record never expires
+     */
+    public void setTtl(Long ttl) {
+        this.ttl = ttl;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeObject(key);
+        out.writeObject(durability);
+        out.writeObject(ttl);
+        StorageConfig.getReplicationCompression().writeValue(out, value, StorageConfig.getCompressionThreshold());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        key = (String) in.readObject();
+        durability = (Durability) in.readObject();
+        ttl = (Long) in.readObject();
+        value = Codec.readValue(in);
+    }
 }
@@ -0,0 +1,45 @@
+package com.cloudproject.dynamo.models;
+
+import java.io.Serializable;
+
+/**
+ * POJO holding a single record returned by a bucket scan
+ */
+public class ScanEntry implements Serializable {
+    private String key;
+    private String value;
+    private long version;
+
+    public ScanEntry(String key, ObjectIOModel ioModel) {
+        this.key = key;
+        this.value = ioModel.getValue();
+        this.version = ioModel.getVersion();
+    }
+
+    /**
+     * Method to get the key of the record
+     *
+     * @return key of the record
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Method to get the value of the record
+     *
+     * @return value of the record
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Method to get the version of the record
+     *
+     * @return version of the record
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,49 @@
+package com.cloudproject.dynamo.models;
+
+import java.util.List;
+
+/**
+ * POJO which is serialized to generate the JSON output of a bucket scan: a page of records, and
+ * the token with which the next page is requested
+ */
+public class ScanOutputModel extends OutputModel {
+
+    private List<ScanEntry> records;
+    private String continuation;
+
+    /**
+     * Method to get the records of the page
+     *
+     * @return records in key order
+     */
+    public List<ScanEntry> getRecords() {
+        return records;
+    }
+
+    /**
+     * Method to set the records of the page
+     *
+     * @param records records in key order
+     */
+    public void setRecords(List<ScanEntry> records) {
+        this.records = records;
+    }
+
+    /**
+     * Method to get the token to be passed as the start of the next page
+     *
+     * @return the token, or null if the scan is complete
+     */
+    public String getContinuation() {
+        return continuation;
+    }
+
+    /**
+     * Method to set the token to be passed as the start of the next page
+     *
+     * @param continuation the token, or null if the scan is complete
+     */
+    public void setContinuation(String continuation) {
+        this.continuation = continuation;
+    }
+}
@@ -0,0 +1,132 @@
+package com.cloudproject.dynamo.models;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * POJO holding one page of a bucket scan: records in key order, and the key after which the next
+ * page starts if the scan is not complete. Pages are what the nodes send to the coordinator of a
+ * scan, and what the coordinator merges and sends back to the API gateway.
+ */
+public class ScanPage implements Serializable {
+    private ArrayList<ScanEntry> entries;
+    private String continuation;
+
+    public ScanPage(ArrayList<ScanEntry> entries, String continuation) {
+        this.entries = entries;
+        this.continuation = continuation;
+    }
+
+    /**
+     * Method to get the records of the page
+     *
+     * @return records in key order
+     */
+    public ArrayList<ScanEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Method to get the key after which the next page starts
+     *
+     * @return the last key covered by this page, or null if the scan is complete
+     */
+    public String getContinuation() {
+        return continuation;
+    }
+
+    /**
+     * Method to cut the page after its first records, e.g. to fit it into a datagram. The rest of
+     * the records are fetched again by the next page
+     *
+     * @param size number of records to keep, at least one
+     */
+    public void truncate(int size) {
+        if (size < entries.size()) {
+            entries = new ArrayList<>(entries.subList(0, size));
+            continuation = entries.get(size - 1).getKey();
+        }
+    }
+
+    /**
+     * Method to merge the pages returned by every node for the same request into one page. The
+     * sorted pages are merged like sorted streams, and the replicas of a key are reduced to the one
+     * with the highest version. A node that returned a partial page may still hold keys past its
+     * last key, so the merged page stops at the lowest continuation of the pages
+     *
+     * @param pages pages of the nodes, each in key order
+     * @param limit maximum number of records in the merged page
+     * @return the merged page
+     */
+    public static ScanPage merge(List<ScanPage> pages, int limit) {
+        String bound = null;
+        for (ScanPage page : pages) {
+            if (page.continuation != null && (bound == null || page.continuation.compareTo(bound) < 0)) {
+                bound = page.continuation;
+            }
+        }
+        // heap of (page, position), ordered by the key at the position
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, pages.size()),
+                Comparator.comparing((int[] cursor) -> pages.get(cursor[0]).entries.get(cursor[1]).getKey()));
+        for (int i = 0; i < pages.size(); i++) {
+            if (!pages.get(i).entries.isEmpty()) {
+                heap.add(new int[]{i, 0});
+            }
+        }
+        ArrayList<ScanEntry> merged = new ArrayList<>();
+        while (!heap.isEmpty()) {
+            int[] cursor = heap.poll();
+            ScanEntry entry = pages.get(cursor[0]).entries.get(cursor[1]);
+            if (bound != null && entry.getKey().compareTo(bound) > 0) {
+                break;
+            }
+            ScanEntry last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.getKey().equals(entry.getKey())) {
+                if (entry.getVersion() > last.getVersion()) {
+                    merged.set(merged.size() - 1, entry);
+                }
+            } else if (merged.size() < limit) {
+                merged.add(entry);
+            } else {
+                // one more distinct key than fits: the page is full
+                return new ScanPage(merged, last.getKey());
+            }
+            if (cursor[1] + 1 < pages.get(cursor[0]).entries.size()) {
+                heap.add(new int[]{cursor[0], cursor[1] + 1});
+            }
+        }
+        return new ScanPage(merged, bound);
+    }
+
+    /**
+     * Method to encode a continuation into the opaque token handed to clients
+     *
+     * @param continuation the continuation, may be null
+     * @return the token, or null if the scan is complete
+     */
+    public static String encodeToken(String continuation) {
+        if (continuation == null) {
+            return null;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(continuation.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Method to decode a token handed out by {@link #encodeToken}
+     *
+     * @param token the token, may be null or empty
+     * @return the continuation, or null to start at the beginning of the bucket
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static String decodeToken(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,51 @@
+package com.cloudproject.dynamo.models;
+
+import java.io.Serializable;
+
+/**
+ * POJO holding the key range and page size of a bucket scan, as sent from the coordinator of the
+ * scan to every node
+ */
+public class ScanRequest implements Serializable {
+    private String prefix;
+    private String startAfter;
+    private int limit;
+
+    /**
+     * @param prefix     prefix every returned key starts with, or null for all keys
+     * @param startAfter key after which the scan starts (exclusive), or null to start at the beginning
+     * @param limit      maximum number of records in the page
+     */
+    public ScanRequest(String prefix, String startAfter, int limit) {
+        this.prefix = prefix;
+        this.startAfter = startAfter;
+        this.limit = limit;
+    }
+
+    /**
+     * Method to get the prefix of the scanned keys
+     *
+     * @return the prefix, or null for all keys
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Method to get the key after which the scan starts
+     *
+     * @return the key, or null to start at the beginning of the bucket
+     */
+    public String getStartAfter() {
+        return startAfter;
+    }
+
+    /**
+     * Method to get the maximum number of records in the page
+     *
+     * @return the page size
+     */
+    public int getLimit() {
+        return limit;
+    }
+}
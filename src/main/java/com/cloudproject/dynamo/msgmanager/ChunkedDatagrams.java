@@ -0,0 +1,306 @@
+package com.cloudproject.dynamo.msgmanager;
+
+import com.cloudproject.dynamo.config.StorageConfig;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class ChunkedDatagrams. Carries encoded messages larger than one datagram between nodes:
+ * 1. A message that fits into a datagram is sent as is, so small messages are unchanged on the wire.
+ * 2. A larger message is split into numbered chunks, each sent in its own datagram behind a header
+ *    holding the id of the transfer, the index of the chunk, the number of chunks and the length of
+ *    the message, from which the receiver allocates the message once and places every chunk.
+ * 3. The sender sends a window of chunks at a time ({@link StorageConfig#getTransferWindow()}) and
+ *    waits for the receiver to acknowledge the chunks it holds without a gap before sending more, so
+ *    that a transfer never overruns the socket buffer of the receiver. A window that is not
+ *    acknowledged in time is sent again, with a growing delay, until the transfer times out.
+ * 4. The receiver keeps every chunk as it arrives and only builds the message once the last one is
+ *    in, so that a transfer holds no more memory than the chunks received. The chunks held by all the
+ *    transfers of a node ({@link StorageConfig#getTransferMemory()}) and the transfers open per sender
+ *    ({@link StorageConfig#getTransfersPerSender()}) are bounded, and the transfers past these bounds
+ *    are dropped, to be sent again by their senders.
+ * The receiver answers to the address the chunks came from, which is the channel of the sender, so
+ * acknowledgements never go through the receive loops of the sender.
+ */
+final class ChunkedDatagrams {
+
+    static final int PACKET_SIZE = 1500;
+
+    private static final int MAGIC = 0x444C4443;
+    private static final byte CHUNK = 1;
+    private static final byte ACK = 2;
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 4 + 4 + 4;
+    private static final int ACK_SIZE = 4 + 1 + 8 + 4;
+    private static final int CHUNK_SIZE = PACKET_SIZE - HEADER_SIZE;
+    private static final int MIN_RETRY_MILLIS = 50;
+    private static final int MAX_RETRY_MILLIS = 2000;
+
+    // bytes held by the transfers being received on every channel of the node
+    private static final AtomicLong held = new AtomicLong();
+
+    private ChunkedDatagrams() {
+    }
+
+    /**
+     * Method to send an encoded message, in chunks if it does not fit into one datagram. A chunked
+     * message is only sent once the receiver has acknowledged all of its chunks
+     *
+     * @param channel channel of the sender, used by no one else until the message is sent
+     * @param message the encoded message
+     * @param dest    address of the receiver
+     * @throws IOException if the message is too large or the receiver stops acknowledging its chunks
+     */
+    static void send(OutboundTransport.SendChannel channel, byte[] message, SocketAddress dest) throws IOException {
+        ByteBuffer buffer = channel.buffer();
+        if (message.length <= PACKET_SIZE) {
+            buffer.clear();
+            buffer.put(message).flip();
+            channel.send(dest);
+            return;
+        }
+        if (message.length > StorageConfig.getMaxMessageSize()) {
+            throw new IOException("Message of " + message.length + " bytes is larger than "
+                    + StorageConfig.getMaxMessageSize());
+        }
+        long transferId = ThreadLocalRandom.current().nextLong();
+        int count = (message.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int window = Math.max(1, StorageConfig.getTransferWindow());
+        long timeout = StorageConfig.getTransferTimeout();
+        int acked = 0;
+        int retryMillis = MIN_RETRY_MILLIS;
+        long lastProgress = System.currentTimeMillis();
+        while (acked < count) {
+            int end = Math.min(count, acked + window);
+            for (int index = acked; index < end; index++) {
+                int offset = index * CHUNK_SIZE;
+                int length = Math.min(CHUNK_SIZE, message.length - offset);
+                buffer.clear();
+                buffer.putInt(MAGIC).put(CHUNK).putLong(transferId).putInt(index).putInt(count).putInt(message.length);
+                buffer.put(message, offset, length).flip();
+                channel.send(dest);
+            }
+            // wait for the acknowledgement of the window, ignoring stale ones
+            int previous = acked;
+            long deadline = System.currentTimeMillis() + retryMillis;
+            long remaining = retryMillis;
+            while (acked < end && remaining > 0 && channel.receive(remaining)) {
+                if (buffer.remaining() == ACK_SIZE && buffer.getInt() == MAGIC && buffer.get() == ACK
+                        && buffer.getLong() == transferId) {
+                    acked = Math.max(acked, Math.min(count, buffer.getInt()));
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            long now = System.currentTimeMillis();
+            if (acked > previous) {
+                lastProgress = now;
+                retryMillis = MIN_RETRY_MILLIS;
+            } else if (now - lastProgress >= timeout) {
+                throw new IOException("Transfer of " + message.length + " bytes to " + dest + " timed out after "
+                        + acked + " of " + count + " chunks");
+            } else {
+                // send the unacknowledged part of the window again
+                retryMillis = Math.min(MAX_RETRY_MILLIS, retryMillis * 2);
+            }
+        }
+    }
+
+    /**
+     * Receiving side of a channel, reassembling the chunked messages sent to it. The transfers of
+     * several senders may be interleaved; every channel has its own receiver, used by the one thread
+     * reading the channel
+     */
+    static class Receiver {
+        private final DatagramChannel channel;
+        private final Map<Long, Transfer> transfers;
+
+        Receiver(DatagramChannel channel) {
+            this.channel = channel;
+            this.transfers = new HashMap<>();
+        }
+
+        /**
+         * Method to take a datagram received on the channel, acknowledging the chunks of larger
+         * messages as they arrive
+         *
+         * @param datagram the datagram, from its position to its limit
+         * @param from     address of the sender
+         * @return the decoded message if the datagram completed one, null otherwise
+         * @throws IOException if the message is malformed
+         */
+        DynamoMessage onDatagram(ByteBuffer datagram, SocketAddress from) throws IOException {
+            if (datagram.remaining() < HEADER_SIZE || datagram.getInt(datagram.position()) != MAGIC) {
+                // a message of its own, decoded in place
+                return WireCodec.decode(datagram);
+            }
+            byte[] message = onChunk(datagram, from);
+            return message == null ? null : WireCodec.decode(ByteBuffer.wrap(message));
+        }
+
+        /**
+         * Places a chunk into its message
+         *
+         * @return the message if the chunk completed it, null otherwise
+         */
+        private byte[] onChunk(ByteBuffer header, SocketAddress from) throws IOException {
+            header.getInt();
+            if (header.get() != CHUNK) {
+                return null;
+            }
+            long transferId = header.getLong();
+            int index = header.getInt();
+            int count = header.getInt();
+            int length = header.getInt();
+            if (index < 0 || index >= count) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            expire(now);
+            Transfer transfer = transfers.get(transferId);
+            if (transfer == null) {
+                if (length <= 0 || length > StorageConfig.getMaxMessageSize()
+                        || count != (length + CHUNK_SIZE - 1) / CHUNK_SIZE
+                        || !reserve(from, Transfer.overhead(count))) {
+                    System.out.println("[WARN] Dropping chunked message of " + length + " bytes from " + from);
+                    return null;
+                }
+                transfer = new Transfer(from, length, count);
+                transfers.put(transferId, transfer);
+            } else if (transfer.length != length || transfer.chunks != null && transfer.chunks.length != count
+                    || !transfer.sender.equals(from)) {
+                return null;
+            }
+            transfer.lastChunk = now;
+            byte[] message = null;
+            boolean duplicate = transfer.chunks == null || transfer.received.get(index);
+            if (!duplicate) {
+                // every chunk but the last fills its slice of the message
+                int slice = Math.min(CHUNK_SIZE, length - index * CHUNK_SIZE);
+                if (header.remaining() != slice) {
+                    System.out.println("[WARN] Dropping chunk of " + header.remaining() + " bytes instead of "
+                            + slice + " from " + from);
+                    return null;
+                }
+                if (!reserve(null, slice)) {
+                    System.out.println("[WARN] Dropping chunk from " + from + ": transfer memory exhausted");
+                    return null;
+                }
+                transfer.held += slice;
+                transfer.chunks[index] = new byte[slice];
+                header.get(transfer.chunks[index]);
+                transfer.received.set(index);
+                if (transfer.received.cardinality() == count) {
+                    message = transfer.assemble();
+                    // kept until it expires, to acknowledge chunks sent again after the last acknowledgement
+                    release(transfer);
+                }
+            }
+            int window = Math.max(1, StorageConfig.getTransferWindow());
+            if (duplicate || message != null || (index + 1) % window == 0) {
+                int next = transfer.chunks == null ? count : transfer.received.nextClearBit(0);
+                ByteBuffer ack = ByteBuffer.allocate(ACK_SIZE);
+                ack.putInt(MAGIC).put(ACK).putLong(transferId).putInt(next).flip();
+                // a full socket buffer drops the acknowledgement, and the sender sends the window again
+                this.channel.send(ack, from);
+            }
+            return message;
+        }
+
+        /**
+         * Reserves memory for a transfer, within the bounds of the node and, for a new transfer, of
+         * its sender
+         *
+         * @param sender sender opening a new transfer, or null for a chunk of an open one
+         * @param bytes  bytes to reserve
+         * @return true if the memory was reserved
+         */
+        private boolean reserve(SocketAddress sender, long bytes) {
+            if (sender != null) {
+                int open = 0;
+                for (Transfer transfer : transfers.values()) {
+                    if (transfer.chunks != null && transfer.sender.equals(sender)) {
+                        open++;
+                    }
+                }
+                if (open >= StorageConfig.getTransfersPerSender()) {
+                    return false;
+                }
+            }
+            if (held.addAndGet(bytes) > StorageConfig.getTransferMemory()) {
+                held.addAndGet(-bytes);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Frees the memory held by a transfer
+         */
+        private void release(Transfer transfer) {
+            if (transfer.chunks != null) {
+                held.addAndGet(-(transfer.held + Transfer.overhead(transfer.chunks.length)));
+                transfer.chunks = null;
+                transfer.held = 0;
+            }
+        }
+
+        /**
+         * Forgets the transfers that made no progress for longer than the transfer timeout
+         */
+        private void expire(long now) {
+            Iterator<Transfer> it = transfers.values().iterator();
+            while (it.hasNext()) {
+                Transfer transfer = it.next();
+                if (now - transfer.lastChunk > StorageConfig.getTransferTimeout()) {
+                    release(transfer);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Chunked message being received, holding the chunks received so far
+     */
+    private static class Transfer {
+        private final SocketAddress sender;
+        private final int length;
+        private final BitSet received;
+        private byte[][] chunks;
+        private long held;
+        private long lastChunk;
+
+        Transfer(SocketAddress sender, int length, int count) {
+            this.sender = sender;
+            this.length = length;
+            this.chunks = new byte[count][];
+            this.received = new BitSet(count);
+        }
+
+        /**
+         * Returns the bytes held by a transfer of the given number of chunks before any chunk arrives
+         */
+        static long overhead(int count) {
+            return 64 + 8L * count;
+        }
+
+        /**
+         * Builds the message out of its chunks, once every chunk is received
+         */
+        byte[] assemble() {
+            byte[] message = new byte[length];
+            for (int index = 0; index < chunks.length; index++) {
+                System.arraycopy(chunks[index], 0, message, index * CHUNK_SIZE, chunks[index].length);
+            }
+            return message;
+        }
+    }
+}
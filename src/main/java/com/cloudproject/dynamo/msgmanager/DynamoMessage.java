@@ -8,11 +8,18 @@ class DynamoMessage implements Serializable {
     DynamoNode srcNode;
     MessageTypes type;
     Object payload;
+    /* id of the request the message belongs to, echoed by every reply to it; 0 outside of requests */
+    long txnID;
 
     DynamoMessage(DynamoNode srcNode, MessageTypes type, Object payload) {
+        this(srcNode, type, payload, 0);
+    }
+
+    DynamoMessage(DynamoNode srcNode, MessageTypes type, Object payload, long txnID) {
         this.srcNode = srcNode;
         this.type = type;
         this.payload = payload;
+        this.txnID = txnID;
     }
 }
 
@@ -19,6 +19,16 @@ public class DynamoNode implements Serializable, Cloneable, Node {
         this.apiNode = apiNode;
     }
 
+    /**
+     * Copy of a node received from another node, without a timer of its own
+     */
+    DynamoNode(String name, String address, int heartbeat, boolean apiNode) {
+        this.name = name;
+        this.address = address;
+        this.heartbeat = heartbeat;
+        this.apiNode = apiNode;
+    }
+
     public String getAddress() {
         return address;
     }
@@ -1,10 +1,13 @@
 package com.cloudproject.dynamo.msgmanager;
 
-import com.cloudproject.dynamo.config.AppConfig;
+import com.cloudproject.dynamo.config.StorageConfig;
 import com.cloudproject.dynamo.consistenthash.CityHash;
 import com.cloudproject.dynamo.consistenthash.HashFunction;
 import com.cloudproject.dynamo.consistenthash.HashingManager;
 import com.cloudproject.dynamo.models.*;
+import com.cloudproject.dynamo.storage.BucketDump;
+import com.cloudproject.dynamo.storage.ObjectCache;
+import com.cloudproject.dynamo.storage.StorageEngine;
 import javafx.util.Pair;
 import org.apache.commons.io.FileUtils;
 import org.jetbrains.annotations.Nullable;
@@ -12,16 +15,23 @@ import org.jetbrains.annotations.Nullable;
 import javax.management.Notification;
 import javax.management.NotificationListener;
 import java.io.*;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class DynamoServer. Handles communication with other nodes:
@@ -29,7 +39,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *    through Gossip protocol.
  * 2. Capable of running either in the API mode or a standard Dynamo node.
  *     - While in API mode, receives requests from the REST API and forwards the request to a
- *       standard dynamo node.
+ *       standard dynamo node: a request on a record to the fastest of its replicas, found on the
+ *       hash ring kept by the gateway, and any other request to a random node.
  *     - While in the standard Dynamo server mode, receives requests from either the API node or
  *       other nodes in the network, parses them and translates them into
  *       actions (for example - writing to disk, updating node lists or forwarding messages to other nodes)
@@ -41,15 +52,27 @@ public class DynamoServer implements NotificationListener {
     private final ArrayList<DynamoNode> deadList;
 
     private static DynamoServer selfServer;
+    private static final int PACKET_SIZE = ChunkedDatagrams.PACKET_SIZE;
+    private static final int MAX_SCAN_LIMIT = 1000;
+    private static final int BULK_BATCH_BYTES = 1 << 20;
+    private static final int BULK_WINDOW = 4;
 
     private final ExecutorService executorService;
-    private final DatagramSocket server;
-    private final DatagramSocket ioServer;
+    private final ExecutorService requestExecutor;
+    private final InboundEventLoop inbound;
+    private final Map<Long, AckListener> pendingRequests;
+    private final AtomicLong nextTxnID;
+    private final Map<String, Long> latencies;
+    private final ConcurrentHashMap<String, RecordLock> recordLocks;
+    private final OutboundTransport transport;
     private final DynamoNode node;
+    private final StorageEngine store;
+    private final ObjectCache cache;
     private final Random random;
+    private final long recoveryMillis;
     private int gossipInt;
     private int ttl;
-    private HashingManager<DynamoNode> hashingManager;
+    private volatile HashingManager<DynamoNode> hashingManager;
     private int ackPort;
     private int ioPort;
 
@@ -69,12 +92,10 @@ public class DynamoServer implements NotificationListener {
 
         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
             public void run() {
-                if (!DynamoServer.this.server.isClosed()) {
-                    DynamoServer.this.server.close();
-                }
-                if (!DynamoServer.this.ioServer.isClosed()) {
-                    DynamoServer.this.ioServer.close();
-                }
+                DynamoServer.this.inbound.close();
+                DynamoServer.this.transport.close();
+                DynamoServer.this.store.close();
+                System.out.println("[Cache] " + DynamoServer.this.cache);
                 System.out.println("Goodbye my friends...");
             }
         }));
@@ -84,6 +105,12 @@ public class DynamoServer implements NotificationListener {
         this.nodeList = new ArrayList<>();
         this.deadList = new ArrayList<>();
         this.executorService = Executors.newCachedThreadPool();
+        AtomicInteger ioThreads = new AtomicInteger();
+        this.requestExecutor = Executors.newFixedThreadPool(StorageConfig.getRequestThreads(),
+                r -> new Thread(r, "dynamo-io-" + ioThreads.incrementAndGet()));
+        this.pendingRequests = new ConcurrentHashMap<>();
+        this.latencies = new ConcurrentHashMap<>();
+        this.recordLocks = new ConcurrentHashMap<>();
         this.gossipInt = gossipInt;
         this.ttl = ttl;
         if (addr_list != null) {
@@ -93,13 +120,39 @@ public class DynamoServer implements NotificationListener {
         }
 
         this.node = new DynamoNode(name, address, this, 0, ttl, apiNode);
+        long recoveryStart = System.nanoTime();
+        List<File> dataDirs = new ArrayList<>();
+        for (String dataDir : StorageConfig.getDataDirs()) {
+            dataDirs.add(new File(dataDir));
+        }
+        this.store = StorageEngine.open(StorageConfig.getEngine(), dataDirs);
+        try {
+            /* load the bucket indexes now rather than on the first request to each bucket */
+            this.store.recover();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - recoveryStart);
+        this.cache = new ObjectCache(StorageConfig.getCacheSize());
+        this.cache.registerMBean();
         int port = Integer.parseInt(address.split(":")[1]);
 
         /* init Random */
         this.random = new Random();
+        /* start from a random id, so that late replies to the requests of a previous run match nothing */
+        this.nextTxnID = new AtomicLong(this.random.nextLong());
         /* Listen at port number port */
-        this.server = new DatagramSocket(port);
-        this.ioServer = new DatagramSocket(this.ioPort);
+        try {
+            this.inbound = new InboundEventLoop(StorageConfig.getEventLoopThreads(), "dynamo-inbound");
+            this.inbound.register(port, new GossipReceiver());
+            this.inbound.register(this.ioPort, new ioReceiver());
+            this.inbound.register(this.ackPort, this::onAcknowledgement);
+        } catch (IOException e) {
+            SocketException se = new SocketException("Could not listen: " + e.getMessage());
+            se.initCause(e);
+            throw se;
+        }
+        this.transport = new OutboundTransport();
         System.out.println("[Dynamo Server] Listening at port: " + port);
     }
 
@@ -110,6 +163,8 @@ public class DynamoServer implements NotificationListener {
         synchronized (DynamoServer.this.nodeList) {
             DynamoServer.this.nodeList.remove(deadNode);
         }
+        this.transport.invalidate(deadNode);
+        this.latencies.remove(deadNode.getAddress());
 
         synchronized (DynamoServer.this.deadList) {
             DynamoServer.this.deadList.add(deadNode);
@@ -126,6 +181,7 @@ public class DynamoServer implements NotificationListener {
 
     private void start() {
 
+        long start = System.nanoTime();
         for (DynamoNode localNode : this.nodeList) {
             if (localNode != this.node) {
                 localNode.startTimer();
@@ -141,11 +197,14 @@ public class DynamoServer implements NotificationListener {
                 e.printStackTrace();
             }
         }
+        long heartbeatMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
 
         //exec.execute(new PingSender());
-        this.executorService.execute(new GossipReceiver());
+        this.inbound.start();
         this.executorService.execute(new Gossiper());
-        this.executorService.execute(new ioReceiver());
+        System.out.println("[Dynamo Server] Startup: storage recovery " + this.recoveryMillis + " ms, heartbeat restore "
+                + heartbeatMillis + " ms, serving after "
+                + (this.recoveryMillis + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)) + " ms");
         this.printNodeList();
 
 //        while (true) {
@@ -170,41 +229,35 @@ public class DynamoServer implements NotificationListener {
      *
      * @param node Instance of the DynamoNode to send the message to.
      * @param msg The message to send.
-     * @throws IOException if there is an error while sending through the datagram socket.
+     * @throws IOException if the message cannot be encoded or sent.
      */
 
     private void sendMessage(DynamoNode node, DynamoMessage msg) throws IOException {
         //vclock
 //        JVec jv=new JVec(DynamoServer.this.node);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(msg);
-        byte[] buf = baos.toByteArray();
+        byte[] buf = WireCodec.encode(msg);
 //        byte[] res=jv.prepareSend(buf);
-        String address = node.getAddress();
-        String host = address.split(":")[0];
         int port;
         if (msg.type == MessageTypes.NODE_LIST) {
-            port = Integer.parseInt(address.split(":")[1]);
+            port = Integer.parseInt(node.getAddress().split(":")[1]);
         } else if (msg.type == MessageTypes.ACKNOWLEDGEMENT
                 | msg.type == MessageTypes.FORWARD_ACK
-                | msg.type == MessageTypes.FORWARD_ACK_READ) {
+                | msg.type == MessageTypes.FORWARD_ACK_READ
+                | msg.type == MessageTypes.SCAN_RESULT
+                | msg.type == MessageTypes.BULK_RECORDS
+                | msg.type == MessageTypes.FORWARD_ACK_SCAN) {
             port = this.ackPort;
         } else {
             port = this.ioPort;
         }
 
-        InetAddress dest;
-        dest = InetAddress.getByName(host);
+        InetSocketAddress dest = this.transport.resolve(node, port);
 
-        System.out.println("[DynamoServer] Sending " + msg.type.name() + " (" + buf.length + ") to " + dest.getHostAddress());
+        System.out.println("[DynamoServer] Sending " + msg.type.name() + " (" + buf.length + ") to "
+                + dest.getAddress().getHostAddress());
 //        System.out.println("[DynamoServer] Sending " + msg.type.name() + " (" + res.length + ") to " + dest.getHostAddress());
 
-        DatagramSocket socket = new DatagramSocket();
-        DatagramPacket datagramPacket = new DatagramPacket(buf, buf.length, dest, port);
-//        DatagramPacket datagramPacket = new DatagramPacket(res, res.length, dest, port);
-        socket.send(datagramPacket);
-        socket.close();
+        this.transport.send(dest, buf);
     }
 
     /**
@@ -248,13 +301,17 @@ public class DynamoServer implements NotificationListener {
         File file = new File(this.node.name + ".log");
         FileUtils.write(file, Integer.toString(this.node.getHeartbeat()), Charset.defaultCharset(), false);
         //ArrayList<DynamoNode> sendList = cloneArrayList(this.nodeList);
+        DynamoNode dstNode;
+        ArrayList<DynamoNode> sendList;
+        /* copy the list, so that the gossip receiver is not held up by a slow send */
         synchronized (this.nodeList) {
-            DynamoNode dstNode = this.getRandomNode(false);
-            if (dstNode != null) {
-                DynamoMessage listMsg =
-                        new DynamoMessage(this.node, MessageTypes.NODE_LIST, this.nodeList);
-                this.sendMessage(dstNode, listMsg);
-            }
+            dstNode = this.getRandomNode(false);
+            sendList = new ArrayList<>(this.nodeList);
+        }
+        if (dstNode != null) {
+            DynamoMessage listMsg =
+                    new DynamoMessage(this.node, MessageTypes.NODE_LIST, sendList);
+            this.sendMessage(dstNode, listMsg);
         }
     }
 
@@ -308,9 +365,12 @@ public class DynamoServer implements NotificationListener {
                                                     this, remoteNode.getHeartbeat(),
                                                     this.ttl, remoteNode.isApiNode());
                                     DynamoServer.this.nodeList.add(newNode);
+                                    this.transport.invalidate(newNode);
 
                                     if (hashingManager != null && !newNode.isApiNode()) {
-                                        hashingManager.addNode(newNode);
+                                        synchronized (hashingManager.getLock()) {
+                                            hashingManager.addNode(newNode);
+                                        }
                                     }
 
                                     newNode.startTimer();
@@ -325,9 +385,12 @@ public class DynamoServer implements NotificationListener {
                                         new DynamoNode(remoteNode.name, remoteNode.getAddress(),
                                                 this, remoteNode.getHeartbeat(), this.ttl, remoteNode.isApiNode());
                                 DynamoServer.this.nodeList.add(newNode);
+                                this.transport.invalidate(newNode);
 
                                 if (hashingManager != null && !newNode.isApiNode()) {
-                                    hashingManager.addNode(newNode);
+                                    synchronized (hashingManager.getLock()) {
+                                        hashingManager.addNode(newNode);
+                                    }
                                 }
 
                                 newNode.startTimer();
@@ -397,12 +460,12 @@ public class DynamoServer implements NotificationListener {
         System.out.println("Forcing shutdown...");
         System.out.println("Goodbye my friends...");
         this.executorService.shutdownNow();
-        if (!DynamoServer.this.server.isClosed()) {
-            DynamoServer.this.server.close();
-        }
-        if (!DynamoServer.this.ioServer.isClosed()) {
-            DynamoServer.this.ioServer.close();
-        }
+        this.requestExecutor.shutdownNow();
+        this.inbound.close();
+        this.transport.close();
+        this.store.close();
+        System.out.println("[Cache] " + this.cache);
+        this.cache.unregisterMBean();
         outputModel.setResponse("Server successfully shutdown");
         outputModel.setStatus(true);
         selfServer = null;
@@ -413,9 +476,10 @@ public class DynamoServer implements NotificationListener {
      *
      * @param messageType The type of message to be sent
      * @param payload     the message payload
+     * @param txnID       id of the request, which the replies carry back
      */
-    private void sendRequests(MessageTypes messageType, Object payload) {
-        this.executorService.execute(new MessageSender(messageType, payload));
+    private void sendRequests(MessageTypes messageType, Object payload, long txnID) {
+        this.executorService.execute(new MessageSender(messageType, payload, txnID));
     }
 
     /**
@@ -424,23 +488,89 @@ public class DynamoServer implements NotificationListener {
      * @param messageType The type of message to be sent
      * @param payload     The message payload
      * @param sendList    List of nodes which will receive the message
+     * @param txnID       id of the request, which the replies carry back
      */
-    private void sendRequests(MessageTypes messageType, Object payload, ArrayList<DynamoNode> sendList) {
-        this.executorService.execute(new MessageSender(messageType, payload, sendList));
+    private void sendRequests(MessageTypes messageType, Object payload, ArrayList<DynamoNode> sendList, long txnID) {
+        this.executorService.execute(new MessageSender(messageType, payload, sendList, txnID));
     }
 
     /**
-     * Method to send a request to a specific node
+     * Method to send a request of the API gateway to the node coordinating it, and measure how long
+     * the node takes to answer
      *
-     * @param payload the message payload
+     * @param payload the message payload, holding the id of the request
+     * @param answer  future completed once the node answered, or failed to
      */
-    private void sendRequestToRandNode(Object payload)
+    private void sendRequestToRandNode(ForwardPayload payload, CompletableFuture<Void> answer)
             throws IOException {
 //        ArrayList<DynamoNode> list = new ArrayList<>();
 //        list.add(dynamoNode);
 //        sendRequests(MessageTypes.FORWARD, payload, list);
-        this.sendMessage(getRandomNode(true),
-                new DynamoMessage(this.node, MessageTypes.FORWARD, payload));
+        DynamoNode coordinator = getCoordinator(payload);
+        long start = System.nanoTime();
+        answer.whenComplete((result, error) -> {
+            // a node that did not answer counts as answering after the whole timeout
+            long latency = error == null ? System.nanoTime() - start
+                    : TimeUnit.SECONDS.toNanos(StorageConfig.getRequestTimeout(payload.getRequestType()));
+            // smoothed over the last requests, so that a single slow one does not turn a replica away for good
+            this.latencies.merge(coordinator.getAddress(), latency, (old, sample) -> old + (sample - old) / 8);
+        });
+        this.sendMessage(coordinator,
+                new DynamoMessage(this.node, MessageTypes.FORWARD, payload, payload.getTxnID()));
+    }
+
+    /**
+     * Method to choose the node coordinating a request of the API gateway. A request on a record goes
+     * straight to one of the replicas of its key, computed on the hash ring of the gateway, so that it
+     * is not forwarded once more to reach one; of the replicas, the one that answered fastest lately is
+     * chosen, and a replica not tried yet before any other. Requests on a whole bucket can be
+     * coordinated by any node, and go to a random one
+     *
+     * @param payload the message payload
+     * @return the node to send the request to
+     */
+    private DynamoNode getCoordinator(ForwardPayload payload) {
+        String key = null;
+        switch (payload.getRequestType()) {
+            case OBJECT_CREATE:
+            case OBJECT_UPDATE:
+                key = ((ObjectInputModel) payload.getInputModel()).getKey();
+                break;
+            case OBJECT_READ:
+            case OBJECT_DELETE:
+                key = String.valueOf(payload.getInputModel());
+                break;
+        }
+        ArrayList<DynamoNode> replicas = key == null ? null : getHashNodes(key);
+        if (replicas == null || replicas.isEmpty()) {
+            return getRandomNode(true);
+        }
+        // start from a random replica, so that replicas as fast as each other share the requests
+        int offset = random.nextInt(replicas.size());
+        DynamoNode fastest = null;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < replicas.size(); i++) {
+            DynamoNode replica = replicas.get((offset + i) % replicas.size());
+            long latency = this.latencies.getOrDefault(replica.getAddress(), 0L);
+            if (latency < best) {
+                best = latency;
+                fastest = replica;
+            }
+        }
+        return fastest;
+    }
+
+    /**
+     * Method to return a new id of a request coordinated by this node
+     *
+     * @return the id, never 0
+     */
+    private long newTxnID() {
+        long txnID;
+        do {
+            txnID = this.nextTxnID.incrementAndGet();
+        } while (txnID == 0);
+        return txnID;
     }
 
     /**
@@ -449,13 +579,23 @@ public class DynamoServer implements NotificationListener {
      * @param messageType the type of operation to be performed
      * @param bucketName the name of the bucket
      * @param outputModel POJO which will return the response
+     * @return future completed once the response is set, never on an event loop thread
      */
-    public void forwardToRandNode(MessageTypes messageType, String bucketName, OutputModel outputModel) {
+    public CompletableFuture<Void> forwardToRandNode(MessageTypes messageType, String bucketName,
+                                                     OutputModel outputModel) {
+        ReceiveFromRandNode receiver = new ReceiveFromRandNode(outputModel);
+        CompletableFuture<Void> answer = receiver.listen(StorageConfig.getRequestTimeout(messageType),
+                TimeUnit.SECONDS);
         try {
-            Future future = this.executorService.submit(new ReceiveFromRandNode(outputModel));
-            sendRequestToRandNode(new ForwardPayload(messageType, bucketName, null, 0));
-            future.get(20, TimeUnit.SECONDS);
-
+            sendRequestToRandNode(new ForwardPayload(messageType, bucketName, null, receiver.txnID), answer);
+        } catch (IOException e) {
+            answer.completeExceptionally(e);
+        }
+        return answer.handleAsync((result, error) -> {
+            if (error != null) {
+                onForwardError(error, outputModel);
+                return null;
+            }
             // outputModel contains status, read status and set message
             switch (messageType) {
                 case BUCKET_CREATE:
@@ -467,14 +607,8 @@ public class DynamoServer implements NotificationListener {
                             (outputModel.isStatus() ? " deleted successfully" : " deletion failed"));
                     break;
             }
-
-        } catch (ExecutionException | InterruptedException | IOException e) {
-            outputModel.setStatus(false);
-            outputModel.setResponse(e.getMessage());
-        } catch (TimeoutException e) {
-            System.out.println(">> Response timeout! Use sloppy quorum!");
-            e.printStackTrace();
-        }
+            return null;
+        }, this.executorService);
     }
 
     /**
@@ -484,18 +618,22 @@ public class DynamoServer implements NotificationListener {
      * @param bucketName  the name of the bucket in which the object resides
      * @param inputObject POJO containing the key and value of the object
      * @param outputModel POJO which will return the response
+     * @return future completed once the response is set, never on an event loop thread
      */
-    public void forwardToRandNode(MessageTypes messageType, String bucketName,
-                                  Object inputObject, OutputModel outputModel) {
+    public CompletableFuture<Void> forwardToRandNode(MessageTypes messageType, String bucketName,
+                                                     Object inputObject, OutputModel outputModel) {
+        ReceiveFromRandNode receiver = new ReceiveFromRandNode(outputModel);
+        CompletableFuture<Void> answer = receiver.listen(StorageConfig.getRequestTimeout(messageType),
+                TimeUnit.SECONDS);
         try {
-            Future future = this.executorService.submit(new ReceiveFromRandNode(outputModel));
-            sendRequestToRandNode(new ForwardPayload(messageType, bucketName, inputObject, 2));
-            future.get(20, TimeUnit.SECONDS);
-            /* TODO: [temp done]Since we will not be using the Receiver for randNode, kill the thread,
-             *  it is occupying a port and CPU time without any reason.
-             */
-            if (!future.isDone()) {
-                future.cancel(true);
+            sendRequestToRandNode(new ForwardPayload(messageType, bucketName, inputObject, receiver.txnID), answer);
+        } catch (IOException e) {
+            answer.completeExceptionally(e);
+        }
+        return answer.handleAsync((result, error) -> {
+            if (error != null) {
+                onForwardError(error, outputModel);
+                return null;
             }
             // outputModel contains status, read status and set message
             switch (messageType) {
@@ -505,6 +643,7 @@ public class DynamoServer implements NotificationListener {
                             (outputModel.isStatus() ? " creation successfully" : " creation failed"));
                     break;
                 case OBJECT_READ:
+                case BUCKET_SCAN:
                     // value should already be written
                     break;
                 case OBJECT_UPDATE:
@@ -517,14 +656,104 @@ public class DynamoServer implements NotificationListener {
                             (outputModel.isStatus() ? " removed successfully" : " removal failed"));
                     break;
             }
-        } catch (ExecutionException | InterruptedException | IOException e) {
+            return null;
+        }, this.executorService);
+    }
+
+    /**
+     * Method to report a request forwarded to a coordinator that failed, or got no answer in time
+     *
+     * @param error       the failure
+     * @param outputModel POJO which will return the response
+     */
+    private static void onForwardError(Throwable error, OutputModel outputModel) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            System.out.println(">> Response timeout! Use sloppy quorum!");
+            outputModel.setStatus(false);
+            outputModel.setResponse("No answer from the cluster in time");
+        } else {
+            outputModel.setStatus(false);
+            outputModel.setResponse(cause.getMessage());
+        }
+        cause.printStackTrace();
+    }
+
+    /**
+     * Method to read a page of the records of a bucket, in key order
+     *
+     * @param bucketName  the name of the bucket
+     * @param prefix      prefix every returned key starts with, or null for all keys
+     * @param token       continuation token returned with the previous page, or null for the first page
+     * @param limit       maximum number of records in the page
+     * @param outputModel POJO which will return the records and the token of the next page
+     * @return future completed once the response is set, never on an event loop thread
+     */
+    public CompletableFuture<Void> scanBucket(String bucketName, String prefix, String token, int limit,
+                                              ScanOutputModel outputModel) {
+        String startAfter;
+        try {
+            startAfter = ScanPage.decodeToken(token);
+        } catch (IllegalArgumentException e) {
+            outputModel.setStatus(false);
+            outputModel.setResponse("Invalid continuation token");
+            return CompletableFuture.completedFuture(null);
+        }
+        if (limit < 1 || limit > MAX_SCAN_LIMIT) {
+            outputModel.setStatus(false);
+            outputModel.setResponse("limit must be between 1 and " + MAX_SCAN_LIMIT);
+            return CompletableFuture.completedFuture(null);
+        }
+        return forwardToRandNode(MessageTypes.BUCKET_SCAN, bucketName, new ScanRequest(prefix, startAfter, limit),
+                outputModel);
+    }
+
+    /**
+     * Method to bulk import a bucket from a dump, or export it to one. The dump is read or written
+     * by the node coordinating the transfer, so it must be on the bulk directory of that node
+     *
+     * @param messageType BUCKET_IMPORT or BUCKET_EXPORT
+     * @param bucketName  the name of the bucket
+     * @param path        name of the dump, relative to the bulk directory
+     * @param outputModel POJO which will return the response
+     * @return future completed once the response is set, never on an event loop thread
+     */
+    public CompletableFuture<Void> bulkTransfer(MessageTypes messageType, String bucketName, String path,
+                                                OutputModel outputModel) {
+        String action = messageType == MessageTypes.BUCKET_IMPORT ? " imported from " : " exported to ";
+        try {
+            BucketDump.resolve(path);
+        } catch (IOException e) {
             outputModel.setStatus(false);
             outputModel.setResponse(e.getMessage());
-            e.printStackTrace();
-        } catch (TimeoutException e) {
-            System.out.println(">> Response timeout! Use sloppy quorum!");
-            e.printStackTrace();
+            return CompletableFuture.completedFuture(null);
         }
+        ReceiveFromRandNode receiver = new ReceiveFromRandNode(outputModel);
+        // the coordinator waits up to the bulk timeout for the other nodes, after its own share of the work
+        CompletableFuture<Void> answer = receiver.listen(StorageConfig.getRequestTimeout(messageType),
+                TimeUnit.SECONDS);
+        try {
+            sendRequestToRandNode(new ForwardPayload(messageType, bucketName, path, receiver.txnID), answer);
+        } catch (IOException e) {
+            answer.completeExceptionally(e);
+        }
+        return answer.handleAsync((result, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof TimeoutException) {
+                System.out.println(">> Response timeout! Bulk transfer of " + bucketName + " still running?");
+                outputModel.setStatus(false);
+                outputModel.setResponse("Bucket " + bucketName + " could not be" + action + path + " in time");
+                cause.printStackTrace();
+            } else if (cause != null) {
+                outputModel.setStatus(false);
+                outputModel.setResponse(cause.getMessage());
+                cause.printStackTrace();
+            } else {
+                outputModel.setResponse("Bucket " + bucketName
+                        + (outputModel.isStatus() ? action : " could not be" + action) + path);
+            }
+            return null;
+        }, this.executorService);
     }
 
     /**
@@ -540,7 +769,7 @@ public class DynamoServer implements NotificationListener {
             DynamoNode newCoord = hashNodes.get(random.nextInt(hashNodes.size()));
 
             /* Send forward to this node, src being the API gateway */
-            DynamoMessage msg = new DynamoMessage(apiGateway, MessageTypes.FORWARD, payload);
+            DynamoMessage msg = new DynamoMessage(apiGateway, MessageTypes.FORWARD, payload, payload.getTxnID());
             try {
                 this.sendMessage(newCoord, msg);
             } catch (IOException e) {
@@ -553,38 +782,19 @@ public class DynamoServer implements NotificationListener {
      * Method to create the bucket in the database having the specified name
      *
      * @param name The name of the bucket
-     * @return true if the bucket was created successfully, false otherwise
+     * @return future of true if the bucket was created successfully, false otherwise
      */
-    private boolean createBucket(String name) {
-//        // create folder in current node
+    private CompletableFuture<Boolean> createBucket(String name) {
         AtomicBoolean success = new AtomicBoolean(false);
         /* TODO: Add quorum implementation */
         success.set(createFolder(name));
 
-        /* Spawn ack thread to collect acks, and write to output model */
-        try {
-            AckReceiver ackThread = new AckReceiver(success);
-            Future future = this.executorService.submit(ackThread);
-
-            // send a request to each node in the system to create the folder
-            sendRequests(MessageTypes.BUCKET_CREATE, name);
-
-            // wait for thread termination
-            future.get(20, TimeUnit.SECONDS);
-            /* TODO: [TEMP DONE] Since we will not be using the Receiver for randNode, kill the thread,
-             *  it is occupying a port and CPU time without any reason.
-             */
-            if (!future.isDone()) {
-                future.cancel(true);
-                success.set(false);
-            }
-        } catch (SocketException | InterruptedException | ExecutionException | TimeoutException e) {
-            success.set(false);
-            e.printStackTrace();
-        }
-
-        return success.get();
+        AckReceiver ackReceiver = new AckReceiver(success);
+        CompletableFuture<Void> acks = ackReceiver.listen(20, TimeUnit.SECONDS);
 
+        // send a request to each node in the system to create the folder
+        sendRequests(MessageTypes.BUCKET_CREATE, name, ackReceiver.txnID);
+        return status(acks, success);
     }
 
     /**
@@ -594,42 +804,43 @@ public class DynamoServer implements NotificationListener {
      * @return true if folder was created successfully, false otherwise
      */
     private boolean createFolder(String name) {
-        return new File("/" + name).mkdir();
+        return store.createBucket(name);
     }
 
     /**
      * Method to delete a bucket from the database
      *
      * @param name Name of the folder to be deleted
-     * @return true if folder was deleted successfully, false otherwise
+     * @return future of true if folder was deleted successfully, false otherwise
      */
-    private boolean deleteBucket(String name) {
-
+    private CompletableFuture<Boolean> deleteBucket(String name) {
         AtomicBoolean success = new AtomicBoolean(false);
         success.set(deleteFolder(name));
 
-        try {
-            AckReceiver ackThread = new AckReceiver(success);
-            Future future = this.executorService.submit(ackThread);
-
-            // send a request to each node in the system to delete the folder
-            sendRequests(MessageTypes.BUCKET_DELETE, name);
-
-            // wait for thread termination
-            future.get(20, TimeUnit.SECONDS);
-            /* TODO: [TEMP DONE] Since we will not be using the Receiver for randNode, kill the thread,
-             *  it is occupying a port and CPU time without any reason.
-             */
-            if (!future.isDone()) {
-                future.cancel(true);
-                success.set(false);
-            }
-        } catch (SocketException | InterruptedException | ExecutionException | TimeoutException e) {
-            success.set(false);
-            e.printStackTrace();
-        }
-        return success.get();
+        AckReceiver ackReceiver = new AckReceiver(success);
+        CompletableFuture<Void> acks = ackReceiver.listen(20, TimeUnit.SECONDS);
+
+        // send a request to each node in the system to delete the folder
+        sendRequests(MessageTypes.BUCKET_DELETE, name, ackReceiver.txnID);
+        return status(acks, success);
+    }
 
+    /**
+     * Method to turn the acknowledgements of a request into its status, false if they did not reach
+     * the quorum in time
+     *
+     * @param acks    future completed by the acknowledgement receiver
+     * @param success status set by the acknowledgement receiver
+     * @return future of the status of the request
+     */
+    private static CompletableFuture<Boolean> status(CompletableFuture<Void> acks, AtomicBoolean success) {
+        return acks.handle((result, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+                return false;
+            }
+            return success.get();
+        });
     }
 
     /**
@@ -639,17 +850,301 @@ public class DynamoServer implements NotificationListener {
      * @return true if the folder was deleted successfully
      */
     private boolean deleteFolder(String name) {
-        boolean status = false;
+        boolean status = store.dropBucket(name);
+        cache.invalidateBucket(name);
+        return status;
+    }
+
+    /**
+     * Method to bulk import a dump into a bucket, as the coordinator of the import. The dump is read
+     * once, and the records of every key are streamed over the wire to its replicas in batches, which
+     * every replica writes straight into its storage engine, without a request or a quorum round per
+     * record. A replica syncs the bucket once it has taken its last batch
+     *
+     * @param bucket the name of the bucket, which must exist
+     * @param path   name of the dump in the bulk directory, sorted by key
+     * @return future of true if every replica loaded its records
+     */
+    private CompletableFuture<Boolean> importBucket(String bucket, String path) {
+        return CompletableFuture.supplyAsync(() -> {
+            File dump;
+            try {
+                dump = BucketDump.resolve(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            Map<String, BulkStream> streams = new LinkedHashMap<>();
+            long records = 0;
+            try (BucketDump.Reader reader = BucketDump.reader(dump)) {
+                long now = System.currentTimeMillis();
+                while (reader.hasNext()) {
+                    Map.Entry<String, ObjectIOModel> record = reader.next();
+                    if (record.getValue().expiredAt(now)) {
+                        continue;
+                    }
+                    for (DynamoNode owner : getHashNodes(record.getKey())) {
+                        BulkStream stream = streams.computeIfAbsent(owner.getAddress(),
+                                address -> new BulkStream(bucket, owner));
+                        if (!stream.add(record)) {
+                            return false;
+                        }
+                    }
+                    records++;
+                }
+            } catch (IOException | UncheckedIOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            boolean status = true;
+            for (BulkStream stream : streams.values()) {
+                status &= stream.finish();
+            }
+            System.out.println("[" + node.name + "] Streamed " + records + " records of " + path + " to "
+                    + streams.size() + " nodes: " + status);
+            return status;
+        }, this.executorService);
+    }
+
+    /**
+     * Method to bulk export a bucket into a dump, as the coordinator of the export. Every node streams
+     * its records in key order over the wire at the same time, and the streams are merged as they
+     * arrive, keeping the highest version of every key. Only the coordinator writes to the bulk
+     * directory
+     *
+     * @param bucket the name of the bucket
+     * @param path   name of the dump to write in the bulk directory
+     * @return future of true if every node streamed its records and the merged dump was written
+     */
+    private CompletableFuture<Boolean> exportBucket(String bucket, String path) {
+        return CompletableFuture.supplyAsync(() -> {
+            File dump;
+            try {
+                dump = BucketDump.resolve(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            ArrayList<DynamoNode> others = new ArrayList<>();
+            synchronized (this.nodeList) {
+                for (DynamoNode node : this.nodeList) {
+                    if (!node.isApiNode()) {
+                        others.add(node);
+                    }
+                }
+            }
+            List<Iterator<Map.Entry<String, ObjectIOModel>>> parts = new ArrayList<>();
+            List<DumpReceiver> receivers = new ArrayList<>();
+            try {
+                Iterator<Map.Entry<String, ObjectIOModel>> local = store.scan(bucket, null, null);
+                parts.add(local == null ? Collections.emptyIterator() : local);
+                for (DynamoNode node : others) {
+                    DumpReceiver receiver = new DumpReceiver(node);
+                    receivers.add(receiver);
+                    parts.add(receiver);
+                    receiver.listen(StorageConfig.getBulkTimeout(), TimeUnit.SECONDS);
+                    sendMessage(node, new DynamoMessage(this.node, MessageTypes.BULK_DUMP, bucket, receiver.txnID));
+                }
+                long records = BucketDump.merge(parts, dump);
+                System.out.println("[" + node.name + "] Exported " + records + " records of " + bucket + " to " + path);
+                return true;
+            } catch (IOException | UncheckedIOException e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                // stops listening to the nodes whose stream was not read to the end
+                for (DumpReceiver receiver : receivers) {
+                    receiver.done.cancel(false);
+                }
+            }
+        }, this.executorService);
+    }
+
+    /**
+     * Method to load a batch of a bulk import into a folder in current node, replacing the records
+     * with the same keys. The records are written without waiting for a sync, and the folder is
+     * synced once its last batch is written
+     *
+     * @param batch the batch, whose folder must exist
+     * @return true if every record was loaded
+     */
+    private boolean loadBatch(BulkBatch batch) {
+        String folder = batch.getBucket();
         try {
-            File file = new File("/" + name);
-            if (file.exists()) {
-                FileUtils.deleteDirectory(new File("/" + name));
-                status = true;
+            for (Map.Entry<String, ObjectIOModel> record : batch.getRecords()) {
+                boolean stored;
+                RecordLock lock = lockRecord(folder, record.getKey());
+                try {
+                    synchronized (lock) {
+                        stored = store.put(folder, record.getKey(), record.getValue(), Durability.NONE);
+                    }
+                } finally {
+                    unlockRecord(lock);
+                }
+                if (!stored) {
+                    System.out.println("[" + node.name + "] Folder " + folder + " does not exist, import aborted");
+                    return false;
+                }
             }
-        } catch (IOException e) {
+            if (batch.isLast()) {
+                store.sync(folder);
+                System.out.println("[" + node.name + "] Loaded bulk import into folder " + folder);
+            }
+        } catch (IOException | UncheckedIOException e) {
             e.printStackTrace();
+            return false;
+        } finally {
+            cache.invalidateBucket(folder);
+        }
+        return true;
+    }
+
+    /**
+     * Method to stream the records of a folder in current node to the coordinator of a bulk export,
+     * in key order, off the IO receiver thread. The records are sent in batches, and a batch is only
+     * sent once the coordinator has taken the previous one, so that the batches arrive in order and
+     * the coordinator holds at most one of them. A folder this node does not hold is streamed as an
+     * empty one
+     *
+     * @param msg the BULK_DUMP request, holding the folder
+     */
+    private void streamPartition(DynamoMessage msg) {
+        String folder = (String) msg.payload;
+        this.executorService.execute(() -> {
+            long records = 0;
+            try {
+                Iterator<Map.Entry<String, ObjectIOModel>> scan = store.scan(folder, null, null);
+                CompletableFuture<Boolean> taken = CompletableFuture.completedFuture(true);
+                boolean last = false;
+                while (!last) {
+                    // the next batch is read while the coordinator takes the previous one
+                    ArrayList<Map.Entry<String, ObjectIOModel>> batch = new ArrayList<>();
+                    long bytes = 0;
+                    while (scan != null && scan.hasNext() && bytes < BULK_BATCH_BYTES) {
+                        Map.Entry<String, ObjectIOModel> record = scan.next();
+                        batch.add(record);
+                        bytes += recordSize(record);
+                    }
+                    last = scan == null || !scan.hasNext();
+                    if (!taken.join()) {
+                        System.out.println("[" + node.name + "] Export of folder " + folder + " stopped by "
+                                + msg.srcNode.name);
+                        return;
+                    }
+                    AtomicBoolean success = new AtomicBoolean(true);
+                    AckReceiver ackReceiver = new AckReceiver(success, 1, 1);
+                    taken = status(ackReceiver.listen(StorageConfig.getBulkTimeout(), TimeUnit.SECONDS), success);
+                    sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node, MessageTypes.BULK_RECORDS,
+                            new BulkBatch(folder, batch, last, ackReceiver.txnID), msg.txnID));
+                    records += batch.size();
+                }
+                taken.join();
+                System.out.println("[" + node.name + "] Streamed " + records + " records of folder " + folder);
+            } catch (IOException | UncheckedIOException e) {
+                e.printStackTrace();
+                try {
+                    sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node, MessageTypes.ACKNOWLEDGEMENT,
+                            new AckPayload(MessageTypes.BULK_DUMP, folder, msg.txnID, false), msg.txnID));
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Method to estimate the size of a record in a batch of a bulk import or export
+     *
+     * @param record the record
+     * @return estimated size of the record in bytes
+     */
+    private static long recordSize(Map.Entry<String, ObjectIOModel> record) {
+        String value = record.getValue().getValue();
+        return record.getKey().length() + (value == null ? 0 : value.length()) + 24;
+    }
+
+    /**
+     * Stream of the records of a bulk import to one of their replicas, sent in batches of about
+     * {@link #BULK_BATCH_BYTES} bytes. The batches of current node are loaded in place, and the ones
+     * of another node are sent to it with at most {@link #BULK_WINDOW} of them waiting to be
+     * acknowledged, so that the coordinator only waits for the replicas falling behind
+     */
+    private class BulkStream {
+        private final String bucket;
+        private final DynamoNode owner;
+        private final ArrayDeque<CompletableFuture<Boolean>> inFlight;
+        private ArrayList<Map.Entry<String, ObjectIOModel>> records;
+        private long bytes;
+
+        BulkStream(String bucket, DynamoNode owner) {
+            this.bucket = bucket;
+            this.owner = owner;
+            this.inFlight = new ArrayDeque<>();
+            this.records = new ArrayList<>();
+        }
+
+        /**
+         * Method to add a record to the stream, sending the batch once full
+         *
+         * @param record the record
+         * @return false if the replica failed to load a batch
+         */
+        boolean add(Map.Entry<String, ObjectIOModel> record) {
+            records.add(record);
+            bytes += recordSize(record);
+            return bytes < BULK_BATCH_BYTES || send(false);
+        }
+
+        /**
+         * Method to send the last batch, once every other batch is loaded since it asks the replica
+         * to sync the bucket, and wait for it
+         *
+         * @return true if the replica loaded and synced every record
+         */
+        boolean finish() {
+            if (!drain(0) || !send(true)) {
+                return false;
+            }
+            return drain(0);
+        }
+
+        private boolean send(boolean last) {
+            BulkBatch batch = new BulkBatch(bucket, records, last, 0);
+            records = new ArrayList<>();
+            bytes = 0;
+            if (owner.equals(DynamoServer.this.node)) {
+                return loadBatch(batch);
+            }
+            if (!drain(BULK_WINDOW - 1)) {
+                return false;
+            }
+            AtomicBoolean success = new AtomicBoolean(true);
+            AckReceiver ackReceiver = new AckReceiver(success, 1, 1);
+            CompletableFuture<Void> acks = ackReceiver.listen(StorageConfig.getBulkTimeout(), TimeUnit.SECONDS);
+            try {
+                sendMessage(owner, new DynamoMessage(DynamoServer.this.node, MessageTypes.BULK_LOAD, batch,
+                        ackReceiver.txnID));
+            } catch (IOException e) {
+                e.printStackTrace();
+                ackReceiver.done.cancel(false);
+                return false;
+            }
+            inFlight.add(status(acks, success));
+            return true;
+        }
+
+        /**
+         * Waits for the oldest batches until at most the given number of them are in flight
+         */
+        private boolean drain(int size) {
+            while (inFlight.size() > size) {
+                if (!inFlight.poll().join()) {
+                    System.out.println("[" + node.name + "] " + owner.name + " failed to load a batch of " + bucket);
+                    return false;
+                }
+            }
+            return true;
         }
-        return status;
     }
 
     /**
@@ -658,44 +1153,30 @@ public class DynamoServer implements NotificationListener {
      * @param bucket     The bucket in which the record is to be added
      * @param inputModel A deserialized object of the record sent by user
      * @param hashNodes  list of hash nodes
-     * @return true if object was created successfully, false otherwise
+     * @return future of true if object was created successfully, false otherwise
      */
-    private boolean addRecord(String bucket, ObjectInputModel inputModel, ArrayList<DynamoNode> hashNodes) {
+    private CompletableFuture<Boolean> addRecord(String bucket, ObjectInputModel inputModel,
+                                                 ArrayList<DynamoNode> hashNodes) {
         AtomicBoolean success = new AtomicBoolean(true);
-        success.set(createFile(bucket, inputModel.getKey(), inputModel.getValue(), true));
+        success.set(createFile(bucket, inputModel.getKey(), inputModel.getValue(), true,
+                inputModel.getDurability(), inputModel.getTtl()));
         hashNodes.remove(this.node);
 
-
-        // send requests to all appropriate nodes and await response
-        if (hashNodes.size() > 0) {
-            try {
-                System.out.println("Sending CREATE request to " + hashNodes.size() + " other nodes");
-                for (DynamoNode node : hashNodes) {
-                    System.out.println(node.name + " " + node.getAddress());
-                }
-                AckReceiver ackThread = new AckReceiver(success, hashNodes.size(),
-                        (success.get() ? Quorum.getWriteQuorum() - 1 : Quorum.getWriteQuorum()));
-                Future future = this.executorService.submit(ackThread);
-
-                // send a request to each relevant hash-node to create the object
-                sendRequests(MessageTypes.OBJECT_CREATE, new Pair<>(bucket, inputModel), hashNodes);
-
-                // wait for thread termination
-                future.get(10, TimeUnit.SECONDS);
-                /* TODO: [TEMP DONE] Since we will not be using the Receiver for randNode, kill the thread,
-                 *  it is occupying a port and CPU time without any reason.
-                 */
-                if (!future.isDone()) {
-                    future.cancel(true);
-                    success.set(false);
-                }
-            } catch (SocketException | InterruptedException | ExecutionException | TimeoutException e) {
-                success.set(false);
-                e.printStackTrace();
-            }
+        if (hashNodes.isEmpty()) {
+            return CompletableFuture.completedFuture(success.get());
+        }
+        // send requests to all appropriate nodes, decided once the write quorum is reached or out of reach
+        System.out.println("Sending CREATE request to " + hashNodes.size() + " other nodes");
+        for (DynamoNode node : hashNodes) {
+            System.out.println(node.name + " " + node.getAddress());
         }
+        AckReceiver ackReceiver = new AckReceiver(success, hashNodes.size(),
+                (success.get() ? Quorum.getWriteQuorum() - 1 : Quorum.getWriteQuorum()));
+        CompletableFuture<Void> acks = ackReceiver.listen(10, TimeUnit.SECONDS);
 
-        return success.get();
+        // send a request to each relevant hash-node to create the object
+        sendRequests(MessageTypes.OBJECT_CREATE, new Pair<>(bucket, inputModel), hashNodes, ackReceiver.txnID);
+        return status(acks, success);
     }
 
     /**
@@ -703,9 +1184,9 @@ public class DynamoServer implements NotificationListener {
      *
      * @param bucketName The name of the bucket which contains the record
      * @param key        the key of the object ot be deleted
-     * @return true if deletion was successful, false otherwise
+     * @return future of true if deletion was successful, false otherwise
      */
-    private boolean deleteRecord(String bucketName, String key, ArrayList<DynamoNode> hashNodes) {
+    private CompletableFuture<Boolean> deleteRecord(String bucketName, String key, ArrayList<DynamoNode> hashNodes) {
         // track success of operation
         AtomicBoolean success = new AtomicBoolean(true);
 
@@ -716,27 +1197,17 @@ public class DynamoServer implements NotificationListener {
             hashNodes.remove(this.node);
         }
 
-        // key present in other nodes
-        if (hashNodes.size() > 0) {
-            try {
-                System.out.println("Sending DELETE request to " + hashNodes.size() + " other nodes");
-                AckReceiver ackReceiver = new AckReceiver(success, hashNodes.size(), Quorum.getWriteQuorum());
-
-                // initialize Acknowledgement Receiver thread to listen for acknowledgements
-                Future future = this.executorService.submit(ackReceiver);
-
-                // send a request to each relevant hash-node to create the object
-                sendRequests(MessageTypes.OBJECT_DELETE, new Pair<>(bucketName, key), hashNodes);
-
-                // wait for acknowledgement thread termination
-                future.get(20, TimeUnit.SECONDS);
-            } catch (SocketException | InterruptedException | ExecutionException | TimeoutException e) {
-                success.set(false);
-                e.printStackTrace();
-            }
+        if (hashNodes.isEmpty()) {
+            return CompletableFuture.completedFuture(success.get());
         }
+        // key present in other nodes
+        System.out.println("Sending DELETE request to " + hashNodes.size() + " other nodes");
+        AckReceiver ackReceiver = new AckReceiver(success, hashNodes.size(), Quorum.getWriteQuorum());
+        CompletableFuture<Void> acks = ackReceiver.listen(20, TimeUnit.SECONDS);
 
-        return success.get();
+        // send a request to each relevant hash-node to delete the object
+        sendRequests(MessageTypes.OBJECT_DELETE, new Pair<>(bucketName, key), hashNodes, ackReceiver.txnID);
+        return status(acks, success);
     }
 
     /**
@@ -745,46 +1216,32 @@ public class DynamoServer implements NotificationListener {
      * @param bucket     Name of the bucket which contains the record
      * @param inputModel POJO containing the key of the record and the associated new value
      * @param hashNodes  List of nodes into which the record is hashed
-     * @return true if the updation was successful, false otherwise
+     * @return future of true if the updation was successful, false otherwise
      */
-    private boolean updateRecord(String bucket, ObjectInputModel inputModel, ArrayList<DynamoNode> hashNodes) {
+    private CompletableFuture<Boolean> updateRecord(String bucket, ObjectInputModel inputModel,
+                                                    ArrayList<DynamoNode> hashNodes) {
         AtomicBoolean success = new AtomicBoolean(true);
 
         // this node is one of the hash replicas, create object here
-        success.set(updateFile(bucket, inputModel.getKey(), inputModel.getValue(), true));
+        success.set(updateFile(bucket, inputModel.getKey(), inputModel.getValue(), true,
+                inputModel.getDurability(), inputModel.getTtl()));
         hashNodes.remove(this.node);
 
-
-        // send requests to all appropriate nodes and await response
-        if (hashNodes.size() > 0) {
-            try {
-                System.out.println("Sending UPDATE request to " + hashNodes.size() + " other nodes");
-                for (DynamoNode node : hashNodes) {
-                    System.out.println(node.name + " " + node.getAddress());
-                }
-                AckReceiver ackThread = new AckReceiver(success, hashNodes.size(),
-                        (success.get() ? Quorum.getWriteQuorum() - 1 : Quorum.getWriteQuorum()));
-                Future future = this.executorService.submit(ackThread);
-
-                // send a request to each relevant hash-node to create the object
-                sendRequests(MessageTypes.OBJECT_UPDATE, new Pair<>(bucket, inputModel), hashNodes);
-
-                // wait for thread termination
-                future.get(10, TimeUnit.SECONDS);
-                /* TODO: [TEMP DONE] Since we will not be using the Receiver for randNode, kill the thread,
-                 *  it is occupying a port and CPU time without any reason.
-                 */
-                if (!future.isDone()) {
-                    future.cancel(true);
-                    success.set(false);
-                }
-            } catch (SocketException | InterruptedException | ExecutionException | TimeoutException e) {
-                success.set(false);
-                e.printStackTrace();
-            }
+        if (hashNodes.isEmpty()) {
+            return CompletableFuture.completedFuture(success.get());
         }
+        // send requests to all appropriate nodes, decided once the write quorum is reached or out of reach
+        System.out.println("Sending UPDATE request to " + hashNodes.size() + " other nodes");
+        for (DynamoNode node : hashNodes) {
+            System.out.println(node.name + " " + node.getAddress());
+        }
+        AckReceiver ackReceiver = new AckReceiver(success, hashNodes.size(),
+                (success.get() ? Quorum.getWriteQuorum() - 1 : Quorum.getWriteQuorum()));
+        CompletableFuture<Void> acks = ackReceiver.listen(10, TimeUnit.SECONDS);
 
-        return success.get();
+        // send a request to each relevant hash-node to update the object
+        sendRequests(MessageTypes.OBJECT_UPDATE, new Pair<>(bucket, inputModel), hashNodes, ackReceiver.txnID);
+        return status(acks, success);
     }
 
     /**
@@ -793,10 +1250,11 @@ public class DynamoServer implements NotificationListener {
      * @param bucket the name of the bucket which contains the record
      * @param key    the key whose value is to be read
      * @param hashNodes the list of hash nodes
+     * @return future of the values read, complete once the read quorum is reached or every replica answered
      */
-    private ArrayList<ObjectIOModel> readRecord(String bucket,
-                                                String key,
-                                                ArrayList<DynamoNode> hashNodes) {
+    private CompletableFuture<ArrayList<ObjectIOModel>> readRecord(String bucket,
+                                                                   String key,
+                                                                   ArrayList<DynamoNode> hashNodes) {
 
         /* if is a coord then read from this node and decrement read quorum if applicable */
         int readQuorum = Quorum.getReadQuorum();
@@ -813,26 +1271,113 @@ public class DynamoServer implements NotificationListener {
             }
         }
 
+        ReadReceiver readReceiver = new ReadReceiver(hashNodes.size(), readQuorum, out, success);
+        CompletableFuture<Void> replies = readReceiver.listen(10, TimeUnit.SECONDS);
+        // send a request to each relevant hash-node to read the object
+        sendRequests(MessageTypes.OBJECT_READ, new Pair<>(bucket, key), hashNodes, readReceiver.txnID);
+        // replicas that did not answer in time are left out
+        return replies.handle((result, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+            }
+            synchronized (out) {
+                return new ArrayList<>(out);
+            }
+        });
+    }
+
+    /**
+     * Method to read a page of a bucket scan from every node, as the coordinator of the scan. Every
+     * node returns a page of its own records, and the pages are merged into one. A node that does not
+     * answer in time may hold keys below the continuation of the merged page, which would then never
+     * be listed, so the page fails instead
+     *
+     * @param bucket  the name of the bucket
+     * @param request the key range and page size
+     * @return future of the merged page, or of null if a node did not return its page in time
+     */
+    private CompletableFuture<ScanPage> scanRecords(String bucket, ScanRequest request) {
+        ArrayList<ScanPage> pages = new ArrayList<>();
+        pages.add(scanFolder(bucket, request));
+
+        int numNodes = 0;
+        synchronized (this.nodeList) {
+            for (DynamoNode node : this.nodeList) {
+                if (!node.isApiNode()) {
+                    numNodes++;
+                }
+            }
+        }
+
+        CompletableFuture<Void> replies = CompletableFuture.completedFuture(null);
+        if (numNodes > 0) {
+            ScanReceiver scanReceiver = new ScanReceiver(numNodes, pages);
+            replies = scanReceiver.listen(10, TimeUnit.SECONDS);
+            sendRequests(MessageTypes.BUCKET_SCAN, new Pair<>(bucket, request), scanReceiver.txnID);
+        }
+        int expected = numNodes + 1;
+        return replies.handle((result, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+            }
+            synchronized (pages) {
+                if (pages.size() < expected) {
+                    System.out.println("[Dynamo Server] Scan of " + bucket + " failed: " + pages.size()
+                            + " of " + expected + " pages received");
+                    return null;
+                }
+                return ScanPage.merge(new ArrayList<>(pages), request.getLimit());
+            }
+        });
+    }
+
+    /**
+     * Method to read a page of the records of a folder in current node. Only the records of the page
+     * are read from the storage engine
+     *
+     * @param folder  The folder to be scanned
+     * @param request the key range and page size
+     * @return the page, empty if the folder does not exist
+     */
+    private ScanPage scanFolder(String folder, ScanRequest request) {
+        ArrayList<ScanEntry> entries = new ArrayList<>();
+        String continuation = null;
         try {
-            ReadReceiver readThread = new ReadReceiver(hashNodes.size(), readQuorum, out, success);
-            // send a request to each relevant hash-node to create the object
-            Future future = this.executorService.submit(readThread);
-            sendRequests(MessageTypes.OBJECT_READ, new Pair<>(bucket, key), hashNodes);
-
-            // wait for thread termination
-            future.get(10, TimeUnit.SECONDS);
-            /* TODO: [TEMP DONE] Since we will not be using the Receiver for randNode, kill the thread,
-             *  it is occupying a port and CPU time without any reason.
-             */
-            if (!future.isDone()) {
-                future.cancel(true);
-                success.set(false);
-            }
-
-        } catch (SocketException | InterruptedException | TimeoutException | ExecutionException e) {
+            Iterator<Map.Entry<String, ObjectIOModel>> records =
+                    store.scan(folder, request.getPrefix(), request.getStartAfter());
+            while (records != null && records.hasNext()) {
+                if (entries.size() == request.getLimit()) {
+                    continuation = entries.get(entries.size() - 1).getKey();
+                    break;
+                }
+                Map.Entry<String, ObjectIOModel> record = records.next();
+                entries.add(new ScanEntry(record.getKey(), record.getValue()));
+            }
+        } catch (IOException | UncheckedIOException e) {
             e.printStackTrace();
         }
-        return out;
+        return new ScanPage(entries, continuation);
+    }
+
+    /**
+     * Method to cut a page until the message carrying it fits into a single datagram
+     *
+     * @param page the page
+     * @param type the type of the message carrying the page
+     * @return the page
+     */
+    private ScanPage fitToPacket(ScanPage page, MessageTypes type) {
+        try {
+            int size = WireCodec.encode(new DynamoMessage(this.node, type, page)).length;
+            while (size > PACKET_SIZE && page.getEntries().size() > 1) {
+                int keep = (int) ((long) page.getEntries().size() * PACKET_SIZE / size);
+                page.truncate(Math.max(1, Math.min(keep, page.getEntries().size() - 1)));
+                size = WireCodec.encode(new DynamoMessage(this.node, type, page)).length;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return page;
     }
 
     /**
@@ -842,45 +1387,49 @@ public class DynamoServer implements NotificationListener {
      * @param name     the name of the file to be created
      * @param contents the contents to be written to the file
      * @param isCoord  true if the caller node is the coordinator, false otherwise
+     * @param durability the durability requested for the write, or null for the default of the folder
+     * @param ttl      the time to live of the file in seconds, or null if it never expires
      * @return true if file creation was successful
      */
-    private boolean createFile(String folder, String name, String contents, boolean isCoord) {
-        ObjectIOModel ioModel = new ObjectIOModel((isCoord) ? 1 : 0, contents);
-        String json = AppConfig.getParser().serialize(ioModel);
+    private boolean createFile(String folder, String name, String contents, boolean isCoord,
+                               Durability durability, Long ttl) {
+        ObjectIOModel ioModel = new ObjectIOModel((isCoord) ? 1 : 0, contents, expiresAt(ttl));
         boolean status = false;
+        RecordLock lock = lockRecord(folder, name);
         try {
-            File parent = new File("/" + folder);
-            if (parent.exists()) {
-                File file = new File(parent, name);
-                if (!file.exists()) {
-                    FileUtils.write(file, json, Charset.defaultCharset(), false);
-                    status = true;
-                }
+            synchronized (lock) {
+                status = store.putIfAbsent(folder, name, ioModel, durability(folder, durability));
+                cache.invalidate(folder, name);
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            unlockRecord(lock);
         }
 
         return status;
     }
 
     /**
-     * Method to read a file and return its contents
+     * Method to read a file and return its contents. Hot files are served from the object cache
      *
      * @param folder The folder in which the file is present
      * @param name   the name of hte file
      * @return A string representing the contents of the file
      */
     private ObjectIOModel readFile(String folder, String name) {
-        ObjectIOModel contents = null;
-        File file = new File("/" + folder + "/" + name);
-        if (file.exists()) {
-            try {
-                contents = AppConfig.getParser().deserialize(
-                        FileUtils.readFileToString(file, Charset.defaultCharset()), ObjectIOModel.class);
-            } catch (IOException e) {
-                e.printStackTrace();
+        ObjectIOModel contents = cache.get(folder, name);
+        if (contents != null) {
+            return contents;
+        }
+        try {
+            long stamp = cache.stamp(folder, name);
+            contents = store.get(folder, name);
+            if (contents != null) {
+                cache.put(folder, name, contents, stamp);
             }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
         return contents;
     }
@@ -893,29 +1442,52 @@ public class DynamoServer implements NotificationListener {
      * @param name     the name of the file to be updated
      * @param contents the contents to be written to the file
      * @param isCoord  true if the caller node is the coordinator, false otherwise
+     * @param durability the durability requested for the write, or null for the default of the folder
+     * @param ttl      the time to live of the file in seconds, or null if it never expires (an earlier
+     *                 time to live is cleared)
      * @return true if the file was updated successfully
      */
-    private boolean updateFile(String folder, String name, String contents, boolean isCoord) {
+    private boolean updateFile(String folder, String name, String contents, boolean isCoord,
+                               Durability durability, Long ttl) {
         boolean status = false;
-        File file = new File("/" + folder + "/" + name);
-        if (file.exists()) {
-            try {
+        // the read, the new version and the write of a record are one step for the other writes of the record
+        RecordLock lock = lockRecord(folder, name);
+        try {
+            synchronized (lock) {
                 // read file contents into ObjectIOModel
-                ObjectIOModel ioModel = readFile(folder, name);
-                if (isCoord) {
-                    ioModel.setVersion(ioModel.getVersion() + 1);
+                ObjectIOModel current = readFile(folder, name);
+                if (current != null) {
+                    // a new model, since the one read may be shared by the object cache
+                    ObjectIOModel ioModel = new ObjectIOModel(
+                            isCoord ? current.getVersion() + 1 : current.getVersion(), contents, expiresAt(ttl));
+                    status = store.replace(folder, name, ioModel, durability(folder, durability));
+                    cache.invalidate(folder, name);
                 }
-                ioModel.setValue(contents);
-                FileUtils.write(file, AppConfig.getParser().serialize(ioModel),
-                        Charset.defaultCharset(), false);
-                status = true;
-            } catch (IOException e) {
-                e.printStackTrace();
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            unlockRecord(lock);
         }
         return status;
     }
 
+    /**
+     * Method to compute the time a file written now expires at. Each replica computes it from its
+     * own clock when it applies the write
+     *
+     * @param ttl the time to live in seconds, or null (or a non-positive value) if it never expires
+     * @return expiry time in milliseconds since the epoch, or 0 if the file never expires
+     */
+    private static long expiresAt(Long ttl) {
+        if (ttl == null || ttl <= 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long millis = TimeUnit.SECONDS.toMillis(ttl);
+        return millis >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + millis;
+    }
+
     /**
      * Method to delete a file in the current node
      *
@@ -925,66 +1497,88 @@ public class DynamoServer implements NotificationListener {
      */
     private boolean deleteFile(String folder, String name) {
         boolean status = false;
-        File file = new File("/" + folder + "/" + name);
-        if (file.exists()) {
-            status = file.delete();
+        RecordLock lock = lockRecord(folder, name);
+        try {
+            synchronized (lock) {
+                status = store.delete(folder, name, durability(folder, null));
+                cache.invalidate(folder, name);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            unlockRecord(lock);
         }
         return status;
     }
 
-    private class GossipReceiver implements Runnable {
-        private AtomicBoolean keepRunning;
+    /**
+     * Returns the lock serializing the writes of a record in current node with each other, to be
+     * released with {@link #unlockRecord} once the write is done. Requests coordinated by this node
+     * write its records concurrently with the requests of other coordinators. Every record has a lock
+     * of its own, since a write holds it until it is durable
+     */
+    private RecordLock lockRecord(String folder, String name) {
+        return recordLocks.compute(folder + '/' + name, (id, lock) -> {
+            RecordLock held = lock == null ? new RecordLock(id) : lock;
+            held.users++;
+            return held;
+        });
+    }
 
-        GossipReceiver() {
-            keepRunning = new AtomicBoolean(true);
-        }
+    /**
+     * Releases a lock returned by {@link #lockRecord}, dropping it once no write holds or waits for it
+     */
+    private void unlockRecord(RecordLock lock) {
+        recordLocks.computeIfPresent(lock.id, (id, held) -> --held.users == 0 ? null : held);
+    }
 
-        public void run() {
+    /**
+     * Lock of a record in current node, shared by the writes of the record being served
+     */
+    private static final class RecordLock {
+        private final String id;
+        // writes holding or waiting for the lock, only changed inside the compute of the lock map
+        private int users;
 
-            System.out.print("[Dynamo Server] Gossip receive started");
+        RecordLock(String id) {
+            this.id = id;
+        }
+    }
 
-            while (keepRunning.get()) {
-                /* Logic for receiving */
+    /**
+     * Method to resolve the durability of a write
+     *
+     * @param folder    The folder being written
+     * @param requested the durability requested by the client, or null
+     * @return the requested durability, or the default of the folder if none was requested
+     */
+    private Durability durability(String folder, Durability requested) {
+        return requested != null ? requested : StorageConfig.getDurability(folder);
+    }
 
-                /* init a buffer where the packet will be placed */
-                byte[] buf = new byte[1500];
-                DatagramPacket p = new DatagramPacket(buf, buf.length);
-                System.out.print("[Dynamo Server] GOSSIP received ");
-                try {
-                    DynamoServer.this.server.receive(p);
-                    /* Parse this packet into an object */
-                    //vclock
-//                    JVec jv=new JVec(DynamoServer.this.node);
-//                    byte[] res=jv.unpackReceive(p.getData());
-//                     ByteArrayInputStream bais = new ByteArrayInputStream(res);
-                    ByteArrayInputStream bais = new ByteArrayInputStream(p.getData());
-                    ObjectInputStream ois = new ObjectInputStream(bais);
-                    Object readObject = ois.readObject();
-                    if (readObject instanceof DynamoMessage) {
-                        DynamoMessage msg = (DynamoMessage) readObject;
-                        System.out.print("from " + msg.srcNode.name);
-                        boolean status;
-                        String bucketName = null;
-                        Pair<String, ObjectInputModel> obj = null;
-                        switch (msg.type) {
-                            case PING:
-                                System.out.println("[Dynamo Server] PING recieved from " + msg.srcNode.name);
-                                break;
-                            case NODE_LIST:
-                                DynamoServer.this.mergeNodeLists(msg.srcNode, msg.payload);
-                                break;
-                            default:
-                                System.out.println("Unrecognized packet type: " + msg.type.name());
-                        }
-                    } else {
-                        System.out.println("Malformed packet!");
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    keepRunning.set(false);
-                } catch (ClassNotFoundException e) {
-                    e.printStackTrace();
+    private class GossipReceiver implements InboundEventLoop.Handler {
+
+        @Override
+        public void handle(Object readObject) {
+            System.out.print("[Dynamo Server] GOSSIP received ");
+            if (readObject instanceof DynamoMessage) {
+                DynamoMessage msg = (DynamoMessage) readObject;
+                System.out.print("from " + msg.srcNode.name);
+                boolean status;
+                String bucketName = null;
+                Pair<String, ObjectInputModel> obj = null;
+                switch (msg.type) {
+                    case PING:
+                        System.out.println("[Dynamo Server] PING recieved from " + msg.srcNode.name);
+                        break;
+                    case NODE_LIST:
+                        DynamoServer.this.mergeNodeLists(msg.srcNode, msg.payload);
+                        break;
+                    default:
+                        System.out.println("Unrecognized packet type: " + msg.type.name());
                 }
+            } else {
+                System.out.println("Malformed packet!");
             }
         }
     }
@@ -993,13 +1587,13 @@ public class DynamoServer implements NotificationListener {
         private DynamoMessage sendMsg;
         private ArrayList<DynamoNode> sendList;
 
-        MessageSender(MessageTypes type, Object payload) {
-            this.sendMsg = new DynamoMessage(DynamoServer.this.node, type, payload);
+        MessageSender(MessageTypes type, Object payload, long txnID) {
+            this.sendMsg = new DynamoMessage(DynamoServer.this.node, type, payload, txnID);
             this.sendList = new ArrayList<>(DynamoServer.this.nodeList);
         }
 
-        MessageSender(MessageTypes type, Object payload, ArrayList<DynamoNode> sendList) {
-            this(type, payload);
+        MessageSender(MessageTypes type, Object payload, ArrayList<DynamoNode> sendList, long txnID) {
+            this(type, payload, txnID);
             this.sendList = sendList;
         }
 
@@ -1059,19 +1653,25 @@ public class DynamoServer implements NotificationListener {
      *
      * @param hashFunction an instance of the hash function to be used
      */
-    private void initializeHashingManager(HashFunction hashFunction) {
+    private synchronized void initializeHashingManager(HashFunction hashFunction) {
         if (hashingManager == null) {
             // initialize hashingManager only if it is null
             ArrayList<DynamoNode> hashNodes = new ArrayList<>();
-            for (DynamoNode node : nodeList) {
-                if (!node.isApiNode()) {
-                    hashNodes.add(node);
-                }
-            }
 
-            hashNodes.add(this.node);
+            // the API gateway routes requests on the ring, but holds no records
+            if (!this.node.isApiNode()) {
+                hashNodes.add(this.node);
+            }
 
-            hashingManager = new HashingManager<>(hashNodes, hashFunction);
+            // under the lock of the node list, so that no node joins between the copy and the ring
+            synchronized (this.nodeList) {
+                for (DynamoNode node : nodeList) {
+                    if (!node.isApiNode()) {
+                        hashNodes.add(node);
+                    }
+                }
+                hashingManager = new HashingManager<>(hashNodes, hashFunction);
+            }
         }
     }
 
@@ -1087,7 +1687,9 @@ public class DynamoServer implements NotificationListener {
         }
 
         // get all the nodes to which this record should be written
-        return hashingManager.routeNodes(key);
+        synchronized (hashingManager.getLock()) {
+            return hashingManager.routeNodes(key);
+        }
     }
 
     /**
@@ -1104,479 +1706,615 @@ public class DynamoServer implements NotificationListener {
     }
 
     /**
-     * Thread to receive IO related messages and take action according to the type of message
+     * Handler of the IO related messages, taking action according to the type of message
      */
     @SuppressWarnings("unchecked")
-    private class ioReceiver implements Runnable {
-        private AtomicBoolean keepRunning;
+    private class ioReceiver implements InboundEventLoop.Handler {
 
-        ioReceiver() {
-            keepRunning = new AtomicBoolean(true);
+        @Override
+        public void handle(Object readObject) {
+            if (readObject instanceof DynamoMessage && ((DynamoMessage) readObject).type == MessageTypes.FORWARD) {
+                // coordinated concurrently, each request waiting for the replies to its own txnID; its writes
+                // to the records of this node take the lock of the record
+                DynamoServer.this.executorService.execute(() -> serve(readObject));
+            } else {
+                // requests of other coordinators on the records of this node are served by a bounded pool, so
+                // that the writes waiting for the same group commit share it; writes of the same record take
+                // its lock
+                DynamoServer.this.requestExecutor.execute(() -> serve(readObject));
+            }
         }
 
-        public void run() {
-
-            System.out.println("[Dynamo Server] IO receiver started");
-            while (keepRunning.get()) {
-
-                /* init a buffer where the packet will be placed */
-                byte[] buf = new byte[1500];
-                DatagramPacket p = new DatagramPacket(buf, buf.length);
-
-                System.out.print("[Dynamo Server] IO request received ");
+        private void serve(Object readObject) {
+            System.out.print("[Dynamo Server] IO request received ");
+            try {
+                if (readObject instanceof DynamoMessage) {
+                    DynamoMessage msg = (DynamoMessage) readObject;
+                    System.out.println("from " + msg.srcNode.name);
+                    boolean status;
+                    String bucketName = null;
+                    Pair<String, ?> obj = null;
+                    switch (msg.type) {
+                        case PING:
+                            System.out.println("[Dynamo Server] PING recieved from " + msg.srcNode.name);
+                            break;
+                        case BUCKET_CREATE:
+                            bucketName = (String) msg.payload;
+                            status = createFolder(bucketName);
+                            System.out.println("[" + node.name + "] Folder " + bucketName + " created: " + status);
+                            sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
+                                    MessageTypes.ACKNOWLEDGEMENT,
+                                    new AckPayload(MessageTypes.BUCKET_CREATE, bucketName, msg.txnID, status), msg.txnID));
+                            break;
+                        case BUCKET_DELETE:
+                            bucketName = (String) msg.payload;
+                            status = deleteFolder(bucketName);
+                            System.out.println("[" + node.name + "] Folder " + bucketName + " deleted: " + status);
+                            sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
+                                    MessageTypes.ACKNOWLEDGEMENT,
+                                    new AckPayload(MessageTypes.BUCKET_DELETE, bucketName, msg.txnID, status), msg.txnID));
+                            break;
+                        case OBJECT_CREATE:
+                            obj = (Pair<String, ObjectInputModel>) msg.payload;
+                            status = createFile(obj.getKey(), ((ObjectInputModel) obj.getValue()).getKey(),
+                                    ((ObjectInputModel) obj.getValue()).getValue(), false,
+                                    ((ObjectInputModel) obj.getValue()).getDurability(),
+                                    ((ObjectInputModel) obj.getValue()).getTtl());
+                            System.out.println("[" + node.name + "] File /" + obj.getKey() + "/"
+                                    + ((ObjectInputModel) obj.getValue()).getKey() + " created: " + status);
+                            sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
+                                    MessageTypes.ACKNOWLEDGEMENT,
+                                    new AckPayload(MessageTypes.OBJECT_CREATE,
+                                            ((ObjectInputModel) obj.getValue()).getKey(),
+                                            msg.txnID, status), msg.txnID));
+                            break;
+                        case OBJECT_READ:
+                            /* TODO: Read using ObjectIOModel and get content and version both
+                             * and serialize payload in form Pair<String, Long> */
+                            obj = (Pair<String, String>) msg.payload;
+                            ObjectIOModel contents = readFile(obj.getKey(), String.valueOf(obj.getValue()));
+                            System.out.println("[" + node.name + "] File /" + obj.getKey() + "/"
+                                    + obj.getValue() + " read: " + contents);
+                            sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
+                                    MessageTypes.ACKNOWLEDGEMENT, contents, msg.txnID));
+                            break;
+                        case OBJECT_UPDATE:
+                            obj = (Pair<String, ObjectInputModel>) msg.payload;
+                            status = updateFile(obj.getKey(),
+                                    ((ObjectInputModel) obj.getValue()).getKey(),
+                                    ((ObjectInputModel) obj.getValue()).getValue(), false,
+                                    ((ObjectInputModel) obj.getValue()).getDurability(),
+                                    ((ObjectInputModel) obj.getValue()).getTtl());
+                            System.out.println("[" + node.name + "] File /" + obj.getKey() + "/"
+                                    + ((ObjectInputModel) obj.getValue()).getKey() + " updated: " + status);
+                            sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
+                                    MessageTypes.ACKNOWLEDGEMENT,
+                                    new AckPayload(MessageTypes.OBJECT_UPDATE,
+                                            obj.getKey() + "/" + ((ObjectInputModel) obj.getValue()).getKey(),
+                                            msg.txnID, status), msg.txnID));
+                            break;
+                        case OBJECT_DELETE:
+                            obj = (Pair<String, String>) msg.payload;
+                            status = deleteFile(obj.getKey(), String.valueOf(obj.getValue()));
+                            System.out.println("[" + node.name + "] File /" + obj.getKey() + "/"
+                                    + obj.getValue() + " deleted: " + status);
+                            sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
+                                    MessageTypes.ACKNOWLEDGEMENT,
+                                    new AckPayload(MessageTypes.OBJECT_DELETE,
+                                            obj.getKey() + "/" + obj.getValue(),
+                                            msg.txnID, status), msg.txnID));
+                            break;
+                        case BUCKET_SCAN:
+                            obj = (Pair<String, ScanRequest>) msg.payload;
+                            ScanPage page = scanFolder(obj.getKey(), (ScanRequest) obj.getValue());
+                            System.out.println("[" + node.name + "] Folder " + obj.getKey() + " scanned: "
+                                    + page.getEntries().size() + " records");
+                            sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
+                                    MessageTypes.SCAN_RESULT, fitToPacket(page, MessageTypes.SCAN_RESULT), msg.txnID));
+                            break;
+                        case BULK_LOAD:
+                            BulkBatch batch = (BulkBatch) msg.payload;
+                            status = loadBatch(batch);
+                            sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
+                                    MessageTypes.ACKNOWLEDGEMENT,
+                                    new AckPayload(MessageTypes.BULK_LOAD, batch.getBucket(), msg.txnID, status),
+                                    msg.txnID));
+                            break;
+                        case BULK_DUMP:
+                            streamPartition(msg);
+                            break;
+                        case FORWARD:
+                            coordinate(msg);
+                            break;
+                        default:
+                            System.out.println("Unrecognized packet type: " + msg.type.name());
+                    }
+                } else {
+                    System.out.println("Malformed packet!");
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                try {
-                    DynamoServer.this.ioServer.receive(p);
-                    /* Parse this packet into an object */
-                    ByteArrayInputStream bais = new ByteArrayInputStream(p.getData());
-                    ObjectInputStream ois = new ObjectInputStream(bais);
-                    Object readObject = ois.readObject();
-                    if (readObject instanceof DynamoMessage) {
-                        DynamoMessage msg = (DynamoMessage) readObject;
-                        System.out.println("from " + msg.srcNode.name);
-                        boolean status;
-                        ArrayList<ObjectIOModel> list = null;
-                        String bucketName = null;
-                        Pair<String, ?> obj = null;
-                        switch (msg.type) {
-                            case PING:
-                                System.out.println("[Dynamo Server] PING recieved from " + msg.srcNode.name);
-                                break;
-                            case BUCKET_CREATE:
-                                bucketName = (String) msg.payload;
-                                status = createFolder(bucketName);
-                                System.out.println("[" + node.name + "] Folder " + bucketName + " created: " + status);
-                                /* TODO: Change txnID when implementing parallel IO */
-                                sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
-                                        MessageTypes.ACKNOWLEDGEMENT,
-                                        new AckPayload(MessageTypes.BUCKET_CREATE, bucketName, 0, status)));
-                                break;
-                            case BUCKET_DELETE:
-                                bucketName = (String) msg.payload;
-                                status = deleteFolder(bucketName);
-                                System.out.println("[" + node.name + "] Folder " + bucketName + " deleted: " + status);
-                                /* TODO: Change txnID when implementing parallel IO */
-                                sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
-                                        MessageTypes.ACKNOWLEDGEMENT,
-                                        new AckPayload(MessageTypes.BUCKET_DELETE, bucketName, 0, status)));
-                                break;
-                            case OBJECT_CREATE:
-                                obj = (Pair<String, ObjectInputModel>) msg.payload;
-                                status = createFile(obj.getKey(), ((ObjectInputModel) obj.getValue()).getKey(),
-                                        ((ObjectInputModel) obj.getValue()).getValue(), false);
-                                System.out.println("[" + node.name + "] File /" + obj.getKey() + "/"
-                                        + ((ObjectInputModel) obj.getValue()).getKey() + " created: " + status);
-                                sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
-                                        MessageTypes.ACKNOWLEDGEMENT,
-                                        new AckPayload(MessageTypes.OBJECT_CREATE,
-                                                ((ObjectInputModel) obj.getValue()).getKey(),
-                                                2, status)));
-                                break;
-                            case OBJECT_READ:
-                                /* TODO: Read using ObjectIOModel and get content and version both
-                                 * and serialize payload in form Pair<String, Long> */
-                                obj = (Pair<String, String>) msg.payload;
-                                ObjectIOModel contents = readFile(obj.getKey(), String.valueOf(obj.getValue()));
-                                System.out.println("[" + node.name + "] File /" + obj.getKey() + "/"
-                                        + obj.getValue() + " read: " + contents);
-                                sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
-                                        MessageTypes.ACKNOWLEDGEMENT, contents));
-                                break;
-                            case OBJECT_UPDATE:
-                                obj = (Pair<String, ObjectInputModel>) msg.payload;
-                                status = updateFile(obj.getKey(),
-                                        ((ObjectInputModel) obj.getValue()).getKey(),
-                                        ((ObjectInputModel) obj.getValue()).getValue(), false);
-                                System.out.println("[" + node.name + "] File /" + obj.getKey() + "/"
-                                        + ((ObjectInputModel) obj.getValue()).getKey() + " updated: " + status);
-                                sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
-                                        MessageTypes.ACKNOWLEDGEMENT,
-                                        new AckPayload(MessageTypes.OBJECT_UPDATE,
-                                                obj.getKey() + "/" + ((ObjectInputModel) obj.getValue()).getKey(),
-                                                2, status)));
-                                break;
-                            case OBJECT_DELETE:
-                                obj = (Pair<String, String>) msg.payload;
-                                status = deleteFile(obj.getKey(), String.valueOf(obj.getValue()));
-                                System.out.println("[" + node.name + "] File /" + obj.getKey() + "/"
-                                        + obj.getValue() + " deleted: " + status);
-                                sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
-                                        MessageTypes.ACKNOWLEDGEMENT,
-                                        new AckPayload(MessageTypes.OBJECT_DELETE,
-                                                obj.getKey() + "/" + obj.getValue(),
-                                                2, status)));
-                                break;
-                            case FORWARD:
-                                ForwardPayload payload = (ForwardPayload) msg.payload;
-
-                                // get the list of hash nodes if applicable
-                                ArrayList<DynamoNode> hashNodes = null;
-                                if (payload.getRequestType() == MessageTypes.OBJECT_DELETE ||
-                                        payload.getRequestType() == MessageTypes.OBJECT_READ) {
-                                    hashNodes = getHashNodes(String.valueOf(payload.getInputModel()));
-                                } else if (payload.getRequestType() == MessageTypes.OBJECT_CREATE ||
-                                        payload.getRequestType() == MessageTypes.OBJECT_UPDATE) {
-                                    hashNodes = getHashNodes(((ObjectInputModel) payload.getInputModel()).getKey());
-                                }
+    /**
+     * Method to coordinate a request forwarded by the API gateway. The request is started on this
+     * thread and answered once its future completes, so that no thread waits for the replicas
+     *
+     * @param msg the forwarded request
+     */
+    private void coordinate(DynamoMessage msg) {
+        ForwardPayload payload = (ForwardPayload) msg.payload;
+
+        // get the list of hash nodes if applicable
+        ArrayList<DynamoNode> hashNodes = null;
+        if (payload.getRequestType() == MessageTypes.OBJECT_DELETE ||
+                payload.getRequestType() == MessageTypes.OBJECT_READ) {
+            hashNodes = getHashNodes(String.valueOf(payload.getInputModel()));
+        } else if (payload.getRequestType() == MessageTypes.OBJECT_CREATE ||
+                payload.getRequestType() == MessageTypes.OBJECT_UPDATE) {
+            hashNodes = getHashNodes(((ObjectInputModel) payload.getInputModel()).getKey());
+        }
 
-                                boolean isCoord = isCoordinator(hashNodes);
-
-                                switch (payload.getRequestType()) {
-                                    case BUCKET_CREATE:
-                                        status = createBucket(payload.getBucketName());
-                                        break;
-                                    case BUCKET_DELETE:
-                                        status = deleteBucket(payload.getBucketName());
-                                        break;
-                                    case OBJECT_CREATE:
-                                        if (isCoord) {
-                                            System.out.println("~DEBUG~ addRecord() being called");
-                                            assert hashNodes != null;
-                                            status = addRecord(payload.getBucketName(),
-                                                    (ObjectInputModel) payload.getInputModel(),
-                                                    hashNodes);
-                                        } else {
-                                            // forward to random node from hashNodes
-                                            forwardToRandomNode(payload, hashNodes, msg.srcNode);
-                                            status = true; /* TODO: temp */
-                                        }
-                                        break;
-                                    case OBJECT_UPDATE:
-                                        if (isCoord) {
-                                            System.out.println("~DEBUG~ updateRecord() being called");
-                                            assert hashNodes != null;
-                                            status = updateRecord(payload.getBucketName(),
-                                                    (ObjectInputModel) payload.getInputModel(),
-                                                    hashNodes);
-                                        } else {
-                                            // forward to random node from hashNodes
-                                            forwardToRandomNode(payload, hashNodes, msg.srcNode);
-                                            status = true; /* TODO: temp */
-                                        }
-                                        break;
-                                    case OBJECT_DELETE:
-                                        System.out.println("~DEBUG~ deleteRecord() being called");
-                                        assert hashNodes != null;
-                                        status = deleteRecord(payload.getBucketName(),
-                                                String.valueOf(payload.getInputModel()), hashNodes);
-                                        break;
-                                    case OBJECT_READ:
-                                        System.out.println("~DEBUG~ readRecord() being called");
-                                        /* Make it return a list, and pass the list to
-                                            FORWARD_ACK_READ
-                                         */
-                                        assert hashNodes != null;
-                                        list = readRecord(payload.getBucketName(),
-                                                String.valueOf(payload.getInputModel()), hashNodes);
-                                        status = true;  /* TODO: temp */
-                                        break;
-                                    default:
-                                        System.out.println(">> Unknown request forwarded!");
-                                        status = false;
-                                }
+        boolean isCoord = isCoordinator(hashNodes);
 
-                                // return to ForwardReceiver
-                                    if (payload.getRequestType() == MessageTypes.OBJECT_READ) {
-                                        /* something more needs to be sent back in case of READ */
-                                        sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
-                                                MessageTypes.FORWARD_ACK_READ, list));
-                                    } else if ((payload.getRequestType() == MessageTypes.OBJECT_CREATE && isCoord) ||
-                                            (payload.getRequestType() == MessageTypes.OBJECT_UPDATE && isCoord) ||
-                                            (payload.getRequestType() == MessageTypes.BUCKET_CREATE) ||
-                                            (payload.getRequestType() == MessageTypes.BUCKET_DELETE) ||
-                                            (payload.getRequestType() == MessageTypes.OBJECT_DELETE)) {
-                                        sendMessage(msg.srcNode, new DynamoMessage(DynamoServer.this.node,
-                                                MessageTypes.FORWARD_ACK, status));
-                                    }
-                                break;
-                            default:
-                                System.out.println("Unrecognized packet type: " + msg.type.name());
-                        }
+        switch (payload.getRequestType()) {
+            case BUCKET_CREATE:
+                reply(msg, MessageTypes.FORWARD_ACK, createBucket(payload.getBucketName()));
+                break;
+            case BUCKET_DELETE:
+                reply(msg, MessageTypes.FORWARD_ACK, deleteBucket(payload.getBucketName()));
+                break;
+            case OBJECT_CREATE:
+                if (isCoord) {
+                    System.out.println("~DEBUG~ addRecord() being called");
+                    reply(msg, MessageTypes.FORWARD_ACK, addRecord(payload.getBucketName(),
+                            (ObjectInputModel) payload.getInputModel(), hashNodes));
+                } else {
+                    // forward to random node from hashNodes, which answers the API gateway
+                    forwardToRandomNode(payload, hashNodes, msg.srcNode);
+                }
+                break;
+            case OBJECT_UPDATE:
+                if (isCoord) {
+                    System.out.println("~DEBUG~ updateRecord() being called");
+                    reply(msg, MessageTypes.FORWARD_ACK, updateRecord(payload.getBucketName(),
+                            (ObjectInputModel) payload.getInputModel(), hashNodes));
+                } else {
+                    // forward to random node from hashNodes, which answers the API gateway
+                    forwardToRandomNode(payload, hashNodes, msg.srcNode);
+                }
+                break;
+            case OBJECT_DELETE:
+                System.out.println("~DEBUG~ deleteRecord() being called");
+                reply(msg, MessageTypes.FORWARD_ACK, deleteRecord(payload.getBucketName(),
+                        String.valueOf(payload.getInputModel()), hashNodes));
+                break;
+            case OBJECT_READ:
+                System.out.println("~DEBUG~ readRecord() being called");
+                reply(msg, MessageTypes.FORWARD_ACK_READ, readRecord(payload.getBucketName(),
+                        String.valueOf(payload.getInputModel()), hashNodes));
+                break;
+            case BUCKET_IMPORT:
+                reply(msg, MessageTypes.FORWARD_ACK, importBucket(payload.getBucketName(),
+                        String.valueOf(payload.getInputModel())));
+                break;
+            case BUCKET_EXPORT:
+                reply(msg, MessageTypes.FORWARD_ACK, exportBucket(payload.getBucketName(),
+                        String.valueOf(payload.getInputModel())));
+                break;
+            case BUCKET_SCAN:
+                scanRecords(payload.getBucketName(), (ScanRequest) payload.getInputModel()).thenAccept(page -> {
+                    if (page == null) {
+                        // an incomplete page would skip the keys of the missing nodes
+                        reply(msg, MessageTypes.FORWARD_ACK, CompletableFuture.completedFuture(false));
                     } else {
-                        System.out.println("Malformed packet!");
+                        reply(msg, MessageTypes.FORWARD_ACK_SCAN,
+                                CompletableFuture.completedFuture(fitToPacket(page, MessageTypes.FORWARD_ACK_SCAN)));
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    keepRunning.set(false);
-                } catch (ClassNotFoundException e) {
-                    e.printStackTrace();
-                }
+                });
+                break;
+            default:
+                System.out.println(">> Unknown request forwarded!");
+                reply(msg, MessageTypes.FORWARD_ACK, CompletableFuture.completedFuture(false));
+        }
+    }
+
+    /**
+     * Method to answer a forwarded request to the API gateway once its result is known. The answer is
+     * sent from the executor, never from the thread completing the future
+     *
+     * @param request the forwarded request
+     * @param type    type of the answer
+     * @param answer  future of the payload of the answer
+     */
+    private void reply(DynamoMessage request, MessageTypes type, CompletableFuture<?> answer) {
+        answer.thenAcceptAsync(result -> {
+            try {
+                sendMessage(request.srcNode, new DynamoMessage(this.node, type, result, request.txnID));
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+        }, this.executorService).exceptionally(error -> {
+            error.printStackTrace();
+            return null;
+        });
+    }
+
+    /**
+     * Method to hand a message received on the acknowledgement port to the pending request it replies
+     * to, found by its txnID
+     *
+     * @param readObject the message
+     */
+    private void onAcknowledgement(Object readObject) {
+        if (!(readObject instanceof DynamoMessage)) {
+            System.out.println("Malformed packet!");
+            return;
+        }
+        DynamoMessage msg = (DynamoMessage) readObject;
+        AckListener listener = this.pendingRequests.get(msg.txnID);
+        if (listener == null || !listener.offer(msg)) {
+            System.out.println("[Dynamo Server] Late " + msg.type.name() + " of request " + msg.txnID + " from "
+                    + msg.srcNode.name + " dropped");
+        }
+    }
+
+    /**
+     * Listener of the replies to one request coordinated by this node, received on the
+     * acknowledgement port. Every request has an id of its own, sent with the request and carried back
+     * by its replies, so that any number of requests can be pending at the same time. It only receives
+     * replies while it listens, and stops listening once complete, cancelled or timed out
+     */
+    private abstract class AckListener {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final long txnID = DynamoServer.this.newTxnID();
+
+        /**
+         * Method to start listening
+         *
+         * @param timeout time after which the listener stops listening
+         * @param unit    unit of the timeout
+         * @return future completed once the listener has received all it waits for, or completed
+         * with a TimeoutException once the timeout passed
+         */
+        CompletableFuture<Void> listen(long timeout, TimeUnit unit) {
+            DynamoServer.this.pendingRequests.put(txnID, this);
+            done.whenComplete((result, error) -> DynamoServer.this.pendingRequests.remove(txnID, this));
+            return done.orTimeout(timeout, unit);
         }
+
+        /**
+         * Method to offer a reply to the request to the listener, on the event loop thread
+         *
+         * @param msg the reply
+         * @return true if the listener took the reply
+         */
+        abstract boolean offer(DynamoMessage msg);
     }
 
     /**
-     * Runnable class that receives Acknowledgement message from other nodes. Usually launched when
+     * Listener that receives Acknowledgement message from other nodes. Usually launched when
      * we have sent a request to a number of nodes, and are waiting for ACK from them to ensure
      * quorum is satisfied.
      */
-    private class AckReceiver extends Thread {
-        private AtomicBoolean keepRunning;
-        private DatagramSocket ackServer;
+    private class AckReceiver extends AckListener {
         private AtomicBoolean status;
         private int numReplicas;
         private int quorum;
+        private int receives;
+        private int success;
 
-        AckReceiver(AtomicBoolean status) throws SocketException {
-            this.keepRunning = new AtomicBoolean(true);
-            this.ackServer = new DatagramSocket(DynamoServer.this.ackPort);
+        AckReceiver(AtomicBoolean status) {
             this.status = status;
             this.numReplicas = DynamoServer.this.nodeList.size() - 1;
             this.quorum = numReplicas;
+            System.out.println(">> ACK: quorum init: " + numReplicas + " receives init : " + receives);
         }
 
-        AckReceiver(AtomicBoolean status, int size, int quorum) throws SocketException {
+        AckReceiver(AtomicBoolean status, int size, int quorum) {
             this(status);
             this.numReplicas = size;
             this.quorum = quorum;
         }
 
         @Override
-        public void run() {
-            int receives = 0;
-            int success = 0;
-            System.out.println(">> ACK: quorum init: " + numReplicas + " receives init : " + receives);
-            while (keepRunning.get()) {
-                /* init a buffer where the packet will be placed */
-                byte[] buf = new byte[1500];
-                DatagramPacket p = new DatagramPacket(buf, buf.length);
-                System.out.print("[Dynamo Server] Acknowledgement received ");
-                try {
-                    this.ackServer.receive(p);
-                    /* Parse this packet into an object */
-                    ByteArrayInputStream bais = new ByteArrayInputStream(p.getData());
-                    ObjectInputStream ois = new ObjectInputStream(bais);
-                    Object readObject = ois.readObject();
-                    if (readObject instanceof DynamoMessage) {
-                        // TODO: Update method to manage successful receives vs. no. of receives
-                        DynamoMessage msg = (DynamoMessage) readObject;
-                        System.out.println("from " + msg.srcNode.name);
-
-                        receives++;
-                        System.out.println(">> ACK: quorum: " + numReplicas + " receives: " + receives);
-                        AckPayload payload = (AckPayload) msg.payload;
-//                        this.status.set(this.status.get() & (payload.isStatus()));
-                        if (payload.isStatus()) {
-                            success++;
-                        }
-                        /* TODO: track separate receives by txnID */
-                        if (receives >= numReplicas || success >= quorum) {
-                            if (success >= quorum) {
-                                status.set(true);
-                            } else {
-                                status.set(false);
-                            }
-                            System.out.println(">> ACK: Quorum achieved! Success!");
-                            switch (payload.getRequestType()) {
-                                case BUCKET_CREATE:
-                                    System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
-                                            + ": Setting BUCKET_CREATE response");
-                                    break;
-                                case BUCKET_DELETE:
-                                    System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
-                                            + ": Setting BUCKET_DELETE response");
-                                    break;
-                                case OBJECT_CREATE:
-                                    System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
-                                            + ": Setting OBJECT_CREATE response");
-                                    break;
-                                case OBJECT_READ:
-                                    System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
-                                            + ": Setting OBJECT_READ response");
-                                    break;
-                                case OBJECT_UPDATE:
-                                    System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
-                                            + ": Setting OBJECT_UPDATE response");
-                                    break;
-                                case OBJECT_DELETE:
-                                    System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
-                                            + ": Setting OBJECT_DELETE response");
-                                    break;
-                                default:
-                                    System.out.println("Unrecognized packet type!");
-                            }
-                            this.keepRunning.set(false);
-                        }
-                    } else {
-                        System.out.println("Malformed packet!");
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    this.keepRunning.set(false);
-                } catch (ClassNotFoundException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (!this.ackServer.isClosed()) {
-                this.ackServer.close();
+        synchronized CompletableFuture<Void> listen(long timeout, TimeUnit unit) {
+            if (quorum <= 0) {
+                // satisfied by this node alone, whose status is already set
+                done.complete(null);
             }
+            return super.listen(timeout, unit);
         }
 
         @Override
-        public void interrupt() {
-            super.interrupt();
-            if (!this.ackServer.isClosed()) {
-                this.ackServer.close();
+        synchronized boolean offer(DynamoMessage msg) {
+            if (msg.type != MessageTypes.ACKNOWLEDGEMENT || !(msg.payload instanceof AckPayload) || done.isDone()) {
+                return false;
             }
-            this.keepRunning.set(false);
+            // TODO: Update method to manage successful receives vs. no. of receives
+            System.out.println("[Dynamo Server] Acknowledgement received from " + msg.srcNode.name);
+
+            receives++;
+            System.out.println(">> ACK: quorum: " + numReplicas + " receives: " + receives);
+            AckPayload payload = (AckPayload) msg.payload;
+            if (payload.isStatus()) {
+                success++;
+            }
+            // decided once the quorum is reached, or out of reach of the replicas yet to answer
+            if (success >= quorum || success + (numReplicas - receives) < quorum) {
+                status.set(success >= quorum);
+                System.out.println(">> ACK: Quorum " + (success >= quorum ? "achieved! Success!" : "failed!"));
+                switch (payload.getRequestType()) {
+                    case BUCKET_CREATE:
+                        System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
+                                + ": Setting BUCKET_CREATE response");
+                        break;
+                    case BUCKET_DELETE:
+                        System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
+                                + ": Setting BUCKET_DELETE response");
+                        break;
+                    case OBJECT_CREATE:
+                        System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
+                                + ": Setting OBJECT_CREATE response");
+                        break;
+                    case OBJECT_READ:
+                        System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
+                                + ": Setting OBJECT_READ response");
+                        break;
+                    case OBJECT_UPDATE:
+                        System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
+                                + ": Setting OBJECT_UPDATE response");
+                        break;
+                    case OBJECT_DELETE:
+                        System.out.println(">> ACK: Quorum achieved for " + payload.getIdentifier()
+                                + ": Setting OBJECT_DELETE response");
+                        break;
+                    case BULK_LOAD:
+                    case BULK_DUMP:
+                    case BULK_RECORDS:
+                        System.out.println(">> ACK: All nodes answered " + payload.getRequestType()
+                                + " of " + payload.getIdentifier());
+                        break;
+                    default:
+                        System.out.println("Unrecognized packet type!");
+                }
+                done.complete(null);
+            }
+            return true;
         }
     }
 
     /**
-     * Runnable class that receives ACKs for READS from nodes and the read value. Ensures read quorum.
+     * Listener that receives ACKs for READS from nodes and the read value. Ensures read quorum.
      */
-    private class ReadReceiver extends Thread {
-        private AtomicBoolean keepRunning;
-        private DatagramSocket readServer;
+    private class ReadReceiver extends AckListener {
         private AtomicBoolean status;
         private int quorum;
         private int numReplicas;
         private ArrayList<ObjectIOModel> out;
+        private int receives;
+        private int success;
 
-        ReadReceiver(int size, int quorum, ArrayList<ObjectIOModel> out, AtomicBoolean status) throws SocketException {
-            keepRunning = new AtomicBoolean(true);
-            readServer = new DatagramSocket(DynamoServer.this.ackPort);
+        ReadReceiver(int size, int quorum, ArrayList<ObjectIOModel> out, AtomicBoolean status) {
             this.quorum = quorum;
             this.numReplicas = size;
             this.out = out;
             this.status = status;
+            System.out.println(">> READ RECEIVE: quorum init: " + quorum + " receives init : " + receives);
         }
 
         @Override
-        public void run() {
-            int receives = 0;
-            int success = 0;
-            System.out.println(">> READ RECEIVE: quorum init: " + quorum + " receives init : " + receives);
-            while (keepRunning.get()) {
-                /* Logic for receiving */
-                /* init a buffer where the packet will be placed */
-                byte[] buf = new byte[1500];
-                DatagramPacket p = new DatagramPacket(buf, buf.length);
-                System.out.print("[Dynamo Server] Read receive request received ");
-                try {
-                    this.readServer.receive(p);
-                    /* Parse this packet into an object */
-                    ByteArrayInputStream bais = new ByteArrayInputStream(p.getData());
-                    ObjectInputStream ois = new ObjectInputStream(bais);
-                    Object readObject = ois.readObject();
-                    if (readObject instanceof DynamoMessage) {
-                        DynamoMessage msg = (DynamoMessage) readObject;
-                        System.out.println("from " + msg.srcNode.name);
-
-                        receives++;
-                        System.out.println(">> READ RECEIVE: quorum: " + quorum + " receives: " + receives);
-
-                        ObjectIOModel payload = (ObjectIOModel) msg.payload;
-                        if (payload != null && !payload.getValue().isEmpty()) {
-                            success++;
-                            this.out.add(payload);
-                        }
+        synchronized CompletableFuture<Void> listen(long timeout, TimeUnit unit) {
+            if (quorum <= 0 || numReplicas == 0) {
+                // satisfied by this node alone, or no replica to ask
+                done.complete(null);
+            }
+            return super.listen(timeout, unit);
+        }
 
-                        if (success >= quorum) {
-                            this.status.set(true);
-                        }
-                        /* TODO: track separate receives by txnID */
-                        if (receives >= numReplicas) {
-                            System.out.println(">> READ RECEIVE: Replicas response achieved! Success!");
-                            this.keepRunning.set(false);
-                        }
-                    } else {
-                        System.out.println("Malformed packet!");
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    this.keepRunning.set(false);
-                } catch (ClassNotFoundException e) {
-                    e.printStackTrace();
+        @Override
+        synchronized boolean offer(DynamoMessage msg) {
+            if (msg.type != MessageTypes.ACKNOWLEDGEMENT || msg.payload instanceof AckPayload || done.isDone()) {
+                return false;
+            }
+            System.out.println("[Dynamo Server] Read receive request received from " + msg.srcNode.name);
+
+            receives++;
+            System.out.println(">> READ RECEIVE: quorum: " + quorum + " receives: " + receives);
+
+            ObjectIOModel payload = (ObjectIOModel) msg.payload;
+            if (payload != null && !payload.getValue().isEmpty()) {
+                success++;
+                synchronized (this.out) {
+                    this.out.add(payload);
                 }
             }
-            if (!this.readServer.isClosed()) {
-                this.readServer.close();
+
+            if (success >= quorum) {
+                this.status.set(true);
+                System.out.println(">> READ RECEIVE: Read quorum achieved! Success!");
+                done.complete(null);
+            } else if (receives >= numReplicas) {
+                System.out.println(">> READ RECEIVE: All replicas answered");
+                done.complete(null);
             }
+            return true;
+        }
+    }
+
+    /**
+     * Listener that receives the pages of a bucket scan from the nodes.
+     */
+    private class ScanReceiver extends AckListener {
+        private int numReplicas;
+        private final ArrayList<ScanPage> pages;
+        private int receives;
+
+        ScanReceiver(int size, ArrayList<ScanPage> pages) {
+            this.numReplicas = size;
+            this.pages = pages;
         }
 
         @Override
-        public void interrupt() {
-            super.interrupt();
-            if (!this.readServer.isClosed()) {
-                this.readServer.close();
+        synchronized boolean offer(DynamoMessage msg) {
+            if (msg.type != MessageTypes.SCAN_RESULT || !(msg.payload instanceof ScanPage) || done.isDone()) {
+                return false;
+            }
+            System.out.println("[Dynamo Server] Scan page received from " + msg.srcNode.name);
+            synchronized (this.pages) {
+                this.pages.add((ScanPage) msg.payload);
             }
-            this.keepRunning.set(false);
+            receives++;
+            if (receives >= numReplicas) {
+                System.out.println(">> SCAN RECEIVE: All pages received!");
+                done.complete(null);
+            }
+            return true;
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private class ReceiveFromRandNode extends Thread {
-        //        private AtomicBoolean keepRunning;
-        private DatagramSocket randRecvServer;
-        private OutputModel outputModel;
+    /**
+     * Listener of the records a node streams to the coordinator of a bulk export, iterated in key
+     * order as they arrive. Every batch is acknowledged to the node once taken, and the node only
+     * sends the next batch then. A failure of the node or a timeout is thrown as
+     * {@link UncheckedIOException} by the iterator
+     */
+    private class DumpReceiver extends AckListener implements Iterator<Map.Entry<String, ObjectIOModel>> {
+        private final DynamoNode source;
+        private final BlockingQueue<BulkBatch> batches;
+        private Iterator<Map.Entry<String, ObjectIOModel>> current;
+        private boolean last;
+
+        DumpReceiver(DynamoNode source) {
+            this.source = source;
+            this.batches = new LinkedBlockingQueue<>();
+            this.current = Collections.emptyIterator();
+        }
 
-        ReceiveFromRandNode(OutputModel outputModel) throws SocketException {
-//            keepRunning = new AtomicBoolean(true);
-            randRecvServer = new DatagramSocket(DynamoServer.this.ackPort);
-            this.outputModel = outputModel;
+        @Override
+        boolean offer(DynamoMessage msg) {
+            if (done.isDone()) {
+                return false;
+            }
+            if (msg.type == MessageTypes.BULK_RECORDS && msg.payload instanceof BulkBatch) {
+                batches.add((BulkBatch) msg.payload);
+                return true;
+            }
+            if (msg.type == MessageTypes.ACKNOWLEDGEMENT && msg.payload instanceof AckPayload
+                    && !((AckPayload) msg.payload).isStatus()) {
+                done.completeExceptionally(new IOException(source.name + " failed to stream its records"));
+                return true;
+            }
+            return false;
         }
 
         @Override
-        public void run() {
-//            while (keepRunning.get()) {
-            /* Logic for receiving */
-            System.out.println(">> REST: randRecv: init");
-            /* init a buffer where the packet will be placed */
-            byte[] buf = new byte[1500];
-            DatagramPacket p = new DatagramPacket(buf, buf.length);
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (last) {
+                    done.complete(null);
+                    return false;
+                }
+                BulkBatch batch = take();
+                last = batch.isLast();
+                current = batch.getRecords().iterator();
+                try {
+                    sendMessage(source, new DynamoMessage(DynamoServer.this.node, MessageTypes.ACKNOWLEDGEMENT,
+                            new AckPayload(MessageTypes.BULK_RECORDS, batch.getBucket(), batch.getAckID(), true),
+                            batch.getAckID()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Map.Entry<String, ObjectIOModel> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /**
+         * Waits for the next batch of the node, until the listener stops listening
+         */
+        private BulkBatch take() {
             try {
-                this.randRecvServer.receive(p);
-                /* Parse this packet into an object */
-                ByteArrayInputStream bais = new ByteArrayInputStream(p.getData());
-                ObjectInputStream ois = new ObjectInputStream(bais);
-                Object readObject = ois.readObject();
-                if (readObject instanceof DynamoMessage) {
-                    // Receive from rand node and set output
-                    DynamoMessage msg = (DynamoMessage) readObject;
-                    switch (msg.type) {
-                        case FORWARD_ACK:
-                            boolean status = (boolean) ((DynamoMessage) readObject).payload;
-                            outputModel.setStatus(status);
-                            break;
-                        case FORWARD_ACK_READ:
-                            ArrayList<ObjectIOModel> list =
-                                    (ArrayList<ObjectIOModel>) msg.payload;
-                            StringBuilder str = new StringBuilder();
-                            /* iterate list and append to output string */
-                            for (ObjectIOModel oim : list) {
-                                str.append("<value: ").append(oim.getValue())
-                                        .append(" version: ").append(oim.getVersion()).append("> ");
-                            }
-                            outputModel.setResponse(str.toString());
-                            outputModel.setStatus(true);
-                            break;
-                        default:
-                            System.out.println("Unrecognized Ack");
+                while (true) {
+                    BulkBatch batch = batches.poll(100, TimeUnit.MILLISECONDS);
+                    if (batch != null) {
+                        return batch;
+                    }
+                    if (done.isDone()) {
+                        throw new UncheckedIOException(new IOException("Stream of " + source.name + " stopped: "
+                                + done.handle((result, error) -> error).join()));
                     }
-                } else {
-                    System.out.println("Malformed packet!");
                 }
-            } catch (IOException e) {
-                outputModel.setResponse(e.getMessage());
-                outputModel.setStatus(false);
-                //e.printStackTrace();
-//                    keepRunning.set(false);
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            }
-//            }
-            if (!randRecvServer.isClosed()) {
-                randRecvServer.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException());
             }
         }
+    }
+
+    /**
+     * Listener that receives the answer of the node a request of the API gateway was forwarded to.
+     */
+    @SuppressWarnings("unchecked")
+    private class ReceiveFromRandNode extends AckListener {
+        private OutputModel outputModel;
+
+        ReceiveFromRandNode(OutputModel outputModel) {
+            this.outputModel = outputModel;
+            System.out.println(">> REST: randRecv: init");
+        }
 
         @Override
-        public void interrupt() {
-            super.interrupt();
-            if (!this.randRecvServer.isClosed()) {
-                this.randRecvServer.close();
+        synchronized boolean offer(DynamoMessage msg) {
+            if ((msg.type != MessageTypes.FORWARD_ACK && msg.type != MessageTypes.FORWARD_ACK_READ
+                    && msg.type != MessageTypes.FORWARD_ACK_SCAN) || done.isDone()) {
+                return false;
             }
+            // Receive from rand node and set output
+            switch (msg.type) {
+                case FORWARD_ACK:
+                    boolean status = (boolean) msg.payload;
+                    outputModel.setStatus(status);
+                    if (!status && outputModel instanceof ScanOutputModel) {
+                        outputModel.setResponse("Not every node returned its page in time, retry the page");
+                    }
+                    break;
+                case FORWARD_ACK_READ:
+                    ArrayList<ObjectIOModel> list =
+                            (ArrayList<ObjectIOModel>) msg.payload;
+                    StringBuilder str = new StringBuilder();
+                    /* iterate list and append to output string */
+                    for (ObjectIOModel oim : list) {
+                        str.append("<value: ").append(oim.getValue())
+                                .append(" version: ").append(oim.getVersion()).append("> ");
+                    }
+                    outputModel.setResponse(str.toString());
+                    outputModel.setStatus(true);
+                    break;
+                case FORWARD_ACK_SCAN:
+                    ScanPage page = (ScanPage) msg.payload;
+                    if (outputModel instanceof ScanOutputModel) {
+                        ((ScanOutputModel) outputModel).setRecords(page.getEntries());
+                        ((ScanOutputModel) outputModel).setContinuation(
+                                ScanPage.encodeToken(page.getContinuation()));
+                    }
+                    outputModel.setResponse(page.getEntries().size() + " records");
+                    outputModel.setStatus(true);
+                    break;
+                default:
+                    System.out.println("Unrecognized Ack");
+            }
+            done.complete(null);
+            return true;
         }
     }
 }
@@ -0,0 +1,188 @@
+package com.cloudproject.dynamo.msgmanager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Class InboundEventLoop. Receives every message sent to a node:
+ * 1. A fixed number of event loop threads, each with a selector, own all the inbound channels of the
+ *    node, which are bound once at startup. Each channel is read by a single loop thread.
+ * 2. A loop thread reads the datagrams of its ready channels into its direct buffer, reassembles
+ *    the chunked messages, decodes them and hands them to the handler of the channel.
+ * 3. At most {@link #BATCH} datagrams are read from a channel before the other ready channels of the
+ *    thread get their turn, so a busy channel does not delay the others.
+ * Handlers run on the loop thread and must not block; a handler with blocking work hands it over to
+ * a thread of its own.
+ */
+class InboundEventLoop implements Closeable {
+
+    private static final int BATCH = 64;
+
+    private final List<Loop> loops;
+    private final List<DatagramChannel> channels;
+    private int next;
+
+    /**
+     * @param threads number of event loop threads
+     * @param name    prefix of the names of the threads
+     * @throws IOException if a selector cannot be opened
+     */
+    InboundEventLoop(int threads, String name) throws IOException {
+        this.loops = new ArrayList<>();
+        this.channels = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, threads); i++) {
+            loops.add(new Loop(name + "-" + i));
+        }
+    }
+
+    /**
+     * Method to bind a channel on a port and have the messages received on it handled. Must be called
+     * before {@link #start()}
+     *
+     * @param port    the port to listen at
+     * @param handler handler of the messages received on the port
+     * @throws IOException if the port cannot be bound
+     */
+    void register(int port, Handler handler) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(port));
+            Loop loop = loops.get(next++ % loops.size());
+            channel.register(loop.selector, SelectionKey.OP_READ,
+                    new Endpoint(handler, new ChunkedDatagrams.Receiver(channel)));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channels.add(channel);
+    }
+
+    /**
+     * Method to start the event loop threads
+     */
+    void start() {
+        for (Loop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Stops the event loop threads and closes every channel
+     */
+    @Override
+    public void close() {
+        for (Loop loop : loops) {
+            try {
+                loop.selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Handler of the messages received on a channel, called on its event loop thread
+     */
+    interface Handler {
+        void handle(Object message);
+    }
+
+    /**
+     * Handler and reassembly state of a channel
+     */
+    private static class Endpoint {
+        private final Handler handler;
+        private final ChunkedDatagrams.Receiver receiver;
+
+        Endpoint(Handler handler, ChunkedDatagrams.Receiver receiver) {
+            this.handler = handler;
+            this.receiver = receiver;
+        }
+    }
+
+    /**
+     * Event loop thread with its selector and receive buffer
+     */
+    private static class Loop implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer buffer;
+        private final Thread thread;
+
+        Loop(String name) throws IOException {
+            this.selector = Selector.open();
+            // one byte more than a datagram of ours, to tell oversized datagrams apart
+            this.buffer = ByteBuffer.allocateDirect(ChunkedDatagrams.PACKET_SIZE + 1);
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            System.out.println("[Dynamo Server] " + thread.getName() + " started");
+            try {
+                while (selector.isOpen()) {
+                    selector.select();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            read((DatagramChannel) key.channel(), (Endpoint) key.attachment());
+                        }
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // closed on shutdown
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void read(DatagramChannel channel, Endpoint endpoint) {
+            for (int i = 0; i < BATCH; i++) {
+                buffer.clear();
+                SocketAddress from;
+                try {
+                    from = channel.receive(buffer);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                if (from == null) {
+                    return;
+                }
+                buffer.flip();
+                if (buffer.remaining() > ChunkedDatagrams.PACKET_SIZE) {
+                    System.out.println("Malformed packet!");
+                    continue;
+                }
+                try {
+                    Object message = endpoint.receiver.onDatagram(buffer, from);
+                    if (message != null) {
+                        endpoint.handler.handle(message);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.cloudproject.dynamo.msgmanager;
+
+import com.cloudproject.dynamo.config.StorageConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class OutboundTransport. Sends the messages of a node to the other nodes:
+ * 1. Messages go out through a pool of long-lived non-blocking datagram channels, each with a direct
+ *    buffer of one datagram, instead of a socket opened and closed per message. A channel is used by
+ *    one sender at a time, so that the acknowledgements of a chunked transfer come back to it alone.
+ * 2. The addresses of the nodes are resolved once per node and port, and forgotten when the node
+ *    leaves or joins the network, so that a node moving to another host is resolved again.
+ */
+class OutboundTransport implements Closeable {
+
+    private final ConcurrentLinkedQueue<SendChannel> idle;
+    private final AtomicInteger idleCount;
+    private final Map<String, Map<Integer, InetSocketAddress>> addresses;
+    private volatile boolean closed;
+
+    OutboundTransport() {
+        this.idle = new ConcurrentLinkedQueue<>();
+        this.idleCount = new AtomicInteger();
+        this.addresses = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Method to send an encoded message to a node, in chunks if it does not fit into one datagram
+     *
+     * @param dest    address of the node
+     * @param message the encoded message
+     * @throws IOException if the message could not be sent
+     */
+    void send(InetSocketAddress dest, byte[] message) throws IOException {
+        SendChannel channel = borrow();
+        boolean healthy = false;
+        try {
+            ChunkedDatagrams.send(channel, message, dest);
+            healthy = true;
+        } finally {
+            release(channel, healthy);
+        }
+    }
+
+    /**
+     * Method to return the address of a port of a node, resolving its host on first use
+     *
+     * @param node the node
+     * @param port the port
+     * @return the resolved address
+     * @throws IOException if the host of the node cannot be resolved
+     */
+    InetSocketAddress resolve(DynamoNode node, int port) throws IOException {
+        Map<Integer, InetSocketAddress> ports =
+                addresses.computeIfAbsent(node.getAddress(), address -> new ConcurrentHashMap<>());
+        InetSocketAddress address = ports.get(port);
+        if (address == null) {
+            String host = node.getAddress().split(":")[0];
+            address = new InetSocketAddress(InetAddress.getByName(host), port);
+            ports.put(port, address);
+        }
+        return address;
+    }
+
+    /**
+     * Method to forget the resolved addresses of a node, on a change of membership
+     *
+     * @param node the node
+     */
+    void invalidate(DynamoNode node) {
+        addresses.remove(node.getAddress());
+    }
+
+    private SendChannel borrow() throws IOException {
+        SendChannel channel = idle.poll();
+        if (channel != null) {
+            idleCount.decrementAndGet();
+            return channel;
+        }
+        return new SendChannel();
+    }
+
+    /**
+     * Returns a channel to the pool, unless the pool is full or the channel failed
+     */
+    private void release(SendChannel channel, boolean healthy) {
+        if (healthy && !closed) {
+            if (idleCount.incrementAndGet() <= StorageConfig.getSendChannels()) {
+                idle.offer(channel);
+                if (closed) {
+                    // closed meanwhile, the channel may have missed it
+                    close();
+                }
+                return;
+            }
+            idleCount.decrementAndGet();
+        }
+        channel.close();
+    }
+
+    /**
+     * Closes the idle channels. The channels in use are closed as they are released
+     */
+    @Override
+    public void close() {
+        closed = true;
+        SendChannel channel;
+        while ((channel = idle.poll()) != null) {
+            idleCount.decrementAndGet();
+            channel.close();
+        }
+    }
+
+    /**
+     * Non-blocking datagram channel of the pool, with the selector used to wait on it and the direct
+     * buffer messages are sent from
+     */
+    static class SendChannel implements Closeable {
+        private final DatagramChannel channel;
+        private final Selector selector;
+        private final SelectionKey key;
+        private final ByteBuffer buffer;
+
+        SendChannel() throws IOException {
+            this.channel = DatagramChannel.open();
+            this.channel.configureBlocking(false);
+            this.channel.bind(null);
+            this.selector = Selector.open();
+            this.key = channel.register(selector, 0);
+            this.buffer = ByteBuffer.allocateDirect(ChunkedDatagrams.PACKET_SIZE);
+        }
+
+        /**
+         * Method to return the direct buffer of the channel, of the size of one datagram
+         *
+         * @return the buffer
+         */
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * Method to send the remaining bytes of the buffer as one datagram, waiting for room in the
+         * socket buffer if needed
+         *
+         * @param dest the receiver
+         * @throws IOException if the datagram could not be sent in time
+         */
+        void send(SocketAddress dest) throws IOException {
+            long deadline = System.currentTimeMillis() + StorageConfig.getTransferTimeout();
+            while (channel.send(buffer, dest) == 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("Could not send to " + dest + ": socket buffer full");
+                }
+                await(SelectionKey.OP_WRITE, remaining);
+            }
+        }
+
+        /**
+         * Method to receive a datagram into the buffer
+         *
+         * @param timeoutMillis time to wait for one
+         * @return true if a datagram was received, false if none came in time
+         * @throws IOException if the channel fails
+         */
+        boolean receive(long timeoutMillis) throws IOException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (true) {
+                buffer.clear();
+                if (channel.receive(buffer) != null) {
+                    buffer.flip();
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                await(SelectionKey.OP_READ, remaining);
+            }
+        }
+
+        private void await(int ops, long timeoutMillis) throws IOException {
+            key.interestOps(ops);
+            selector.select(timeoutMillis);
+            selector.selectedKeys().clear();
+            key.interestOps(0);
+        }
+
+        @Override
+        public void close() {
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package com.cloudproject.dynamo.msgmanager;
+
+import com.cloudproject.dynamo.compression.Codec;
+import com.cloudproject.dynamo.config.StorageConfig;
+import com.cloudproject.dynamo.models.*;
+import javafx.util.Pair;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Class WireCodec. Encodes the messages exchanged by the nodes into a compact binary form, in place of
+ * Java serialization:
+ * 1. A message is laid out as | version (1) | type (1) | txnID (8) | source node | payload |, where
+ *    the type is the ordinal of its {@link MessageTypes} value, the txnID is the id of the request
+ *    the message belongs to and the payload follows the schema of the type. Forwarded requests and
+ *    acknowledgements take the txnID of their message.
+ *    A message of another version is rejected, and new message types are only ever appended to the
+ *    enum, so that the tag of every type stays the same.
+ * 2. Lengths, counts and numbers are varints, strings are UTF-8 behind their length plus one (0 for
+ *    null), and values of records are compressed with the replication codec when it is worth it.
+ * 3. Messages are decoded straight from the receive buffer. Only the classes of the schemas can be
+ *    decoded, and every length is checked against the bytes left, so a malformed message is rejected
+ *    before anything is allocated for it.
+ */
+final class WireCodec {
+
+    private static final byte VERSION = 3;
+    private static final MessageTypes[] TYPES = MessageTypes.values();
+    private static final Durability[] DURABILITIES = Durability.values();
+
+    /* tags of the payloads that vary within a message type */
+    private static final byte NONE = 0;
+    private static final byte STRING = 1;
+    private static final byte ACK = 2;
+    private static final byte OBJECT_IO = 3;
+    private static final byte OBJECT_INPUT = 4;
+    private static final byte SCAN_REQUEST = 5;
+
+    private static final byte NULL_VALUE = -1;
+
+    private WireCodec() {
+    }
+
+    /**
+     * Method to encode a message
+     *
+     * @param msg the message
+     * @return the encoded message
+     * @throws IOException if the payload does not match the schema of the type of the message
+     */
+    @SuppressWarnings("unchecked")
+    static byte[] encode(DynamoMessage msg) throws IOException {
+        Writer out = new Writer();
+        out.writeByte(VERSION);
+        out.writeByte(msg.type.ordinal());
+        out.writeLong(msg.txnID);
+        writeNode(out, msg.srcNode);
+        try {
+            switch (msg.type) {
+                case PING:
+                    break;
+                case NODE_LIST:
+                    ArrayList<DynamoNode> nodes = (ArrayList<DynamoNode>) msg.payload;
+                    out.writeVarLong(nodes.size());
+                    for (DynamoNode node : nodes) {
+                        writeNode(out, node);
+                    }
+                    break;
+                case BUCKET_CREATE:
+                case BUCKET_DELETE:
+                case BULK_DUMP:
+                    out.writeString((String) msg.payload);
+                    break;
+                case OBJECT_CREATE:
+                case OBJECT_UPDATE:
+                    Pair<String, ObjectInputModel> write = (Pair<String, ObjectInputModel>) msg.payload;
+                    out.writeString(write.getKey());
+                    writeObjectInput(out, write.getValue());
+                    break;
+                case OBJECT_READ:
+                case OBJECT_DELETE:
+                    Pair<String, String> key = (Pair<String, String>) msg.payload;
+                    out.writeString(key.getKey());
+                    out.writeString(key.getValue());
+                    break;
+                case BUCKET_SCAN:
+                    Pair<String, ScanRequest> scan = (Pair<String, ScanRequest>) msg.payload;
+                    out.writeString(scan.getKey());
+                    writeScanRequest(out, scan.getValue());
+                    break;
+                case ACKNOWLEDGEMENT:
+                    if (msg.payload instanceof AckPayload) {
+                        AckPayload ack = (AckPayload) msg.payload;
+                        out.writeByte(ACK);
+                        out.writeByte(ack.getRequestType().ordinal());
+                        out.writeString(ack.getIdentifier());
+                        out.writeByte(ack.isStatus() ? 1 : 0);
+                    } else if (msg.payload instanceof ObjectIOModel) {
+                        out.writeByte(OBJECT_IO);
+                        writeObjectIO(out, (ObjectIOModel) msg.payload);
+                    } else if (msg.payload == null) {
+                        out.writeByte(NONE);
+                    } else {
+                        throw new ClassCastException(msg.payload.getClass().getName());
+                    }
+                    break;
+                case FORWARD:
+                    ForwardPayload forward = (ForwardPayload) msg.payload;
+                    out.writeByte(forward.getRequestType().ordinal());
+                    out.writeString(forward.getBucketName());
+                    Object input = forward.getInputModel();
+                    if (input instanceof String) {
+                        out.writeByte(STRING);
+                        out.writeString((String) input);
+                    } else if (input instanceof ObjectInputModel) {
+                        out.writeByte(OBJECT_INPUT);
+                        writeObjectInput(out, (ObjectInputModel) input);
+                    } else if (input instanceof ScanRequest) {
+                        out.writeByte(SCAN_REQUEST);
+                        writeScanRequest(out, (ScanRequest) input);
+                    } else if (input == null) {
+                        out.writeByte(NONE);
+                    } else {
+                        throw new ClassCastException(input.getClass().getName());
+                    }
+                    break;
+                case FORWARD_ACK:
+                    out.writeByte((Boolean) msg.payload ? 1 : 0);
+                    break;
+                case FORWARD_ACK_READ:
+                    ArrayList<ObjectIOModel> list = (ArrayList<ObjectIOModel>) msg.payload;
+                    out.writeVarLong(list.size());
+                    for (ObjectIOModel model : list) {
+                        writeObjectIO(out, model);
+                    }
+                    break;
+                case SCAN_RESULT:
+                case FORWARD_ACK_SCAN:
+                    ScanPage page = (ScanPage) msg.payload;
+                    out.writeVarLong(page.getEntries().size());
+                    for (ScanEntry entry : page.getEntries()) {
+                        out.writeString(entry.getKey());
+                        out.writeString(entry.getValue());
+                        out.writeVarLong(entry.getVersion());
+                    }
+                    out.writeString(page.getContinuation());
+                    break;
+                case BULK_LOAD:
+                case BULK_RECORDS:
+                    writeBulkBatch(out, (BulkBatch) msg.payload);
+                    break;
+                default:
+                    throw new IOException("No wire schema for " + msg.type.name());
+            }
+        } catch (ClassCastException | NullPointerException e) {
+            throw new IOException("Payload of " + msg.type.name() + " does not match its schema: " + e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Method to decode a message, from the position to the limit of a buffer
+     *
+     * @param in the buffer
+     * @return the message
+     * @throws IOException if the message is malformed or of another version
+     */
+    static DynamoMessage decode(ByteBuffer in) throws IOException {
+        try {
+            byte version = in.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported wire version " + version);
+            }
+            MessageTypes type = readEnum(in, TYPES);
+            long txnID = in.getLong();
+            DynamoNode srcNode = readNode(in);
+            Object payload;
+            switch (type) {
+                case PING:
+                    payload = null;
+                    break;
+                case NODE_LIST:
+                    int nodeCount = readLength(in);
+                    ArrayList<DynamoNode> nodes = new ArrayList<>(nodeCount);
+                    for (int i = 0; i < nodeCount; i++) {
+                        nodes.add(readNode(in));
+                    }
+                    payload = nodes;
+                    break;
+                case BUCKET_CREATE:
+                case BUCKET_DELETE:
+                case BULK_DUMP:
+                    payload = readString(in);
+                    break;
+                case OBJECT_CREATE:
+                case OBJECT_UPDATE:
+                    payload = new Pair<>(readString(in), readObjectInput(in));
+                    break;
+                case OBJECT_READ:
+                case OBJECT_DELETE:
+                    payload = new Pair<>(readString(in), readString(in));
+                    break;
+                case BUCKET_SCAN:
+                    payload = new Pair<>(readString(in), readScanRequest(in));
+                    break;
+                case ACKNOWLEDGEMENT:
+                    byte ackTag = in.get();
+                    if (ackTag == ACK) {
+                        payload = new AckPayload(readEnum(in, TYPES), readString(in), txnID, in.get() != 0);
+                    } else if (ackTag == OBJECT_IO) {
+                        payload = readObjectIO(in);
+                    } else if (ackTag == NONE) {
+                        payload = null;
+                    } else {
+                        throw new IOException("Unknown acknowledgement payload " + ackTag);
+                    }
+                    break;
+                case FORWARD:
+                    MessageTypes requestType = readEnum(in, TYPES);
+                    String bucketName = readString(in);
+                    byte inputTag = in.get();
+                    Object input;
+                    if (inputTag == STRING) {
+                        input = readString(in);
+                    } else if (inputTag == OBJECT_INPUT) {
+                        input = readObjectInput(in);
+                    } else if (inputTag == SCAN_REQUEST) {
+                        input = readScanRequest(in);
+                    } else if (inputTag == NONE) {
+                        input = null;
+                    } else {
+                        throw new IOException("Unknown forwarded payload " + inputTag);
+                    }
+                    payload = new ForwardPayload(requestType, bucketName, input, txnID);
+                    break;
+                case FORWARD_ACK:
+                    payload = in.get() != 0;
+                    break;
+                case FORWARD_ACK_READ:
+                    int modelCount = readLength(in);
+                    ArrayList<ObjectIOModel> list = new ArrayList<>(modelCount);
+                    for (int i = 0; i < modelCount; i++) {
+                        list.add(readObjectIO(in));
+                    }
+                    payload = list;
+                    break;
+                case SCAN_RESULT:
+                case FORWARD_ACK_SCAN:
+                    int entryCount = readLength(in);
+                    ArrayList<ScanEntry> entries = new ArrayList<>(entryCount);
+                    for (int i = 0; i < entryCount; i++) {
+                        String key = readString(in);
+                        String value = readString(in);
+                        entries.add(new ScanEntry(key, new ObjectIOModel(readVarLong(in), value)));
+                    }
+                    payload = new ScanPage(entries, readString(in));
+                    break;
+                case BULK_LOAD:
+                case BULK_RECORDS:
+                    payload = readBulkBatch(in);
+                    break;
+                default:
+                    throw new IOException("No wire schema for " + type.name());
+            }
+            if (in.hasRemaining()) {
+                throw new IOException(in.remaining() + " bytes left after " + type.name());
+            }
+            return new DynamoMessage(srcNode, type, payload, txnID);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated message");
+        }
+    }
+
+    private static void writeNode(Writer out, DynamoNode node) {
+        out.writeString(node.name);
+        out.writeString(node.getAddress());
+        out.writeVarLong(node.getHeartbeat());
+        out.writeByte(node.isApiNode() ? 1 : 0);
+    }
+
+    private static DynamoNode readNode(ByteBuffer in) throws IOException {
+        return new DynamoNode(readString(in), readString(in), (int) readVarLong(in), in.get() != 0);
+    }
+
+    private static void writeObjectInput(Writer out, ObjectInputModel model) {
+        out.writeString(model.getKey());
+        out.writeByte(model.getDurability() == null ? 0 : model.getDurability().ordinal() + 1);
+        if (model.getTtl() == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.writeVarLong(model.getTtl());
+        }
+        writeValue(out, model.getValue());
+    }
+
+    private static ObjectInputModel readObjectInput(ByteBuffer in) throws IOException {
+        ObjectInputModel model = new ObjectInputModel();
+        model.setKey(readString(in));
+        int durability = in.get();
+        model.setDurability(durability == 0 ? null : readEnum(durability - 1, DURABILITIES));
+        model.setTtl(in.get() == 0 ? null : readVarLong(in));
+        model.setValue(readValue(in));
+        return model;
+    }
+
+    private static void writeObjectIO(Writer out, ObjectIOModel model) {
+        out.writeVarLong(model.getVersion());
+        out.writeVarLong(model.getExpiresAt());
+        writeValue(out, model.getValue());
+    }
+
+    private static ObjectIOModel readObjectIO(ByteBuffer in) throws IOException {
+        long version = readVarLong(in);
+        long expiresAt = readVarLong(in);
+        return new ObjectIOModel(version, readValue(in), expiresAt);
+    }
+
+    private static void writeBulkBatch(Writer out, BulkBatch batch) {
+        out.writeString(batch.getBucket());
+        out.writeByte(batch.isLast() ? 1 : 0);
+        out.writeLong(batch.getAckID());
+        out.writeVarLong(batch.getRecords().size());
+        for (Map.Entry<String, ObjectIOModel> record : batch.getRecords()) {
+            out.writeString(record.getKey());
+            writeObjectIO(out, record.getValue());
+        }
+    }
+
+    private static BulkBatch readBulkBatch(ByteBuffer in) throws IOException {
+        String bucket = readString(in);
+        boolean last = in.get() != 0;
+        long ackID = in.getLong();
+        int recordCount = readLength(in);
+        ArrayList<Map.Entry<String, ObjectIOModel>> records = new ArrayList<>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            String key = readString(in);
+            records.add(new AbstractMap.SimpleImmutableEntry<>(key, readObjectIO(in)));
+        }
+        return new BulkBatch(bucket, records, last, ackID);
+    }
+
+    private static void writeScanRequest(Writer out, ScanRequest request) {
+        out.writeString(request.getPrefix());
+        out.writeString(request.getStartAfter());
+        out.writeVarLong(request.getLimit());
+    }
+
+    private static ScanRequest readScanRequest(ByteBuffer in) throws IOException {
+        return new ScanRequest(readString(in), readString(in), (int) readVarLong(in));
+    }
+
+    /**
+     * Writes a value of a record as | codec id (1) | length | bytes |, compressed with the
+     * replication codec when it is worth it
+     */
+    private static void writeValue(Writer out, String value) {
+        if (value == null) {
+            out.writeByte(NULL_VALUE);
+            return;
+        }
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = StorageConfig.getReplicationCompression()
+                .compress(raw, StorageConfig.getCompressionThreshold());
+        byte[] bytes = compressed == null ? raw : compressed;
+        out.writeByte(compressed == null ? Codec.NONE.getId() : StorageConfig.getReplicationCompression().getId());
+        out.writeVarLong(bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static String readValue(ByteBuffer in) throws IOException {
+        byte id = in.get();
+        if (id == NULL_VALUE) {
+            return null;
+        }
+        Codec codec = Codec.forId(id);
+        byte[] bytes = new byte[readLength(in)];
+        in.get(bytes);
+        if (codec != Codec.NONE && bytes.length >= 4 && ByteBuffer.wrap(bytes).getInt() > StorageConfig.getMaxMessageSize()) {
+            throw new IOException("Compressed value larger than " + StorageConfig.getMaxMessageSize() + " bytes");
+        }
+        return new String(codec.decompress(bytes), StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        long length = readVarLong(in);
+        if (length == 0) {
+            return null;
+        }
+        if (length < 0 || length - 1 > in.remaining()) {
+            throw new IOException("String of " + (length - 1) + " bytes past the end of the message");
+        }
+        byte[] bytes = new byte[(int) (length - 1)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the length of a byte array or the number of elements of a list, which take at least one
+     * byte each and must fit into the rest of the message
+     */
+    private static int readLength(ByteBuffer in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Length " + length + " past the end of the message");
+        }
+        return (int) length;
+    }
+
+    private static <E extends Enum<E>> E readEnum(ByteBuffer in, E[] values) throws IOException {
+        return readEnum(in.get() & 0xff, values);
+    }
+
+    private static <E extends Enum<E>> E readEnum(int ordinal, E[] values) throws IOException {
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IOException("Unknown " + values[0].getDeclaringClass().getSimpleName() + " " + ordinal);
+        }
+        return values[ordinal];
+    }
+
+    private static long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Growable byte array the messages are encoded into
+     */
+    private static class Writer {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /**
+         * Writes a long 7 bits at a time, lowest first, with the high bit set on every byte but the last
+         */
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                buf[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            writeBytes(bytes);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.config.StorageConfig;
+import com.cloudproject.dynamo.models.Durability;
+import com.cloudproject.dynamo.models.ObjectIOModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class BitcaskStore. Log-structured storage engine of a node, in the style of Bitcask:
+ * 1. Every bucket is a directory of large append-only segment files instead of one file per key.
+ * 2. A key directory per bucket, kept off the Java heap, maps every key to the segment, offset,
+ *    length and version of its latest record, so that a read is a single positioned read.
+ * 3. A background task periodically sweeps expired keys out of the key directories and merges buckets
+ *    with too many dead bytes, and hint files let the key directory be rebuilt on restart without
+ *    reading the values.
+ * 4. The same task periodically checkpoints the key directories, so that a restart only replays the
+ *    records written since the last checkpoint.
+ * 5. Dropping a bucket only hides its directory; a {@link Reclaimer} deletes it in the background.
+ */
+public class BitcaskStore implements StorageEngine {
+
+    private static final String MARKER = ".bitcask";
+    // keys selected per pass of a scan over the key directory, above the largest page of a scan
+    private static final int SCAN_BATCH = 1024;
+
+    private final File root;
+    private final long segmentSize;
+    private final ConcurrentHashMap<String, BucketLog> buckets;
+    private final ScheduledExecutorService background;
+    private final GroupCommitter committer;
+    private final Reclaimer reclaimer;
+
+    /**
+     * @param root the data directory under which every bucket is stored
+     */
+    public BitcaskStore(File root) {
+        this(root, null);
+    }
+
+    /**
+     * @param root   the data directory under which every bucket is stored
+     * @param volume id of the volume of the data directory, or null if the node has a single one
+     */
+    public BitcaskStore(File root, String volume) {
+        String suffix = volume == null ? "" : "-" + volume;
+        this.root = root;
+        this.segmentSize = StorageConfig.getSegmentSize();
+        this.buckets = new ConcurrentHashMap<>();
+        this.background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bitcask-merge" + suffix);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.committer = new GroupCommitter(StorageConfig.getGroupCommitInterval(), TimeUnit.MICROSECONDS,
+                "bitcask-commit" + suffix);
+        this.reclaimer = new Reclaimer(root, "bitcask-reclaim" + suffix);
+        long interval = StorageConfig.getMergeInterval();
+        this.background.scheduleWithFixedDelay(this::mergeBuckets, interval, interval, TimeUnit.MILLISECONDS);
+        // on the merge thread, since a checkpoint must not run concurrently with a merge
+        long checkpointInterval = StorageConfig.getCheckpointInterval();
+        this.background.scheduleWithFixedDelay(this::checkpointBuckets, checkpointInterval, checkpointInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean createBucket(String bucket) {
+        if (Reclaimer.isReserved(bucket)) {
+            return false;
+        }
+        File dir = new File(root, bucket);
+        File marker = new File(dir, MARKER);
+        synchronized (buckets) {
+            if (marker.exists()) {
+                return false;
+            }
+            try {
+                if ((!dir.isDirectory() && !dir.mkdirs()) || !marker.createNewFile()) {
+                    return false;
+                }
+                buckets.put(bucket, BucketLog.open(dir, segmentSize, background, committer));
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean dropBucket(String bucket) {
+        synchronized (buckets) {
+            try {
+                BucketLog log = bucket(bucket);
+                if (log == null) {
+                    return false;
+                }
+                buckets.remove(bucket);
+                log.discard();
+                return reclaimer.drop(log.getDir());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public ObjectIOModel get(String bucket, String key) throws IOException {
+        BucketLog log = bucket(bucket);
+        if (log == null) {
+            return null;
+        }
+        LogRecord record = log.get(key);
+        if (record == null) {
+            return null;
+        }
+        return record.toModel();
+    }
+
+    @Override
+    public boolean put(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        BucketLog log = bucket(bucket);
+        return log != null && log.put(encode(bucket, key, ioModel), durability);
+    }
+
+    @Override
+    public boolean putIfAbsent(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        BucketLog log = bucket(bucket);
+        return log != null && log.putIfAbsent(encode(bucket, key, ioModel), durability);
+    }
+
+    @Override
+    public boolean replace(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        BucketLog log = bucket(bucket);
+        return log != null && log.replace(encode(bucket, key, ioModel), durability);
+    }
+
+    @Override
+    public boolean delete(String bucket, String key, Durability durability) throws IOException {
+        BucketLog log = bucket(bucket);
+        return log != null && log.delete(key, durability);
+    }
+
+    /**
+     * The key directory is a hash map, so a scan selects the next {@link #SCAN_BATCH} keys of the range
+     * in one pass over it, without sorting or copying the rest, and reads their records one by one as
+     * the iterator advances. A page of at most that many records costs a single pass
+     */
+    @Override
+    public Iterator<Map.Entry<String, ObjectIOModel>> scan(String bucket, String prefix, String startAfter)
+            throws IOException {
+        BucketLog log = bucket(bucket);
+        if (log == null) {
+            return null;
+        }
+        ScanRange range = new ScanRange(prefix, startAfter);
+        return new LookaheadIterator<Map.Entry<String, ObjectIOModel>>() {
+            private List<String> batch = log.keys(range, null, SCAN_BATCH);
+            private int index;
+
+            @Override
+            protected Map.Entry<String, ObjectIOModel> computeNext() {
+                while (true) {
+                    if (index == batch.size()) {
+                        if (batch.size() < SCAN_BATCH) {
+                            return null;
+                        }
+                        batch = log.keys(range, batch.get(batch.size() - 1), SCAN_BATCH);
+                        index = 0;
+                        if (batch.isEmpty()) {
+                            return null;
+                        }
+                    }
+                    String key = batch.get(index++);
+                    try {
+                        LogRecord record = log.get(key);
+                        if (record != null) {
+                            return new AbstractMap.SimpleImmutableEntry<>(key, record.toModel());
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        };
+    }
+
+    private static LogRecord encode(String bucket, String key, ObjectIOModel ioModel) {
+        return LogRecord.of(key, ioModel, StorageConfig.getCompression(bucket),
+                StorageConfig.getCompressionThreshold());
+    }
+
+    /**
+     * Returns the open log of a bucket, opening it on first use
+     *
+     * @return the log, or null if the bucket does not exist
+     */
+    private BucketLog bucket(String bucket) throws IOException {
+        BucketLog log = buckets.get(bucket);
+        if (log != null) {
+            return log;
+        }
+        File dir = new File(root, bucket);
+        if (!new File(dir, MARKER).exists()) {
+            return null;
+        }
+        synchronized (buckets) {
+            log = buckets.get(bucket);
+            if (log == null) {
+                if (!new File(dir, MARKER).exists()) {
+                    // dropped since the check above; opening it would bring back an empty bucket
+                    return null;
+                }
+                log = BucketLog.open(dir, segmentSize, background, committer);
+                buckets.put(bucket, log);
+            }
+            return log;
+        }
+    }
+
+    /**
+     * Sweeps the expired keys of every open bucket, then merges every bucket whose sealed segments
+     * hold too many dead bytes
+     */
+    private void mergeBuckets() {
+        double threshold = StorageConfig.getMergeThreshold();
+        for (BucketLog log : buckets.values()) {
+            try {
+                int swept = log.sweepExpired();
+                if (swept > 0) {
+                    System.out.println("[Storage] Swept " + swept + " expired keys from " + log.getDir());
+                }
+                if (log.needsMerge(threshold)) {
+                    log.merge();
+                    // the merge deleted every segment the previous checkpoint refers to
+                    log.checkpoint();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Checkpoints the key directory of every open bucket written to since its last checkpoint
+     */
+    private void checkpointBuckets() {
+        for (BucketLog log : buckets.values()) {
+            try {
+                log.checkpoint();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void sync(String bucket) throws IOException {
+        BucketLog log = bucket(bucket);
+        if (log != null) {
+            log.sync();
+        }
+    }
+
+    /**
+     * Opens every bucket of the data directory, loading its key directory
+     */
+    @Override
+    public void recover() throws IOException {
+        String[] names = root.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            bucket(name);
+        }
+    }
+
+    @Override
+    public void close() {
+        // let a running merge finish: interrupting it would close the segment channels under it
+        background.shutdown();
+        try {
+            background.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        committer.close();
+        reclaimer.close();
+        synchronized (buckets) {
+            for (BucketLog log : buckets.values()) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            buckets.clear();
+        }
+    }
+}
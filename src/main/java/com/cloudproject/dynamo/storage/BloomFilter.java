@@ -0,0 +1,143 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.consistenthash.CityHash;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the keys of a bucket (or of one of its tables). A negative answer is definite,
+ * so a lookup of a missing key can return without touching the disk; a positive answer is wrong
+ * with the false positive rate the filter was sized for. Keys are hashed once with CityHash and the
+ * bit positions are derived from that hash by double hashing. Bits are set atomically, so keys can
+ * be added while other threads query the filter.
+ */
+class BloomFilter {
+
+    private static final int MAX_HASHES = 16;
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int hashes;
+    private final long capacity;
+
+    private BloomFilter(AtomicLongArray words, int hashes, long capacity) {
+        this.words = words;
+        this.bits = (long) words.length() * 64;
+        this.hashes = hashes;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Method to create an empty filter
+     *
+     * @param expectedKeys number of keys the filter is sized for
+     * @param fpp          false positive rate once the filter holds that many keys
+     * @return the filter
+     */
+    static BloomFilter create(long expectedKeys, double fpp) {
+        long keys = Math.max(1, expectedKeys);
+        long bits = (long) Math.ceil(-keys * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bits + 63) / 64));
+        int hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) words * 64 / keys * Math.log(2))));
+        return new BloomFilter(new AtomicLongArray(words), hashes, keys);
+    }
+
+    /**
+     * Method to hash a key for {@link #add(long)} and {@link #mightContain(long)}
+     *
+     * @param key the key
+     * @return 64 bit hash of the key
+     */
+    static long hash(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return CityHash.cityHash64(bytes, 0, bytes.length);
+    }
+
+    void add(String key) {
+        add(hash(key));
+    }
+
+    void add(long hash) {
+        long step = Long.rotateLeft(hash, 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (hash & Long.MAX_VALUE) % bits;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                current = words.get(word);
+            }
+            hash += step;
+        }
+    }
+
+    boolean mightContain(String key) {
+        return mightContain(hash(key));
+    }
+
+    boolean mightContain(long hash) {
+        long step = Long.rotateLeft(hash, 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (hash & Long.MAX_VALUE) % bits;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+            hash += step;
+        }
+        return true;
+    }
+
+    /**
+     * Method to return the number of keys the filter was sized for. Past it the false positive rate
+     * grows quickly, and the filter should be rebuilt larger
+     *
+     * @return capacity of the filter
+     */
+    long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Method to return the number of bytes written by {@link #writeTo}
+     *
+     * @return serialized size of the filter
+     */
+    int serializedSize() {
+        return 4 + 8 + 4 + words.length() * 8;
+    }
+
+    /**
+     * Method to serialize the filter as (hashes, capacity, word count, words)
+     *
+     * @param out the output to write to
+     * @throws IOException if the write fails
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(hashes);
+        out.writeLong(capacity);
+        out.writeInt(words.length());
+        for (int i = 0; i < words.length(); i++) {
+            out.writeLong(words.get(i));
+        }
+    }
+
+    /**
+     * Method to deserialize a filter written by {@link #writeTo}
+     *
+     * @param buffer buffer positioned at the start of the filter
+     * @return the filter
+     */
+    static BloomFilter readFrom(ByteBuffer buffer) {
+        int hashes = buffer.getInt();
+        long capacity = buffer.getLong();
+        AtomicLongArray words = new AtomicLongArray(buffer.getInt());
+        for (int i = 0; i < words.length(); i++) {
+            words.set(i, buffer.getLong());
+        }
+        return new BloomFilter(words, hashes, capacity);
+    }
+}
@@ -0,0 +1,76 @@
+package com.cloudproject.dynamo.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the Bloom filter lookups of a storage engine, published over JMX as
+ * com.cloudproject.dynamo:type=BloomFilter,engine=NAME (with ,volume=ID appended for the engine of
+ * each volume of a node with several data directories)
+ */
+public class BloomStats implements BloomStatsMBean {
+
+    private final String name;
+    private final AtomicLong negatives;
+    private final AtomicLong positives;
+    private final AtomicLong falsePositives;
+
+    /**
+     * @param engine name of the storage engine owning the filters
+     * @param volume id of the volume of the engine, or null if the node has a single one
+     */
+    BloomStats(String engine, String volume) {
+        this.name = "com.cloudproject.dynamo:type=BloomFilter,engine=" + engine
+                + (volume == null ? "" : ",volume=" + volume);
+        this.negatives = new AtomicLong();
+        this.positives = new AtomicLong();
+        this.falsePositives = new AtomicLong();
+        MBeans.register(this, name);
+    }
+
+    void recordNegative() {
+        negatives.incrementAndGet();
+    }
+
+    void recordPositive() {
+        positives.incrementAndGet();
+    }
+
+    void recordFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    @Override
+    public long getNegatives() {
+        return negatives.get();
+    }
+
+    @Override
+    public long getPositives() {
+        return positives.get();
+    }
+
+    @Override
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    @Override
+    public double getFalsePositiveRate() {
+        long falsePositives = this.falsePositives.get();
+        long absent = falsePositives + negatives.get();
+        return absent == 0 ? 0 : (double) falsePositives / absent;
+    }
+
+    /**
+     * Method to withdraw the counters from JMX, once the engine is closed
+     */
+    void close() {
+        MBeans.unregister(name);
+    }
+
+    @Override
+    public String toString() {
+        return "negatives=" + getNegatives() + " positives=" + getPositives()
+                + " falsePositives=" + getFalsePositives();
+    }
+}
@@ -0,0 +1,38 @@
+package com.cloudproject.dynamo.storage;
+
+/**
+ * Management interface of the {@link BloomStats} of a storage engine, through which the
+ * effectiveness of its Bloom filters can be read over JMX.
+ */
+public interface BloomStatsMBean {
+
+    /**
+     * Method to return the number of lookups a filter answered with a definite negative, without
+     * touching the disk
+     *
+     * @return number of negatives
+     */
+    long getNegatives();
+
+    /**
+     * Method to return the number of lookups a filter let through and that found the key
+     *
+     * @return number of true positives
+     */
+    long getPositives();
+
+    /**
+     * Method to return the number of lookups a filter let through but that did not find the key
+     *
+     * @return number of false positives
+     */
+    long getFalsePositives();
+
+    /**
+     * Method to return the observed false positive rate: the fraction of lookups of missing keys
+     * that a filter failed to reject
+     *
+     * @return false positive rate, between 0 and 1
+     */
+    double getFalsePositiveRate();
+}
@@ -0,0 +1,338 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.config.StorageConfig;
+import com.cloudproject.dynamo.models.ObjectIOModel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary dump of the records of a bucket, in strictly increasing key order, as used to bulk load
+ * and export buckets:
+ * <pre>
+ * | magic (7) | format version (1) | record ... | end (1) | record count (8) | crc32 (8) |
+ * record: | 1 (1) | key length (4) | key | version (8) | expires at (8) | value length (4) | value |
+ * </pre>
+ * Keys and values are UTF-8 encoded. An expiry of 0 stands for a record without a time to live, a
+ * value length of -1 for a null value. The checksum covers everything before the record count, so a
+ * truncated or corrupted dump is rejected once it has been read to the end.
+ */
+public final class BucketDump {
+
+    private static final byte[] MAGIC = {'D', 'L', 'D', 'D', 'U', 'M', 'P'};
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte RECORD = 1;
+    private static final byte END = 0;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BucketDump() {
+    }
+
+    /**
+     * Method to return the file of a dump named by a client. Dumps are only read and written under
+     * the bulk directory ({@link StorageConfig#getBulkDir()}), so a client cannot have the nodes read or
+     * overwrite any other file
+     *
+     * @param name name of the dump, relative to the bulk directory
+     * @return the file of the dump
+     * @throws IOException if the name is absolute or leads out of the bulk directory
+     */
+    public static File resolve(String name) throws IOException {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IOException("Missing dump name");
+        }
+        Path dir = Paths.get(StorageConfig.getBulkDir()).toAbsolutePath().normalize();
+        Path relative;
+        try {
+            relative = Paths.get(name).normalize();
+        } catch (InvalidPathException e) {
+            throw new IOException("Invalid dump name " + name);
+        }
+        if (relative.isAbsolute() || relative.getRoot() != null || relative.toString().isEmpty()) {
+            throw new IOException("Dump name " + name + " must be relative to the bulk directory");
+        }
+        for (Path component : relative) {
+            if (component.toString().equals("..")) {
+                throw new IOException("Dump name " + name + " leads out of the bulk directory");
+            }
+        }
+        Path dump = dir.resolve(relative).normalize();
+        if (!dump.startsWith(dir) || dump.equals(dir)) {
+            throw new IOException("Dump name " + name + " leads out of the bulk directory");
+        }
+        return dump.toFile();
+    }
+
+    /**
+     * Method to start writing a dump. The file only holds a valid dump once the writer is closed
+     *
+     * @param file the file to write, replaced if it exists
+     * @return the writer
+     * @throws IOException if the file cannot be created
+     */
+    public static Writer writer(File file) throws IOException {
+        return new Writer(file);
+    }
+
+    /**
+     * Method to start reading a dump
+     *
+     * @param file the dump
+     * @return the reader, which checks the order of the keys and the checksum as it reads them
+     * @throws IOException if the file cannot be opened or is not a dump
+     */
+    public static Reader reader(File file) throws IOException {
+        return new Reader(file);
+    }
+
+    /**
+     * Method to merge the records of the same bucket held by several nodes into one dump, like sorted
+     * streams. Keys held by several nodes are written once, with the record of the highest version
+     *
+     * @param parts  the records of every node, each in key order, whose read errors are thrown as
+     *               {@link UncheckedIOException}
+     * @param target the merged dump, written under a temporary name and renamed into place once complete
+     * @return number of records in the merged dump
+     * @throws IOException if the records cannot be read or the merged dump cannot be written
+     */
+    public static long merge(List<? extends Iterator<Map.Entry<String, ObjectIOModel>>> parts, File target)
+            throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        try {
+            // heap of the next record of every node, ordered by key
+            PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, parts.size()),
+                    Comparator.comparing((Head head) -> head.entry.getKey()));
+            for (Iterator<Map.Entry<String, ObjectIOModel>> part : parts) {
+                if (part.hasNext()) {
+                    heads.add(new Head(part.next(), part));
+                }
+            }
+            long count;
+            try (Writer writer = writer(temp)) {
+                Map.Entry<String, ObjectIOModel> pending = null;
+                while (!heads.isEmpty()) {
+                    Head head = heads.poll();
+                    Map.Entry<String, ObjectIOModel> entry = head.entry;
+                    if (head.rest.hasNext()) {
+                        heads.add(new Head(head.rest.next(), head.rest));
+                    }
+                    if (pending != null && pending.getKey().equals(entry.getKey())) {
+                        if (entry.getValue().getVersion() > pending.getValue().getVersion()) {
+                            pending = entry;
+                        }
+                        continue;
+                    }
+                    if (pending != null) {
+                        writer.write(pending.getKey(), pending.getValue());
+                    }
+                    pending = entry;
+                }
+                if (pending != null) {
+                    writer.write(pending.getKey(), pending.getValue());
+                }
+                count = writer.getCount();
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return count;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Writer of a dump. Records must be written in strictly increasing key order
+     */
+    public static class Writer implements Closeable {
+        private final FileOutputStream file;
+        private final CRC32 crc;
+        private final DataOutputStream out;
+        private String lastKey;
+        private long count;
+        private boolean closed;
+
+        private Writer(File target) throws IOException {
+            target.getAbsoluteFile().getParentFile().mkdirs();
+            this.file = new FileOutputStream(target);
+            this.crc = new CRC32();
+            this.out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, BUFFER_SIZE), crc));
+            out.write(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+        }
+
+        /**
+         * Method to append a record to the dump
+         *
+         * @param key     key of the record, greater than the key of the previous record
+         * @param ioModel the record
+         * @throws IOException if the record cannot be written, or is out of order
+         */
+        public void write(String key, ObjectIOModel ioModel) throws IOException {
+            if (lastKey != null && key.compareTo(lastKey) <= 0) {
+                throw new IOException("Key " + key + " written after " + lastKey);
+            }
+            out.writeByte(RECORD);
+            writeBytes(key.getBytes(StandardCharsets.UTF_8));
+            out.writeLong(ioModel.getVersion());
+            out.writeLong(ioModel.getExpiresAt());
+            writeBytes(ioModel.getValue() == null ? null : ioModel.getValue().getBytes(StandardCharsets.UTF_8));
+            lastKey = key;
+            count++;
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            if (bytes == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * Method to get the number of records written so far
+         *
+         * @return number of records
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Writes the end of the dump and syncs it to disk
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.writeByte(END);
+                long checksum = crc.getValue();
+                out.writeLong(count);
+                out.writeLong(checksum);
+                out.flush();
+                file.getFD().sync();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Reader of a dump, iterating over its records in key order. Read errors, keys out of order and
+     * checksum mismatches are thrown as {@link UncheckedIOException}
+     */
+    public static class Reader extends LookaheadIterator<Map.Entry<String, ObjectIOModel>> implements Closeable {
+        private final File file;
+        private final CRC32 crc;
+        private final DataInputStream in;
+        private String lastKey;
+        private long count;
+
+        private Reader(File file) throws IOException {
+            this.file = file;
+            this.crc = new CRC32();
+            this.in = new DataInputStream(new CheckedInputStream(
+                    new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), crc));
+            try {
+                byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                if (!Arrays.equals(magic, MAGIC)) {
+                    throw new IOException(file + " is not a bucket dump");
+                }
+                byte version = in.readByte();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException(file + " has unsupported dump format version " + version);
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        @Override
+        protected Map.Entry<String, ObjectIOModel> computeNext() {
+            try {
+                byte marker = in.readByte();
+                if (marker == END) {
+                    long checksum = crc.getValue();
+                    if (in.readLong() != count || in.readLong() != checksum) {
+                        throw new IOException(file + " is corrupted: checksum or record count mismatch");
+                    }
+                    return null;
+                }
+                if (marker != RECORD) {
+                    throw new IOException(file + " is corrupted: unexpected marker " + marker);
+                }
+                String key = readString();
+                if (key == null || (lastKey != null && key.compareTo(lastKey) <= 0)) {
+                    throw new IOException(file + " is not sorted: key " + key + " after " + lastKey);
+                }
+                long version = in.readLong();
+                long expiresAt = in.readLong();
+                String value = readString();
+                lastKey = key;
+                count++;
+                return new AbstractMap.SimpleImmutableEntry<>(key, new ObjectIOModel(version, value, expiresAt));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String readString() throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Next record of a node being merged
+     */
+    private static class Head {
+        private final Map.Entry<String, ObjectIOModel> entry;
+        private final Iterator<Map.Entry<String, ObjectIOModel>> rest;
+
+        Head(Map.Entry<String, ObjectIOModel> entry, Iterator<Map.Entry<String, ObjectIOModel>> rest) {
+            this.entry = entry;
+            this.rest = rest;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.cloudproject.dynamo.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Bloom filter over the keys of a {@link FileStore} bucket, built from a listing of the bucket.
+ * A Bloom filter cannot forget a key, so deleted keys only turn into false positives; the filter is
+ * rebuilt from a fresh listing once the deletions pile up, or once the bucket outgrows the capacity
+ * the filter was sized for.
+ */
+class BucketFilter {
+
+    private static final int MIN_CAPACITY = 1024;
+
+    private final Supplier<List<String>> lister;
+    private final double fpp;
+    private volatile BloomFilter filter;
+    private long added;
+    private long deleted;
+    private List<String> pending;
+
+    private BucketFilter(Supplier<List<String>> lister, double fpp) {
+        this.lister = lister;
+        this.fpp = fpp;
+    }
+
+    /**
+     * Method to build the filter of a bucket
+     *
+     * @param lister lists the keys of the bucket, or returns null if it no longer exists
+     * @param fpp    target false positive rate of the filter
+     * @return the filter
+     */
+    static BucketFilter build(Supplier<List<String>> lister, double fpp) {
+        BucketFilter bucketFilter = new BucketFilter(lister, fpp);
+        bucketFilter.rebuild(null);
+        return bucketFilter;
+    }
+
+    boolean mightContain(String key) {
+        return filter.mightContain(key);
+    }
+
+    /**
+     * Method to add a key. Must be called before the record of the key is written, so that a reader
+     * who can see the record is never rejected by the filter
+     *
+     * @param key the key being written
+     */
+    void add(String key) {
+        boolean full;
+        synchronized (this) {
+            filter.add(key);
+            if (pending != null) {
+                pending.add(key);
+            }
+            full = ++added > filter.capacity();
+        }
+        if (full) {
+            // the record is not written yet, so the listing will not see the key
+            rebuild(key);
+        }
+    }
+
+    /**
+     * Method to record the deletion of a key
+     */
+    void delete() {
+        boolean stale;
+        synchronized (this) {
+            stale = ++deleted > Math.max(MIN_CAPACITY, added / 4);
+        }
+        if (stale) {
+            rebuild(null);
+        }
+    }
+
+    /**
+     * Rebuilds the filter from a listing of the bucket, with room for the bucket to double. Keys
+     * added while the directory is listed are collected and replayed into the new filter
+     *
+     * @param adding key being added whose record may not be written yet, or null
+     */
+    private void rebuild(String adding) {
+        synchronized (this) {
+            if (pending != null) {
+                return;
+            }
+            pending = new ArrayList<>();
+            if (adding != null) {
+                pending.add(adding);
+            }
+        }
+        List<String> names = lister.get();
+        if (names == null) {
+            names = Collections.emptyList();
+        }
+        BloomFilter fresh = BloomFilter.create(Math.max(MIN_CAPACITY, 2L * names.size()), fpp);
+        for (String name : names) {
+            fresh.add(name);
+        }
+        synchronized (this) {
+            for (String key : pending) {
+                fresh.add(key);
+            }
+            added = names.size() + pending.size();
+            deleted = 0;
+            pending = null;
+            filter = fresh;
+        }
+    }
+}
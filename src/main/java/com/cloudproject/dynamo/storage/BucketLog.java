@@ -0,0 +1,830 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.models.Durability;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Log-structured storage of a single bucket. Every write is appended to the active segment and
+ * the key directory is pointed at the new record. Sealed segments are immutable; a merge
+ * copies their live records into fresh segments and deletes them, dropping overwritten and deleted
+ * entries. Each sealed segment gets a hint file (key, offset, length, version per record) so that
+ * the key directory can be rebuilt on restart without reading any value.
+ * <p>
+ * On top of that, the whole key directory is checkpointed periodically into a single file, along
+ * with the position in the log up to which it is complete. A restart loads the checkpoint and
+ * replays only the records written after that position. A checkpoint refers to the segments that
+ * existed when it was taken, so a merge (which deletes all of them) makes it unusable until the
+ * next one is written; the bucket then falls back to the hint files.
+ * </p>
+ * <p>
+ * A record written with a time to live is treated as absent as soon as it expires. Expired keys are
+ * swept out of the key directory in the background, which turns their records into dead bytes for
+ * the next merge to reclaim; a merge also drops the expired records it comes across by itself.
+ * Replaying an expired record after a restart is harmless, since it is still expired.
+ * </p>
+ * <p>
+ * The key directory is kept off the Java heap (see {@link OffHeapKeyDir}), bounded by
+ * -XX:MaxDirectMemorySize rather than by the heap. It packs the offset of a record into 32 bits, so
+ * segments are limited to 4 GB.
+ * </p>
+ * <p>
+ * Segment ids only ever grow, and a record in a higher segment always supersedes one in a lower
+ * segment. A merge reserves a block of ids between its inputs and the new active segment for its
+ * outputs, so replaying all segments in id order stays correct even after a crash mid-merge.
+ * </p>
+ * <p>
+ * Only the segment that was active when the bucket was closed can end in a torn record, which is cut
+ * off on restart. An invalid record in any other segment is corruption and fails the open. The
+ * outputs of a merge that did not finish may be torn as well, so the merge records its block of ids
+ * in a marker file until all of its outputs are synced, and a restart deletes those outputs first;
+ * their records are all still in the inputs.
+ * </p>
+ */
+class BucketLog implements Closeable, Syncable {
+
+    private static final int MAX_READ_ATTEMPTS = 3;
+    // leaves room for the record that crosses the segment size before the segment is sealed
+    private static final long MAX_SEGMENT_SIZE = 3L * 1024 * 1024 * 1024;
+    private static final String CHECKPOINT_FILE = "keydir.checkpoint";
+    private static final String MERGE_FILE = "merge.pending";
+    private static final int CHECKPOINT_MAGIC = 0x4B444350;
+    private static final byte CHECKPOINT_VERSION = 3;
+    private static final byte CHECKPOINT_VERSION_2 = 2;
+    private static final byte CHECKPOINT_VERSION_1 = 1;
+
+    private final File dir;
+    private final long segmentSize;
+    private final Executor background;
+    private final GroupCommitter committer;
+    private final OffHeapKeyDir keyDir;
+    private final ConcurrentSkipListMap<Long, LogSegment> segments;
+    private final ConcurrentHashMap<Long, AtomicLong> deadBytes;
+    private final Object writeLock;
+    private final AtomicBoolean merging;
+    private final Object checkpointLock;
+    private volatile LogSegment active;
+    private long nextId;
+    private long checkpointSegment;
+    private long checkpointOffset;
+
+    private BucketLog(File dir, long segmentSize, Executor background, GroupCommitter committer) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.background = background;
+        this.committer = committer;
+        this.keyDir = new OffHeapKeyDir();
+        this.segments = new ConcurrentSkipListMap<>();
+        this.deadBytes = new ConcurrentHashMap<>();
+        this.writeLock = new Object();
+        this.merging = new AtomicBoolean(false);
+        this.checkpointLock = new Object();
+    }
+
+    /**
+     * Method to open the log of a bucket, rebuilding its key directory from its checkpoint and the
+     * records written after it, or from hint files where available and from the segments themselves
+     * otherwise
+     *
+     * @param dir         the bucket directory
+     * @param segmentSize size after which the active segment is sealed
+     * @param background  executor used for writing hint files
+     * @param committer   group commit of the engine
+     * @return the opened log
+     * @throws IOException if a segment cannot be opened
+     */
+    static BucketLog open(File dir, long segmentSize, Executor background, GroupCommitter committer)
+            throws IOException {
+        if (segmentSize >= MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size " + segmentSize + " is not below " + MAX_SEGMENT_SIZE);
+        }
+        long start = System.nanoTime();
+        BucketLog log = new BucketLog(dir, segmentSize, background, committer);
+        log.dropUnfinishedMerge();
+        String[] names = dir.list();
+        long[] ids = names == null ? new long[0] :
+                Arrays.stream(names).mapToLong(LogSegment::parseId).filter(id -> id >= 0).sorted().toArray();
+        for (long id : ids) {
+            log.segments.put(id, LogSegment.open(dir, id));
+        }
+        boolean checkpointed = log.loadCheckpoint();
+        long loaded = System.nanoTime();
+        long replayed = 0;
+        long last = ids.length > 0 ? ids[ids.length - 1] : -1;
+        for (LogSegment segment : log.segments.values()) {
+            if (checkpointed && segment.getId() < log.checkpointSegment) {
+                continue;
+            }
+            // only the segment that was active when the bucket was closed can have a torn tail
+            boolean torn = segment.getId() == last;
+            if (checkpointed && segment.getId() == log.checkpointSegment) {
+                replayed += log.scan(segment, log.checkpointOffset, torn);
+            } else if (!log.loadHint(segment)) {
+                replayed += log.scan(segment, 0, torn);
+                if (segment.size() > 0) {
+                    log.writeHint(segment);
+                }
+            }
+        }
+        log.nextId = ids.length > 0 ? ids[ids.length - 1] + 1 : 1;
+        log.active = LogSegment.open(dir, log.nextId++);
+        log.segments.put(log.active.getId(), log.active);
+        long end = System.nanoTime();
+        System.out.println("[Storage] Opened " + dir + ": " + log.keyDir.size() + " keys in "
+                + TimeUnit.NANOSECONDS.toMillis(end - start) + " ms ("
+                + (checkpointed ? "checkpoint " : "no checkpoint ") + TimeUnit.NANOSECONDS.toMillis(loaded - start)
+                + " ms, hint files and replay of " + replayed + " bytes " + TimeUnit.NANOSECONDS.toMillis(end - loaded)
+                + " ms)");
+        return log;
+    }
+
+    /**
+     * Method to read the latest record of a key
+     *
+     * @param key the key to be read
+     * @return the record, or null if the key does not exist or has expired
+     * @throws IOException if the record cannot be read or is corrupt
+     */
+    LogRecord get(String key) throws IOException {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            KeyDirEntry entry = keyDir.get(key);
+            if (entry == null || entry.expiredAt(System.currentTimeMillis())) {
+                return null;
+            }
+            LogSegment segment = segments.get(entry.segmentId);
+            if (segment == null) {
+                // segment was merged away after the lookup, retry with the new location
+                continue;
+            }
+            try {
+                LogRecord record = segment.read(entry.offset, entry.length, LogRecord::decode);
+                if (record != null && record.key.equals(key)) {
+                    return record;
+                }
+                if (entry.equals(keyDir.get(key))) {
+                    throw new IOException("Corrupt record for " + key + " in " + segment.getFile());
+                }
+            } catch (ClosedChannelException e) {
+                // segment was closed by a merge, retry with the new location
+            }
+        }
+        throw new IOException("Could not read " + key + " from " + dir);
+    }
+
+    /**
+     * Method to write a key unconditionally
+     *
+     * @return always true
+     */
+    boolean put(LogRecord record, Durability durability) throws IOException {
+        LogSegment segment;
+        synchronized (writeLock) {
+            segment = append(record);
+        }
+        committer.commit(segment, durability);
+        return true;
+    }
+
+    /**
+     * Method to write a key only if it does not exist yet
+     *
+     * @return true if the key was written
+     */
+    boolean putIfAbsent(LogRecord record, Durability durability) throws IOException {
+        LogSegment segment;
+        synchronized (writeLock) {
+            if (exists(record.key)) {
+                return false;
+            }
+            segment = append(record);
+        }
+        committer.commit(segment, durability);
+        return true;
+    }
+
+    /**
+     * Method to overwrite a key only if it already exists
+     *
+     * @return true if the key was written
+     */
+    boolean replace(LogRecord record, Durability durability) throws IOException {
+        LogSegment segment;
+        synchronized (writeLock) {
+            if (!exists(record.key)) {
+                return false;
+            }
+            segment = append(record);
+        }
+        committer.commit(segment, durability);
+        return true;
+    }
+
+    /**
+     * Method to delete a key by appending a tombstone for it
+     *
+     * @param key        the key to be deleted
+     * @param durability when the deletion may be acknowledged
+     * @return true if the key existed
+     */
+    boolean delete(String key, Durability durability) throws IOException {
+        LogSegment segment;
+        synchronized (writeLock) {
+            if (!exists(key)) {
+                return false;
+            }
+            segment = append(new LogRecord(key, LogRecord.FLAG_TOMBSTONE, 0, null));
+        }
+        committer.commit(segment, durability);
+        return true;
+    }
+
+    private boolean exists(String key) {
+        return keyDir.isLive(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Appends a record to the active segment and applies it to the key directory.
+     * Must be called while holding writeLock.
+     *
+     * @return the segment the record was appended to, to be synced once the lock is released
+     */
+    private LogSegment append(LogRecord record) throws IOException {
+        ByteBuffer encoded = record.encode();
+        int length = encoded.remaining();
+        LogSegment segment = active;
+        long offset = segment.append(encoded);
+        apply(record.key, new KeyDirEntry(segment.getId(), offset, length, record.version, record.expiresAt),
+                record.isTombstone());
+        if (segment.size() >= segmentSize) {
+            LogSegment sealed = active;
+            active = LogSegment.open(dir, nextId++);
+            segments.put(active.getId(), active);
+            background.execute(() -> {
+                try {
+                    sealed.sync();
+                    writeHint(sealed);
+                } catch (ClosedChannelException e) {
+                    // merged away before its hint was written
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        return segment;
+    }
+
+    private void apply(String key, KeyDirEntry entry, boolean tombstone) {
+        KeyDirEntry previous = tombstone ? keyDir.remove(key) : keyDir.put(key, entry);
+        if (previous != null) {
+            addDeadBytes(previous.segmentId, previous.length);
+        }
+        if (tombstone) {
+            addDeadBytes(entry.segmentId, entry.length);
+        }
+    }
+
+    private void addDeadBytes(long segmentId, long bytes) {
+        deadBytes.computeIfAbsent(segmentId, id -> new AtomicLong()).addAndGet(bytes);
+    }
+
+    /**
+     * Method to remove the expired keys from the key directory. Their records become dead bytes, to
+     * be reclaimed by the next merge; a write racing with the sweep always wins
+     *
+     * @return the number of keys removed
+     */
+    int sweepExpired() {
+        long now = System.currentTimeMillis();
+        Map<String, KeyDirEntry> expired = new HashMap<>();
+        try {
+            keyDir.forEach((key, entry) -> {
+                if (entry.expiredAt(now)) {
+                    expired.put(key, entry);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int swept = 0;
+        for (Map.Entry<String, KeyDirEntry> mapping : expired.entrySet()) {
+            KeyDirEntry entry = mapping.getValue();
+            if (keyDir.remove(mapping.getKey(), entry) != null) {
+                addDeadBytes(entry.segmentId, entry.length);
+                swept++;
+            }
+        }
+        return swept;
+    }
+
+    /**
+     * Method to check if enough of the sealed segments is dead to make a merge worthwhile
+     *
+     * @param threshold fraction of dead bytes that triggers a merge
+     * @return true if the bucket should be merged
+     */
+    boolean needsMerge(double threshold) {
+        long total = 0;
+        long dead = 0;
+        for (LogSegment segment : segments.headMap(active.getId()).values()) {
+            total += segment.size();
+            AtomicLong segmentDead = deadBytes.get(segment.getId());
+            dead += segmentDead == null ? 0 : segmentDead.get();
+        }
+        return total > 0 && (double) dead / total >= threshold;
+    }
+
+    /**
+     * Method to merge every segment of the bucket: live records are copied into new segments,
+     * overwritten records, expired records and tombstones are dropped, and the old segments are deleted
+     *
+     * @throws IOException if the merge fails; the bucket stays readable from the old segments
+     */
+    void merge() throws IOException {
+        if (!merging.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<LogSegment> inputs;
+            long outputId;
+            long lastOutputId;
+            synchronized (writeLock) {
+                // seal the active segment too, so that every input is immutable
+                inputs = new ArrayList<>(segments.values());
+                outputId = nextId;
+                nextId += inputs.size();
+                lastOutputId = nextId - 1;
+                active = LogSegment.open(dir, nextId++);
+                segments.put(active.getId(), active);
+            }
+            writeMergeMarker(outputId, lastOutputId);
+
+            long now = System.currentTimeMillis();
+            List<LogSegment> outputs = new ArrayList<>();
+            LogSegment output = null;
+            for (LogSegment input : inputs) {
+                long position = 0;
+                long end = input.size();
+                while (position + LogRecord.HEADER_SIZE <= end) {
+                    int length = input.read(position, LogRecord.HEADER_SIZE, LogRecord::encodedLength);
+                    if (length < 0 || position + length > end) {
+                        break;
+                    }
+                    ByteBuffer raw = input.read(position, length);
+                    LogRecord record = LogRecord.decode(raw.duplicate());
+                    if (record == null) {
+                        break;
+                    }
+                    KeyDirEntry current = keyDir.get(record.key);
+                    boolean live = current != null && current.segmentId == input.getId() && current.offset == position;
+                    if (live && current.expiredAt(now)) {
+                        // every older record of the key goes away with the inputs as well
+                        keyDir.remove(record.key, current);
+                    } else if (live) {
+                        if (output == null || (output.size() >= segmentSize && outputId <= lastOutputId)) {
+                            output = LogSegment.open(dir, outputId++);
+                            outputs.add(output);
+                            segments.put(output.getId(), output);
+                        }
+                        long offset = output.append(raw);
+                        KeyDirEntry moved = new KeyDirEntry(output.getId(), offset, length, current.version,
+                                current.expiresAt);
+                        if (!keyDir.replace(record.key, current, moved)) {
+                            // overwritten while we were copying it
+                            addDeadBytes(output.getId(), length);
+                        }
+                    }
+                    position += length;
+                }
+                if (position < end) {
+                    // the records after it would be deleted with the input
+                    throw new IOException("Corrupt record in " + input.getFile() + " at " + position + " of " + end);
+                }
+            }
+
+            for (LogSegment segment : outputs) {
+                segment.sync();
+                writeHint(segment);
+            }
+            // every output is complete, the inputs can go
+            new File(dir, MERGE_FILE).delete();
+            for (LogSegment input : inputs) {
+                segments.remove(input.getId());
+                deadBytes.remove(input.getId());
+                input.delete();
+            }
+        } finally {
+            merging.set(false);
+        }
+    }
+
+    /**
+     * Writes the block of ids reserved for the outputs of a merge into the merge marker, synced
+     * before any output is written
+     */
+    private void writeMergeMarker(long first, long last) throws IOException {
+        try (FileOutputStream fileStream = new FileOutputStream(new File(dir, MERGE_FILE))) {
+            DataOutputStream out = new DataOutputStream(fileStream);
+            out.writeLong(first);
+            out.writeLong(last);
+            out.flush();
+            fileStream.getFD().sync();
+        }
+    }
+
+    /**
+     * Deletes the outputs of a merge that did not finish, if the merge marker is left. Outputs are only
+     * dropped if one of them has no hint file yet, in which case no input was deleted; otherwise the
+     * merge got past syncing its outputs and only the marker goes
+     */
+    private void dropUnfinishedMerge() {
+        File marker = new File(dir, MERGE_FILE);
+        if (!marker.exists()) {
+            return;
+        }
+        long first;
+        long last;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(marker))) {
+            first = in.readLong();
+            last = in.readLong();
+        } catch (IOException e) {
+            // torn marker: the merge had not written any output yet
+            marker.delete();
+            return;
+        }
+        boolean finished = true;
+        for (long id = first; id <= last; id++) {
+            if (new File(dir, LogSegment.fileName(id, LogSegment.DATA_SUFFIX)).exists()
+                    && !new File(dir, LogSegment.fileName(id, LogSegment.HINT_SUFFIX)).exists()) {
+                finished = false;
+            }
+        }
+        if (!finished) {
+            System.out.println("[Storage] Dropping the outputs of an unfinished merge of " + dir);
+            for (long id = first; id <= last; id++) {
+                new File(dir, LogSegment.fileName(id, LogSegment.HINT_SUFFIX)).delete();
+                new File(dir, LogSegment.fileName(id, LogSegment.DATA_SUFFIX)).delete();
+            }
+        }
+        marker.delete();
+    }
+
+    /**
+     * Replays the records of a segment from the given offset into the key directory. A torn tail is
+     * cut off the segment that was active when the bucket was closed; an invalid record anywhere in a
+     * sealed segment is corruption, which fails the open rather than dropping the records after it
+     *
+     * @param torn true if the segment was the active one, whose last write may have been cut short
+     * @return the number of bytes replayed
+     * @throws IOException if the segment cannot be read, or a sealed segment holds an invalid record
+     */
+    private long scan(LogSegment segment, long from, boolean torn) throws IOException {
+        long position = from;
+        long end = segment.size();
+        while (position + LogRecord.HEADER_SIZE <= end) {
+            int length = segment.read(position, LogRecord.HEADER_SIZE, LogRecord::encodedLength);
+            if (length < 0 || position + length > end) {
+                break;
+            }
+            LogRecord record = segment.read(position, length, LogRecord::decode);
+            if (record == null) {
+                break;
+            }
+            apply(record.key, new KeyDirEntry(segment.getId(), position, length, record.version, record.expiresAt),
+                    record.isTombstone());
+            position += length;
+        }
+        if (position < end && !torn) {
+            System.out.println("[Storage] Invalid record in sealed segment " + segment.getFile() + " at " + position);
+            throw new IOException("Corrupt record in sealed segment " + segment.getFile() + " at " + position
+                    + " of " + end);
+        }
+        if (position < end) {
+            System.out.println("[Storage] Truncating torn tail of " + segment.getFile() + " at " + position);
+            segment.truncate(position);
+        }
+        return position - from;
+    }
+
+    /**
+     * Writes the hint file of a sealed segment atomically (temporary file + rename)
+     */
+    private void writeHint(LogSegment segment) throws IOException {
+        File hint = segment.getHintFile();
+        File tmp = new File(hint.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            long position = 0;
+            long end = segment.size();
+            while (position + LogRecord.HEADER_SIZE <= end) {
+                int length = segment.read(position, LogRecord.HEADER_SIZE, LogRecord::encodedLength);
+                if (length < 0 || position + length > end) {
+                    break;
+                }
+                LogRecord record = segment.read(position, length, LogRecord::decode);
+                if (record == null) {
+                    break;
+                }
+                byte[] key = record.key.getBytes(StandardCharsets.UTF_8);
+                out.writeByte(record.flags);
+                out.writeLong(record.version);
+                if (record.expiresAt != 0) {
+                    out.writeLong(record.expiresAt);
+                }
+                out.writeLong(position);
+                out.writeInt(length);
+                out.writeInt(key.length);
+                out.write(key);
+                position += length;
+            }
+        }
+        if (!tmp.renameTo(hint)) {
+            tmp.delete();
+            throw new IOException("Could not write hint file " + hint);
+        }
+    }
+
+    /**
+     * Rebuilds the key directory entries of a segment from its hint file
+     *
+     * @return false if the segment has no usable hint file
+     */
+    private boolean loadHint(LogSegment segment) {
+        File hint = segment.getHintFile();
+        if (!hint.exists()) {
+            return false;
+        }
+        List<HintEntry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(hint)))) {
+            while (in.available() > 0) {
+                byte flags = in.readByte();
+                long version = in.readLong();
+                long expiresAt = (flags & LogRecord.FLAG_EXPIRES) != 0 ? in.readLong() : 0;
+                long offset = in.readLong();
+                int length = in.readInt();
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                if (offset + length > segment.size()) {
+                    throw new IOException("Hint points past the end of " + segment.getFile());
+                }
+                entries.add(new HintEntry(new String(key, StandardCharsets.UTF_8),
+                        new KeyDirEntry(segment.getId(), offset, length, version, expiresAt),
+                        (flags & LogRecord.FLAG_TOMBSTONE) != 0));
+            }
+        } catch (IOException e) {
+            System.out.println("[Storage] Ignoring unreadable hint file " + hint + ": " + e.getMessage());
+            return false;
+        }
+        for (HintEntry entry : entries) {
+            apply(entry.key, entry.entry, entry.tombstone);
+        }
+        return true;
+    }
+
+    /**
+     * Method to write a checkpoint of the key directory, atomically (temporary file + rename).
+     * Writes are not blocked while the key directory is copied, so entries written after the position
+     * recorded in the checkpoint may or may not be in it; loading the checkpoint drops them, and they
+     * are replayed from the log instead. The dead bytes are not saved, since they would not match the
+     * copy either. Must not run concurrently with a merge
+     *
+     * @throws IOException if the checkpoint cannot be written; the previous one stays in place
+     */
+    void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            long segmentId;
+            long offset;
+            synchronized (writeLock) {
+                segmentId = active.getId();
+                offset = active.size();
+            }
+            if (segmentId == checkpointSegment && offset == checkpointOffset) {
+                return;
+            }
+            // the checkpoint must not point at records a crash could still take away
+            for (LogSegment segment : segments.headMap(segmentId, true).values()) {
+                segment.sync();
+            }
+            File file = new File(dir, CHECKPOINT_FILE);
+            File tmp = new File(dir, CHECKPOINT_FILE + ".tmp");
+            try (FileOutputStream fileStream = new FileOutputStream(tmp)) {
+                CheckedOutputStream checked = new CheckedOutputStream(
+                        new BufferedOutputStream(fileStream, 64 * 1024), new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeByte(CHECKPOINT_VERSION);
+                out.writeLong(segmentId);
+                out.writeLong(offset);
+                keyDir.forEach((name, entry) -> {
+                    byte[] key = name.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(key.length);
+                    out.write(key);
+                    out.writeLong(entry.segmentId);
+                    out.writeLong(entry.offset);
+                    out.writeInt(entry.length);
+                    out.writeLong(entry.version);
+                    out.writeLong(entry.expiresAt);
+                });
+                out.writeInt(-1);
+                out.writeInt((int) checked.getChecksum().getValue());
+                out.flush();
+                fileStream.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Could not write checkpoint " + file);
+            }
+            checkpointSegment = segmentId;
+            checkpointOffset = offset;
+        }
+    }
+
+    /**
+     * Loads the checkpoint of the bucket into the key directory, if there is a usable one: intact,
+     * and referring only to segments that still exist. Entries past the position of the checkpoint
+     * were written while it was taken and are left to the replay, which also cuts off a torn tail
+     * they could point into. Every byte up to the position that no entry points at is dead, so the
+     * replay only counts the records it supersedes from there on
+     *
+     * @return true if the checkpoint was loaded, false if every segment must be replayed
+     */
+    private boolean loadCheckpoint() {
+        File file = new File(dir, CHECKPOINT_FILE);
+        if (!file.exists()) {
+            return false;
+        }
+        Map<Long, Long> live = new HashMap<>();
+        long segmentId;
+        long offset;
+        try (FileInputStream fileStream = new FileInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(
+                    new BufferedInputStream(fileStream, 64 * 1024), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                throw new IOException("Not a checkpoint");
+            }
+            byte version = in.readByte();
+            if (version != CHECKPOINT_VERSION && version != CHECKPOINT_VERSION_2 && version != CHECKPOINT_VERSION_1) {
+                throw new IOException("Unknown checkpoint version " + version);
+            }
+            segmentId = in.readLong();
+            offset = in.readLong();
+            LogSegment cut = segments.get(segmentId);
+            if (cut == null || offset > cut.size()) {
+                throw new IOException("Checkpoint refers to a merged segment");
+            }
+            if (version != CHECKPOINT_VERSION) {
+                // dead bytes of the segments, taken apart from the copy of the key directory
+                for (int i = in.readInt(); i > 0; i--) {
+                    in.readLong();
+                    in.readLong();
+                }
+            }
+            for (int length = in.readInt(); length >= 0; length = in.readInt()) {
+                byte[] key = new byte[length];
+                in.readFully(key);
+                KeyDirEntry entry = new KeyDirEntry(in.readLong(), in.readLong(), in.readInt(), in.readLong(),
+                        version == CHECKPOINT_VERSION_1 ? 0 : in.readLong());
+                if (entry.segmentId > segmentId
+                        || (entry.segmentId == segmentId && entry.offset + entry.length > offset)) {
+                    continue;
+                }
+                LogSegment segment = segments.get(entry.segmentId);
+                if (segment == null || entry.offset + entry.length > segment.size()) {
+                    throw new IOException("Checkpoint refers to a merged segment");
+                }
+                keyDir.put(new String(key, StandardCharsets.UTF_8), entry);
+                live.merge(entry.segmentId, (long) entry.length, Long::sum);
+            }
+            int checksum = (int) checked.getChecksum().getValue();
+            if (in.readInt() != checksum) {
+                throw new IOException("Checkpoint checksum mismatch");
+            }
+        } catch (IOException e) {
+            System.out.println("[Storage] Ignoring checkpoint " + file + ": " + e.getMessage());
+            keyDir.clear();
+            return false;
+        }
+        for (LogSegment segment : segments.headMap(segmentId, true).values()) {
+            long end = segment.getId() == segmentId ? offset : segment.size();
+            long dead = end - live.getOrDefault(segment.getId(), 0L);
+            if (dead > 0) {
+                addDeadBytes(segment.getId(), dead);
+            }
+        }
+        checkpointSegment = segmentId;
+        checkpointOffset = offset;
+        return true;
+    }
+
+    /**
+     * Method to return the lowest keys of a scan range that sort after a given key, in key order. The
+     * key directory is a hash map, so this is one pass over it that only ever holds the keys returned:
+     * a bounded max-heap keeps the lowest ones seen so far. The keys are read out of the key directory
+     * one shard at a time, so the result is weakly consistent with concurrent writes.
+     *
+     * @param range the scan range
+     * @param after key the returned keys sort after, or null to start at the beginning of the range
+     * @param count maximum number of keys to return
+     * @return up to count keys, sorted
+     */
+    List<String> keys(ScanRange range, String after, int count) {
+        PriorityQueue<String> lowest = new PriorityQueue<>(count, Comparator.reverseOrder());
+        try {
+            keyDir.forEach((key, entry) -> {
+                if (!range.includes(key) || (after != null && key.compareTo(after) <= 0)) {
+                    return;
+                }
+                if (lowest.size() < count) {
+                    lowest.add(key);
+                } else if (key.compareTo(lowest.peek()) < 0) {
+                    lowest.poll();
+                    lowest.add(key);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<String> keys = new ArrayList<>(lowest);
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Method to return the number of live keys in the bucket
+     *
+     * @return number of keys
+     */
+    int size() {
+        return keyDir.size();
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * Method to force every segment of the bucket to the storage device, including the segments
+     * sealed since the records written without a sync were appended
+     */
+    @Override
+    public void sync() throws IOException {
+        for (LogSegment segment : segments.values()) {
+            try {
+                segment.sync();
+            } catch (ClosedChannelException e) {
+                // merged away, into outputs the merge synced
+            }
+        }
+    }
+
+    /**
+     * Method to close the segments of a dropped bucket, without checkpointing or syncing them
+     */
+    void discard() throws IOException {
+        synchronized (writeLock) {
+            for (LogSegment segment : segments.values()) {
+                segment.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // a clean shutdown leaves nothing to replay
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (writeLock) {
+            for (LogSegment segment : segments.values()) {
+                segment.sync();
+                segment.close();
+            }
+        }
+    }
+
+    private static class HintEntry {
+        private final String key;
+        private final KeyDirEntry entry;
+        private final boolean tombstone;
+
+        HintEntry(String key, KeyDirEntry entry, boolean tombstone) {
+            this.key = key;
+            this.entry = entry;
+            this.tombstone = tombstone;
+        }
+    }
+}
@@ -0,0 +1,746 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.config.AppConfig;
+import com.cloudproject.dynamo.config.StorageConfig;
+import com.cloudproject.dynamo.consistenthash.CityHash;
+import com.cloudproject.dynamo.models.Durability;
+import com.cloudproject.dynamo.models.ObjectIOModel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class FileStore. The original storage layout of a node: every bucket is a directory under the
+ * data directory, and every record is an {@link ObjectIOModel} in a file named after its key.
+ * Records are written in the binary {@link RecordCodec} format, with values above the compression
+ * threshold compressed with the codec of the bucket; records still in the JSON format of earlier
+ * versions are read transparently, and converted the next time they are written. Since every
+ * record is a file of its own there is nothing to group, so writes with batch durability are
+ * synced on their own like writes with sync durability. Every bucket keeps a {@link BucketFilter}
+ * over its keys, so reads and existence checks of missing keys are answered without touching the
+ * filesystem. Records whose time to live has run out are treated as absent, and a background
+ * sweeper deletes their files, examining at most {@link StorageConfig#getExpirySweepRate()} records
+ * per second; it only visits the buckets used since the node started. Dropping a bucket only moves
+ * its directory into the trash, from which a {@link Reclaimer} deletes it in the background.
+ * <p>
+ * So that no directory grows too large, the file of a record is stored two levels down a hashed
+ * tree, {@code <bucket>/.fanout/<xx>/<yy>/<key>}, where {@code xx} and {@code yy} are the top two
+ * bytes of the CityHash of the key. Buckets written by earlier versions keep every record right in
+ * the bucket directory. Such a flat bucket is served from both layouts: a write first moves the
+ * record of its key into the tree, and once the bucket has been written to or found by
+ * {@link #recover()} at startup, a background migration moves the rest at {@link StorageConfig#getFanoutMigrationRate()} records per second. The tree
+ * holds a marker once no flat record is left, after which the flat layout is no longer looked at.
+ * Records are only ever moved from the flat layout into the tree, with the lock of their key held.
+ * </p>
+ */
+public class FileStore implements StorageEngine {
+
+    private static final int LOCK_STRIPES = 256;
+    private static final String FANOUT_DIR = ".fanout";
+    private static final String MIGRATED_MARKER = ".migrated";
+
+    private final File root;
+    private final ConcurrentHashMap<String, BucketFilter> filters;
+    private final ConcurrentHashMap<String, Boolean> migrated;
+    private final Set<String> migrating;
+    private final BloomStats bloomStats;
+    private final Object[] locks;
+    private final ScheduledExecutorService background;
+    private final Reclaimer reclaimer;
+    // positions of the sweeper and the migration, only used by the background thread
+    private final Deque<String> sweepBuckets;
+    private String sweepBucket;
+    private String[] sweepKeys;
+    private int sweepIndex;
+    private String migrationBucket;
+    private String[] migrationKeys;
+    private int migrationIndex;
+
+    /**
+     * @param root the data directory under which every bucket is stored
+     */
+    public FileStore(File root) {
+        this(root, null);
+    }
+
+    /**
+     * @param root   the data directory under which every bucket is stored
+     * @param volume id of the volume of the data directory, or null if the node has a single one
+     */
+    public FileStore(File root, String volume) {
+        String suffix = volume == null ? "" : "-" + volume;
+        this.root = root;
+        this.filters = new ConcurrentHashMap<>();
+        this.migrated = new ConcurrentHashMap<>();
+        this.migrating = ConcurrentHashMap.newKeySet();
+        this.bloomStats = new BloomStats("file", volume);
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        this.sweepBuckets = new ArrayDeque<>();
+        this.background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-background" + suffix);
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (StorageConfig.getExpirySweepRate() > 0) {
+            this.background.scheduleWithFixedDelay(this::sweepExpired, 1, 1, TimeUnit.SECONDS);
+        }
+        this.background.scheduleWithFixedDelay(this::migrateBuckets, 1, 1, TimeUnit.SECONDS);
+        this.reclaimer = new Reclaimer(root, "file-reclaim" + suffix);
+    }
+
+    @Override
+    public boolean createBucket(String bucket) {
+        if (Reclaimer.isReserved(bucket)) {
+            return false;
+        }
+        filters.remove(bucket);
+        migrated.remove(bucket);
+        File dir = new File(root, bucket);
+        if (!dir.mkdir()) {
+            return false;
+        }
+        // a new bucket starts out in the hashed layout, with nothing to migrate
+        File tree = new File(dir, FANOUT_DIR);
+        try {
+            if (!tree.mkdir() || !new File(tree, MIGRATED_MARKER).createNewFile()) {
+                throw new IOException("Could not create " + tree);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean dropBucket(String bucket) {
+        boolean status = false;
+        try {
+            status = !Reclaimer.isReserved(bucket) && reclaimer.drop(new File(root, bucket));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        filters.remove(bucket);
+        migrated.remove(bucket);
+        migrating.remove(bucket);
+        return status;
+    }
+
+    /**
+     * Queues every bucket still holding records in the flat layout for the background migration, so
+     * that a bucket written by an earlier version is migrated even if it is only ever read. A
+     * directory is only taken for a flat bucket if its first file holds a record, so that nothing
+     * else under the data directory is ever moved
+     */
+    @Override
+    public void recover() {
+        File[] dirs = root.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
+            String bucket = dir.getName();
+            if (!Reclaimer.isReserved(bucket) && !isMigrated(bucket) && isFlatBucket(dir)) {
+                migrating.add(bucket);
+            }
+        }
+        if (!migrating.isEmpty()) {
+            System.out.println("[Storage] Migrating " + migrating.size() + " buckets of " + root
+                    + " to the hashed layout");
+        }
+    }
+
+    @Override
+    public ObjectIOModel get(String bucket, String key) throws IOException {
+        BucketFilter filter = filter(bucket);
+        if (filter == null) {
+            return null;
+        }
+        if (!filter.mightContain(key)) {
+            bloomStats.recordNegative();
+            return null;
+        }
+        ByteBuffer contents;
+        if (isMigrated(bucket)) {
+            contents = read(locate(bucket, key));
+        } else {
+            synchronized (lock(bucket, key)) {
+                contents = read(locate(bucket, key));
+            }
+        }
+        if (contents == null) {
+            bloomStats.recordFalsePositive();
+            return null;
+        }
+        bloomStats.recordPositive();
+        ObjectIOModel ioModel;
+        if (RecordCodec.isBinary(contents)) {
+            ioModel = RecordCodec.decode(contents);
+        } else {
+            ioModel = AppConfig.getParser().deserialize(
+                    new String(contents.array(), Charset.defaultCharset()), ObjectIOModel.class);
+        }
+        return ioModel == null || ioModel.expiredAt(System.currentTimeMillis()) ? null : ioModel;
+    }
+
+    @Override
+    public boolean put(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        BucketFilter filter = filter(bucket);
+        if (filter == null) {
+            return false;
+        }
+        synchronized (lock(bucket, key)) {
+            filter.add(key);
+            write(target(bucket, key), ioModel, bucket, durability);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean putIfAbsent(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        BucketFilter filter = filter(bucket);
+        if (filter != null) {
+            synchronized (lock(bucket, key)) {
+                File file = target(bucket, key);
+                if (!filter.mightContain(key) || !exists(file)) {
+                    filter.add(key);
+                    write(file, ioModel, bucket, durability);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean replace(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        if (filter(bucket) == null) {
+            return false;
+        }
+        synchronized (lock(bucket, key)) {
+            File file = target(bucket, key);
+            if (!exists(file)) {
+                return false;
+            }
+            write(file, ioModel, bucket, durability);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean delete(String bucket, String key, Durability durability) throws IOException {
+        BucketFilter filter = filter(bucket);
+        if (filter == null || !filter.mightContain(key)) {
+            return false;
+        }
+        synchronized (lock(bucket, key)) {
+            File file = target(bucket, key);
+            // an expired record is deleted all the same, but was already absent
+            boolean existed = exists(file);
+            if (file.exists() && file.delete()) {
+                filter.delete();
+                return existed;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the lock serializing the writes of a key with each other, with the sweeper and the
+     * migration, and with the reads of the key while its bucket is being migrated
+     */
+    private Object lock(String bucket, String key) {
+        return locks[((31 * bucket.hashCode() + key.hashCode()) & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    /**
+     * Checks if a bucket is entirely in the hashed layout
+     */
+    private boolean isMigrated(String bucket) {
+        Boolean state = migrated.get(bucket);
+        if (state == null) {
+            state = new File(new File(new File(root, bucket), FANOUT_DIR), MIGRATED_MARKER).isFile();
+            migrated.put(bucket, state);
+        }
+        return state;
+    }
+
+    /**
+     * Returns the file of a record in the hashed tree of a bucket
+     *
+     * @param tree the root of the hashed tree
+     * @param key  key of the record
+     * @return the file, which may not exist
+     */
+    private static File hashedFile(File tree, String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = CityHash.cityHash64(bytes, 0, bytes.length);
+        return new File(new File(new File(tree, hex(hash >>> 56)), hex(hash >>> 48)), key);
+    }
+
+    private static String hex(long value) {
+        return Integer.toHexString(0x100 | (int) (value & 0xff)).substring(1);
+    }
+
+    /**
+     * Returns the file currently holding the record of a key, in either layout. Unless the bucket
+     * is migrated, must be called while holding the lock of the key
+     */
+    private File locate(String bucket, String key) {
+        File dir = new File(root, bucket);
+        if (!isMigrated(bucket)) {
+            File flat = new File(dir, key);
+            if (flat.isFile()) {
+                return flat;
+            }
+        }
+        return hashedFile(new File(dir, FANOUT_DIR), key);
+    }
+
+    /**
+     * Returns the file a write of a key goes to, moving the flat record of the key into the hashed
+     * tree first. Must be called while holding the lock of the key
+     */
+    private File target(String bucket, String key) throws IOException {
+        File file = hashedFile(new File(new File(root, bucket), FANOUT_DIR), key);
+        if (!isMigrated(bucket)) {
+            migrate(bucket, key);
+            migrating.add(bucket);
+        }
+        return file;
+    }
+
+    /**
+     * Moves the flat record of a key into the hashed tree, if there is one
+     *
+     * @return true if a record was moved
+     */
+    private boolean migrate(String bucket, String key) throws IOException {
+        File dir = new File(root, bucket);
+        synchronized (lock(bucket, key)) {
+            File tree = ensureTree(bucket);
+            File flat = new File(dir, key);
+            if (!flat.isFile()) {
+                return false;
+            }
+            File file = hashedFile(tree, key);
+            makeDirs(file.getParentFile());
+            Files.move(flat.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+    }
+
+    /**
+     * Creates the hashed tree of a bucket if it does not exist yet. A flat record named like the
+     * tree is moved into a tree built beside it, which then takes its place
+     *
+     * @return the root of the tree
+     */
+    private File ensureTree(String bucket) throws IOException {
+        File dir = new File(root, bucket);
+        File tree = new File(dir, FANOUT_DIR);
+        if (tree.isDirectory()) {
+            return tree;
+        }
+        synchronized (lock(bucket, FANOUT_DIR)) {
+            if (!tree.isFile()) {
+                makeDirs(tree);
+                return tree;
+            }
+            // a crash in between leaves the record in the temporary tree
+            File staging = Files.createTempDirectory(dir.toPath(), FANOUT_DIR).toFile();
+            File file = hashedFile(staging, FANOUT_DIR);
+            makeDirs(file.getParentFile());
+            Files.move(tree.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Files.move(staging.toPath(), tree.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return tree;
+        }
+    }
+
+    private static void makeDirs(File dir) throws IOException {
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Could not create " + dir);
+        }
+    }
+
+    /**
+     * Reads a whole file
+     *
+     * @return the contents, or null if there is no such file
+     */
+    private static ByteBuffer read(File file) throws IOException {
+        try {
+            return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks if a file holds a record that has not expired
+     */
+    private static boolean exists(File file) throws IOException {
+        return file.exists() && !isExpired(file, System.currentTimeMillis());
+    }
+
+    /**
+     * Checks if a file holds a record that has expired, from the header of the record alone
+     */
+    private static boolean isExpired(File file, long now) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RecordCodec.headerSize());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read until the header is complete or the file ends
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        header.flip();
+        long expiresAt = RecordCodec.expiresAt(header);
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    /**
+     * Returns the keys of a bucket, in both layouts
+     *
+     * @return the keys, or null if the bucket does not exist
+     */
+    private List<String> keys(String bucket) {
+        File dir = new File(root, bucket);
+        String[] names = dir.list();
+        if (names == null) {
+            return null;
+        }
+        List<String> keys = new ArrayList<>();
+        File tree = new File(dir, FANOUT_DIR);
+        boolean hashed = tree.isDirectory();
+        for (String name : names) {
+            if (!hashed || !name.equals(FANOUT_DIR)) {
+                keys.add(name);
+            }
+        }
+        File[] firstLevel = hashed ? tree.listFiles(File::isDirectory) : null;
+        if (firstLevel != null) {
+            for (File first : firstLevel) {
+                File[] secondLevel = first.listFiles();
+                if (secondLevel == null) {
+                    continue;
+                }
+                for (File second : secondLevel) {
+                    String[] records = second.list();
+                    if (records != null) {
+                        keys.addAll(Arrays.asList(records));
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Deletes the files of expired records, examining at most the configured number of records and
+     * resuming where the previous run stopped. Every bucket in use is listed at most once per run
+     */
+    private void sweepExpired() {
+        int budget = StorageConfig.getExpirySweepRate();
+        long now = System.currentTimeMillis();
+        int swept = 0;
+        boolean listed = false;
+        while (budget > 0) {
+            if (sweepKeys == null || sweepIndex >= sweepKeys.length) {
+                if (sweepBuckets.isEmpty()) {
+                    if (listed) {
+                        break;
+                    }
+                    sweepBuckets.addAll(filters.keySet());
+                    listed = true;
+                    if (sweepBuckets.isEmpty()) {
+                        break;
+                    }
+                }
+                sweepBucket = sweepBuckets.poll();
+                List<String> keys = keys(sweepBucket);
+                sweepKeys = keys == null ? new String[0] : keys.toArray(new String[0]);
+                sweepIndex = 0;
+                continue;
+            }
+            String key = sweepKeys[sweepIndex++];
+            budget--;
+            try {
+                if (expire(sweepBucket, key, now)) {
+                    swept++;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (swept > 0) {
+            System.out.println("[Storage] Swept " + swept + " expired records");
+        }
+    }
+
+    /**
+     * Deletes the file of a record if it has expired
+     *
+     * @return true if the file was deleted
+     */
+    private boolean expire(String bucket, String key, long now) throws IOException {
+        synchronized (lock(bucket, key)) {
+            File file = locate(bucket, key);
+            if (!file.isFile() || !isExpired(file, now) || !file.delete()) {
+                return false;
+            }
+        }
+        BucketFilter filter = filters.get(bucket);
+        if (filter != null) {
+            filter.delete();
+        }
+        return true;
+    }
+
+    /**
+     * Moves the flat records of the buckets being migrated into their hashed trees, moving at most
+     * the configured number of records and resuming where the previous run stopped. Writes never
+     * create flat records, so a bucket is migrated once a listing finds none left
+     */
+    private void migrateBuckets() {
+        int budget = StorageConfig.getFanoutMigrationRate();
+        int moved = 0;
+        for (String bucket : migrating) {
+            if (budget <= 0) {
+                break;
+            }
+            File dir = new File(root, bucket);
+            if (!bucket.equals(migrationBucket)) {
+                migrationBucket = bucket;
+                migrationKeys = flatKeys(dir);
+                migrationIndex = 0;
+            }
+            while (budget > 0 && migrationIndex < migrationKeys.length) {
+                String key = migrationKeys[migrationIndex++];
+                budget--;
+                try {
+                    if (migrate(bucket, key)) {
+                        moved++;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (migrationIndex >= migrationKeys.length) {
+                migrationBucket = null;
+                if (flatKeys(dir).length == 0) {
+                    finishMigration(bucket);
+                }
+            }
+        }
+        if (moved > 0) {
+            System.out.println("[Storage] Moved " + moved + " records into the hashed layout");
+        }
+    }
+
+    /**
+     * Lists the records of a bucket that are still in the flat layout
+     */
+    private static String[] flatKeys(File dir) {
+        File[] files = dir.listFiles(File::isFile);
+        if (files == null) {
+            return new String[0];
+        }
+        String[] keys = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            keys[i] = files[i].getName();
+        }
+        return keys;
+    }
+
+    /**
+     * Checks if a directory holds records in the flat layout, from its first file
+     */
+    private static boolean isFlatBucket(File dir) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir.toPath(), Files::isRegularFile)) {
+            for (Path file : files) {
+                return isRecord(file);
+            }
+        } catch (AccessDeniedException e) {
+            // not a directory of this node
+        } catch (IOException | DirectoryIteratorException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a file holds a record, in either the binary or the JSON format
+     */
+    private static boolean isRecord(Path file) throws IOException {
+        if (Files.size(file) > StorageConfig.getMaxMessageSize()) {
+            return false;
+        }
+        ByteBuffer contents = read(file.toFile());
+        if (contents == null) {
+            return false;
+        }
+        if (RecordCodec.isBinary(contents)) {
+            return true;
+        }
+        try {
+            return AppConfig.getParser().deserialize(
+                    new String(contents.array(), Charset.defaultCharset()), ObjectIOModel.class) != null;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void finishMigration(String bucket) {
+        migrating.remove(bucket);
+        File dir = new File(root, bucket);
+        if (!dir.isDirectory()) {
+            // dropped meanwhile
+            return;
+        }
+        try {
+            File marker = new File(ensureTree(bucket), MIGRATED_MARKER);
+            if (!marker.isFile() && !marker.createNewFile()) {
+                throw new IOException("Could not create " + marker);
+            }
+            migrated.put(bucket, true);
+            System.out.println("[Storage] Migrated " + dir + " to the hashed layout");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the key filter of a bucket, building it from a listing of the bucket on first use
+     *
+     * @return the filter, or null if the bucket does not exist
+     */
+    private BucketFilter filter(String bucket) {
+        BucketFilter filter = filters.get(bucket);
+        if (filter != null) {
+            return filter;
+        }
+        File dir = new File(root, bucket);
+        if (Reclaimer.isReserved(bucket) || !dir.isDirectory()) {
+            return null;
+        }
+        return filters.computeIfAbsent(bucket,
+                name -> BucketFilter.build(() -> keys(name), StorageConfig.getBloomFalsePositiveRate()));
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, ObjectIOModel>> scan(String bucket, String prefix, String startAfter) {
+        List<String> names = keys(bucket);
+        if (names == null) {
+            return null;
+        }
+        ScanRange range = new ScanRange(prefix, startAfter);
+        List<String> keys = new ArrayList<>();
+        for (String name : names) {
+            if (range.includes(name)) {
+                keys.add(name);
+            }
+        }
+        Collections.sort(keys);
+        Iterator<String> keyIterator = keys.iterator();
+        return new LookaheadIterator<Map.Entry<String, ObjectIOModel>>() {
+            @Override
+            protected Map.Entry<String, ObjectIOModel> computeNext() {
+                while (keyIterator.hasNext()) {
+                    String key = keyIterator.next();
+                    try {
+                        ObjectIOModel ioModel = get(bucket, key);
+                        if (ioModel != null) {
+                            return new AbstractMap.SimpleImmutableEntry<>(key, ioModel);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Writes the file of a record, creating the directories of its hashed tree as needed
+     */
+    private static void write(File file, ObjectIOModel ioModel, String bucket, Durability durability)
+            throws IOException {
+        ByteBuffer contents = RecordCodec.encode(ioModel, StorageConfig.getCompression(bucket),
+                StorageConfig.getCompressionThreshold());
+        makeDirs(file.getParentFile());
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(contents.array(), 0, contents.limit());
+            if (durability != Durability.NONE) {
+                out.getFD().sync();
+            }
+        }
+    }
+
+    /**
+     * Every record is a file of its own, so this syncs every file of the bucket, in both layouts
+     */
+    @Override
+    public void sync(String bucket) throws IOException {
+        File dir = new File(root, bucket);
+        if (Reclaimer.isReserved(bucket) || !dir.isDirectory()) {
+            return;
+        }
+        Deque<File> dirs = new ArrayDeque<>();
+        dirs.push(dir);
+        while (!dirs.isEmpty()) {
+            File[] files = dirs.pop().listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    dirs.push(file);
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    channel.force(false);
+                } catch (NoSuchFileException e) {
+                    // deleted or migrated meanwhile
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // every write goes straight to its own file, only the background tasks and the counters are left to release
+        background.shutdown();
+        try {
+            background.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reclaimer.close();
+        filters.clear();
+        bloomStats.close();
+    }
+}
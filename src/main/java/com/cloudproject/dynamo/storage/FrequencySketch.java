@@ -0,0 +1,96 @@
+package com.cloudproject.dynamo.storage;
+
+/**
+ * Count-min sketch estimating how often each key was accessed recently. Every key maps to four
+ * 4-bit counters (one per hash function) packed into an array of longs, and its frequency is the
+ * smallest of them. Once the number of recorded accesses reaches the sample size all counters are
+ * halved, so keys that were popular long ago lose their weight.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param expectedEntries number of entries the cache is expected to hold
+     */
+    FrequencySketch(int expectedEntries) {
+        int length = Integer.highestOneBit(Math.max(16, expectedEntries) - 1) << 1;
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * length;
+    }
+
+    /**
+     * Method to estimate how often a key was accessed recently
+     *
+     * @param hash hash code of the key
+     * @return estimated frequency, between 0 and 15
+     */
+    int frequency(int hash) {
+        int spread = spread(hash);
+        int start = (spread & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(spread, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Method to record an access to a key
+     *
+     * @param hash hash code of the key
+     */
+    void increment(int hash) {
+        int spread = spread(hash);
+        int start = (spread & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(spread, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves every counter, ageing the recorded accesses
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size /= 2;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,154 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.models.Durability;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit of the logs of a storage engine. Writers append to their log without syncing and
+ * then wait here; a single committer thread wakes up every interval, syncs every log written since
+ * its previous run once, and releases all the writers of that batch together. One sync is thereby
+ * shared by every write that arrived during the interval.
+ */
+class GroupCommitter implements Closeable {
+
+    private final long intervalNanos;
+    private final Thread committer;
+    private Set<Syncable> dirty;
+    private long currentBatch;
+    private long completedBatch;
+    private long failedBatch;
+    private IOException failure;
+    private volatile boolean running;
+
+    /**
+     * @param interval time between two group commits
+     * @param unit     unit of the interval
+     * @param name     name of the committer thread
+     */
+    GroupCommitter(long interval, TimeUnit unit, String name) {
+        this.intervalNanos = unit.toNanos(interval);
+        this.dirty = new LinkedHashSet<>();
+        this.currentBatch = 1;
+        this.failedBatch = -1;
+        this.running = true;
+        this.committer = new Thread(this::run, name);
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Method to make a write durable according to the requested durability. Must be called after
+     * the write was appended to the log, and without holding any lock that other writers need.
+     *
+     * @param log        the log the write was appended to
+     * @param durability when the write may be acknowledged
+     * @throws IOException if the sync fails
+     */
+    void commit(Syncable log, Durability durability) throws IOException {
+        switch (durability) {
+            case NONE:
+                break;
+            case SYNC:
+                sync(log);
+                break;
+            case BATCH:
+                awaitBatch(log);
+                break;
+        }
+    }
+
+    private synchronized void awaitBatch(Syncable log) throws IOException {
+        if (!running) {
+            sync(log);
+            return;
+        }
+        long batch = currentBatch;
+        dirty.add(log);
+        try {
+            while (completedBatch < batch) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for group commit");
+        }
+        if (failedBatch == batch) {
+            throw new IOException("Group commit failed", failure);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(intervalNanos);
+            } catch (InterruptedException e) {
+                // woken up by close(): commit what is pending and stop
+            }
+            Set<Syncable> batchLogs;
+            long batch;
+            synchronized (this) {
+                if (dirty.isEmpty()) {
+                    continue;
+                }
+                batchLogs = dirty;
+                batch = currentBatch++;
+                dirty = new LinkedHashSet<>();
+            }
+            IOException error = null;
+            for (Syncable log : batchLogs) {
+                try {
+                    sync(log);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            synchronized (this) {
+                completedBatch = batch;
+                if (error != null) {
+                    failedBatch = batch;
+                    failure = error;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private static void sync(Syncable log) throws IOException {
+        try {
+            log.sync();
+        } catch (ClosedChannelException e) {
+            // closed after a flush or merge, which synced its contents somewhere else first
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        committer.interrupt();
+        try {
+            committer.join(TimeUnit.NANOSECONDS.toMillis(intervalNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            // nothing will commit a batch any more, let late waiters go after syncing themselves
+            for (Syncable log : dirty) {
+                try {
+                    sync(log);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            dirty.clear();
+            completedBatch = currentBatch;
+            notifyAll();
+        }
+    }
+}
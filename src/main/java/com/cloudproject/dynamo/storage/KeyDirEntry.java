@@ -0,0 +1,53 @@
+package com.cloudproject.dynamo.storage;
+
+import java.util.Objects;
+
+/**
+ * Entry of the key directory of a bucket. Points at the latest record of a key, so that
+ * a read needs a single positioned read of the segment holding it. The expiry of the record is kept
+ * as well, so that an expired key is treated as absent without reading it.
+ */
+class KeyDirEntry {
+
+    final long segmentId;
+    final long offset;
+    final int length;
+    final long version;
+    final long expiresAt;
+
+    KeyDirEntry(long segmentId, long offset, int length, long version, long expiresAt) {
+        this.segmentId = segmentId;
+        this.offset = offset;
+        this.length = length;
+        this.version = version;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Method to check if the record this entry points at has expired
+     *
+     * @param now the current time in milliseconds since the epoch
+     * @return true if the record was written with a time to live that has run out
+     */
+    boolean expiredAt(long now) {
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KeyDirEntry)) {
+            return false;
+        }
+        KeyDirEntry other = (KeyDirEntry) o;
+        return segmentId == other.segmentId && offset == other.offset && length == other.length
+                && version == other.version && expiresAt == other.expiresAt;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(segmentId, offset, length, version, expiresAt);
+    }
+}
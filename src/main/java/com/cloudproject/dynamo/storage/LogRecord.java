@@ -0,0 +1,191 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.compression.Codec;
+import com.cloudproject.dynamo.models.ObjectIOModel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * A single entry of a log segment. Every record is laid out on disk as:
+ * <pre>
+ * | crc32 (4) | flags (1) | version (8) | key length (4) | value length (4) | key | value |
+ * </pre>
+ * The checksum covers everything that follows it. A record with the tombstone flag marks the
+ * deletion of its key and carries no value. Bits 1-2 of the flags hold the id of the {@link Codec}
+ * the value is compressed with. A record with the expires flag was written with a time to live: its
+ * value starts with the expiry time (8), which the value length includes.
+ */
+class LogRecord {
+
+    static final int HEADER_SIZE = 4 + 1 + 8 + 4 + 4;
+    static final byte FLAG_TOMBSTONE = 0x01;
+    static final byte FLAG_EXPIRES = 0x08;
+    private static final int CODEC_SHIFT = 1;
+    private static final int CODEC_MASK = 0x06;
+
+    final String key;
+    final byte flags;
+    final long version;
+    final long expiresAt;
+    final byte[] value;
+
+    LogRecord(String key, byte flags, long version, byte[] value) {
+        this(key, flags, version, 0, value);
+    }
+
+    LogRecord(String key, byte flags, long version, long expiresAt, byte[] value) {
+        this.key = key;
+        this.flags = (byte) (expiresAt == 0 ? flags & ~FLAG_EXPIRES : flags | FLAG_EXPIRES);
+        this.version = version;
+        this.expiresAt = expiresAt;
+        this.value = value;
+    }
+
+    /**
+     * Method to build the record of a write, compressing its value if it is large enough
+     *
+     * @param key       the key of the record
+     * @param ioModel   the version and value of the record
+     * @param codec     the codec of the bucket
+     * @param threshold size below which values are left uncompressed
+     * @return the record
+     */
+    static LogRecord of(String key, ObjectIOModel ioModel, Codec codec, int threshold) {
+        byte[] raw = ioModel.getValue() == null ? new byte[0] : ioModel.getValue().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = codec.compress(raw, threshold);
+        if (compressed == null) {
+            return new LogRecord(key, (byte) 0, ioModel.getVersion(), ioModel.getExpiresAt(), raw);
+        }
+        return new LogRecord(key, (byte) (codec.getId() << CODEC_SHIFT), ioModel.getVersion(),
+                ioModel.getExpiresAt(), compressed);
+    }
+
+    /**
+     * Method to return the version and (decompressed) value of this record
+     *
+     * @return the record as an {@link ObjectIOModel}
+     * @throws IOException if the value cannot be decompressed
+     */
+    ObjectIOModel toModel() throws IOException {
+        Codec codec = Codec.forId((flags & CODEC_MASK) >>> CODEC_SHIFT);
+        return new ObjectIOModel(version, new String(codec.decompress(value), StandardCharsets.UTF_8), expiresAt);
+    }
+
+    /**
+     * Method to check if this record was written with a time to live that has run out
+     *
+     * @param now the current time in milliseconds since the epoch
+     * @return true if this record has expired
+     */
+    boolean expiredAt(long now) {
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    /**
+     * Method to check if this record marks the deletion of its key
+     *
+     * @return true if this record is a tombstone
+     */
+    boolean isTombstone() {
+        return (flags & FLAG_TOMBSTONE) != 0;
+    }
+
+    /**
+     * Method to encode this record into a buffer ready to be appended to a segment
+     *
+     * @return buffer holding the encoded record, positioned at 0
+     */
+    ByteBuffer encode() {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = (value == null ? 0 : value.length) + (expiresAt == 0 ? 0 : 8);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + valueLength);
+        buffer.position(4);
+        buffer.put(flags).putLong(version).putInt(keyBytes.length).putInt(valueLength).put(keyBytes);
+        if (expiresAt != 0) {
+            buffer.putLong(expiresAt);
+        }
+        if (value != null) {
+            buffer.put(value);
+        }
+        buffer.putInt(0, checksum(buffer.array(), 4, buffer.capacity() - 4));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Method to decode a record from a buffer holding exactly one encoded record
+     *
+     * @param buffer the buffer to be decoded
+     * @return the decoded record, or null if the buffer is truncated or its checksum does not match
+     */
+    static LogRecord decode(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int start = buffer.position();
+        int crc = buffer.getInt();
+        byte flags = buffer.get();
+        long version = buffer.getLong();
+        int keyLength = buffer.getInt();
+        int valueLength = buffer.getInt();
+        long length = encodedLength(keyLength, valueLength);
+        if (length < 0 || buffer.remaining() < length - HEADER_SIZE) {
+            return null;
+        }
+        byte[] body = new byte[(int) length - 4];
+        buffer.position(start + 4);
+        buffer.get(body);
+        if (checksum(body, 0, body.length) != crc) {
+            return null;
+        }
+        String key = new String(body, HEADER_SIZE - 4, keyLength, StandardCharsets.UTF_8);
+        int valueStart = HEADER_SIZE - 4 + keyLength;
+        long expiresAt = 0;
+        if ((flags & FLAG_EXPIRES) != 0) {
+            if (valueLength < 8) {
+                return null;
+            }
+            expiresAt = ByteBuffer.wrap(body, valueStart, 8).getLong();
+            valueStart += 8;
+            valueLength -= 8;
+        }
+        byte[] value = new byte[valueLength];
+        System.arraycopy(body, valueStart, value, 0, valueLength);
+        return new LogRecord(key, flags, version, expiresAt, value);
+    }
+
+    /**
+     * Method to return the total encoded length of a record from its header
+     *
+     * @param header buffer positioned at the start of a record header
+     * @return encoded length of the record, or -1 if the header is malformed
+     */
+    static int encodedLength(ByteBuffer header) {
+        return (int) encodedLength(header.getInt(header.position() + 13), header.getInt(header.position() + 17));
+    }
+
+    /**
+     * Method to return the total encoded length of a record from the lengths of its key and value.
+     * The lengths come from disk, so their sum is computed as a long and checked to fit in an array
+     *
+     * @param keyLength   length of the key
+     * @param valueLength length of the value
+     * @return encoded length of the record, or -1 if a length is negative or the record is too large
+     */
+    private static long encodedLength(int keyLength, int valueLength) {
+        if (keyLength < 0 || valueLength < 0) {
+            return -1;
+        }
+        long length = (long) HEADER_SIZE + keyLength + valueLength;
+        return length > Integer.MAX_VALUE - 8 ? -1 : length;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, length);
+        return (int) crc32.getValue();
+    }
+}
@@ -0,0 +1,172 @@
+package com.cloudproject.dynamo.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only data file of a bucket. Records are only ever appended to the active segment of a
+ * bucket; once a segment is sealed it is immutable until a merge deletes it. Records are read
+ * through a {@link MappedFile}, so a point lookup is a slice of the memory-mapped segment.
+ */
+class LogSegment implements Closeable, Syncable {
+
+    static final String DATA_SUFFIX = ".data";
+    static final String HINT_SUFFIX = ".hint";
+
+    private final long id;
+    private final File file;
+    private final FileChannel channel;
+    private final MappedFile mapped;
+    private volatile long size;
+
+    private LogSegment(long id, File file, FileChannel channel) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.channel = channel;
+        this.mapped = new MappedFile(channel);
+        this.size = channel.size();
+    }
+
+    /**
+     * Method to open (or create) the segment with the given id inside a bucket directory
+     *
+     * @param dir the bucket directory
+     * @param id  the id of the segment
+     * @return the opened segment
+     * @throws IOException if the segment file cannot be opened
+     */
+    static LogSegment open(File dir, long id) throws IOException {
+        File file = new File(dir, fileName(id, DATA_SUFFIX));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new LogSegment(id, file, channel);
+    }
+
+    /**
+     * Method to build the file name of a segment (or of one of its companion files)
+     *
+     * @param id     the id of the segment
+     * @param suffix the suffix of the file
+     * @return the file name
+     */
+    static String fileName(long id, String suffix) {
+        return String.format("%016d", id) + suffix;
+    }
+
+    /**
+     * Method to parse the segment id out of a file name
+     *
+     * @param name the file name
+     * @return the segment id, or -1 if the name is not the name of a segment
+     */
+    static long parseId(String name) {
+        if (!name.endsWith(DATA_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - DATA_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Method to append an encoded record at the end of the segment
+     *
+     * @param record the encoded record
+     * @return the offset at which the record was written
+     * @throws IOException if the write fails
+     */
+    synchronized long append(ByteBuffer record) throws IOException {
+        long offset = size;
+        long position = offset;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        size = position;
+        return offset;
+    }
+
+    /**
+     * Method to read a copy of a record
+     *
+     * @param offset the offset of the record
+     * @param length the encoded length of the record
+     * @return heap buffer holding the record, positioned at 0
+     * @throws IOException if the read fails, or the segment was closed by a merge
+     */
+    ByteBuffer read(long offset, int length) throws IOException {
+        return read(offset, length, MappedFile::copy);
+    }
+
+    /**
+     * Method to decode a record in place, from the mapped segment where possible
+     *
+     * @param offset the offset of the record
+     * @param length the encoded length of the record
+     * @param reader decodes the record; the buffer it is handed must not be used once it returns
+     * @param <T>    type of the decoded record
+     * @return the decoded record
+     * @throws IOException if the read fails, or the segment was closed by a merge
+     */
+    <T> T read(long offset, int length, MappedFile.Reader<T> reader) throws IOException {
+        return mapped.read(offset, length, size, reader);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Method to cut the segment at the given size, dropping a torn record left by a crash
+     *
+     * @param newSize the new size of the segment
+     * @throws IOException if the truncation fails
+     */
+    synchronized void truncate(long newSize) throws IOException {
+        // touching a mapped page past the end of the file would crash the process
+        mapped.reset();
+        channel.truncate(newSize);
+        size = newSize;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    long size() {
+        return size;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    File getHintFile() {
+        return new File(file.getParentFile(), fileName(id, HINT_SUFFIX));
+    }
+
+    @Override
+    public void close() throws IOException {
+        mapped.close();
+        channel.close();
+    }
+
+    /**
+     * Method to close the segment and remove its data and hint files
+     */
+    void delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        getHintFile().delete();
+        file.delete();
+    }
+}
@@ -0,0 +1,40 @@
+package com.cloudproject.dynamo.storage;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Base class for lazy iterators that compute their next element one step ahead
+ *
+ * @param <T> type of the elements
+ */
+abstract class LookaheadIterator<T> implements Iterator<T> {
+
+    private T next;
+    private boolean computed;
+
+    /**
+     * Method to compute the next element
+     *
+     * @return the next element, or null once the iteration is over
+     */
+    protected abstract T computeNext();
+
+    @Override
+    public boolean hasNext() {
+        if (!computed) {
+            next = computeNext();
+            computed = true;
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        computed = false;
+        return next;
+    }
+}
@@ -0,0 +1,259 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.config.StorageConfig;
+import com.cloudproject.dynamo.models.Durability;
+import com.cloudproject.dynamo.models.ObjectIOModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class LsmStore. Storage engine for write-heavy buckets, built on log-structured merge trees:
+ * 1. Every write is a sequential append to the commit log of the bucket plus an insert into its
+ *    sorted memtable.
+ * 2. Full memtables are flushed into immutable sorted tables with a sparse index, and a background
+ *    compactor merges them level by level, so the data on disk stays sorted by key.
+ * 3. Reads check the memtables first and then the tables, newest first. Every table carries a Bloom
+ *    filter of its keys, so tables that do not hold the key are skipped without reading the disk.
+ * 4. Records written with a time to live are treated as absent once they expire, and compactions
+ *    reclaim them.
+ * 5. Dropping a bucket only hides its directory; a {@link Reclaimer} deletes it in the background.
+ */
+public class LsmStore implements StorageEngine {
+
+    private static final String MARKER = ".lsm";
+
+    private final File root;
+    private final ConcurrentHashMap<String, LsmTree> buckets;
+    private final ExecutorService flusher;
+    private final ExecutorService compactor;
+    private final GroupCommitter committer;
+    private final BloomStats bloomStats;
+    private final Reclaimer reclaimer;
+
+    /**
+     * @param root the data directory under which every bucket is stored
+     */
+    public LsmStore(File root) {
+        this(root, null);
+    }
+
+    /**
+     * @param root   the data directory under which every bucket is stored
+     * @param volume id of the volume of the data directory, or null if the node has a single one
+     */
+    public LsmStore(File root, String volume) {
+        String suffix = volume == null ? "" : "-" + volume;
+        this.root = root;
+        this.buckets = new ConcurrentHashMap<>();
+        this.flusher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lsm-flush" + suffix);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lsm-compaction" + suffix);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.committer = new GroupCommitter(StorageConfig.getGroupCommitInterval(), TimeUnit.MICROSECONDS,
+                "lsm-commit" + suffix);
+        this.bloomStats = new BloomStats("lsm", volume);
+        this.reclaimer = new Reclaimer(root, "lsm-reclaim" + suffix);
+    }
+
+    @Override
+    public boolean createBucket(String bucket) {
+        if (Reclaimer.isReserved(bucket)) {
+            return false;
+        }
+        File dir = new File(root, bucket);
+        File marker = new File(dir, MARKER);
+        synchronized (buckets) {
+            if (marker.exists()) {
+                return false;
+            }
+            try {
+                if ((!dir.isDirectory() && !dir.mkdirs()) || !marker.createNewFile()) {
+                    return false;
+                }
+                buckets.put(bucket, open(dir));
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean dropBucket(String bucket) {
+        synchronized (buckets) {
+            try {
+                LsmTree tree = bucket(bucket);
+                if (tree == null) {
+                    return false;
+                }
+                buckets.remove(bucket);
+                tree.close();
+                return reclaimer.drop(tree.getDir());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public ObjectIOModel get(String bucket, String key) throws IOException {
+        LsmTree tree = bucket(bucket);
+        if (tree == null) {
+            return null;
+        }
+        LogRecord record = tree.get(key);
+        if (record == null || record.isTombstone() || record.expiredAt(System.currentTimeMillis())) {
+            return null;
+        }
+        return record.toModel();
+    }
+
+    @Override
+    public boolean put(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        LsmTree tree = bucket(bucket);
+        return tree != null && tree.put(encode(bucket, key, ioModel), durability);
+    }
+
+    @Override
+    public boolean putIfAbsent(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        LsmTree tree = bucket(bucket);
+        return tree != null && tree.putIfAbsent(encode(bucket, key, ioModel), durability);
+    }
+
+    @Override
+    public boolean replace(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        LsmTree tree = bucket(bucket);
+        return tree != null && tree.replace(encode(bucket, key, ioModel), durability);
+    }
+
+    @Override
+    public boolean delete(String bucket, String key, Durability durability) throws IOException {
+        LsmTree tree = bucket(bucket);
+        return tree != null && tree.delete(key, durability);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, ObjectIOModel>> scan(String bucket, String prefix, String startAfter)
+            throws IOException {
+        LsmTree tree = bucket(bucket);
+        if (tree == null) {
+            return null;
+        }
+        Iterator<LogRecord> records = tree.scan(new ScanRange(prefix, startAfter));
+        return new LookaheadIterator<Map.Entry<String, ObjectIOModel>>() {
+            @Override
+            protected Map.Entry<String, ObjectIOModel> computeNext() {
+                if (!records.hasNext()) {
+                    return null;
+                }
+                LogRecord record = records.next();
+                try {
+                    return new AbstractMap.SimpleImmutableEntry<>(record.key, record.toModel());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private static LogRecord encode(String bucket, String key, ObjectIOModel ioModel) {
+        return LogRecord.of(key, ioModel, StorageConfig.getCompression(bucket),
+                StorageConfig.getCompressionThreshold());
+    }
+
+    private LsmTree open(File dir) throws IOException {
+        return LsmTree.open(dir, StorageConfig.getMemtableSize(), StorageConfig.getTableSize(),
+                StorageConfig.getLevelBaseSize(), flusher, compactor, committer,
+                StorageConfig.getBloomFalsePositiveRate(), bloomStats);
+    }
+
+    /**
+     * Returns the open tree of a bucket, opening it on first use
+     *
+     * @return the tree, or null if the bucket does not exist
+     */
+    private LsmTree bucket(String bucket) throws IOException {
+        LsmTree tree = buckets.get(bucket);
+        if (tree != null) {
+            return tree;
+        }
+        File dir = new File(root, bucket);
+        if (!new File(dir, MARKER).exists()) {
+            return null;
+        }
+        synchronized (buckets) {
+            tree = buckets.get(bucket);
+            if (tree == null) {
+                tree = open(dir);
+                buckets.put(bucket, tree);
+            }
+            return tree;
+        }
+    }
+
+    @Override
+    public void sync(String bucket) throws IOException {
+        LsmTree tree = bucket(bucket);
+        if (tree != null) {
+            tree.sync();
+        }
+    }
+
+    /**
+     * Opens every bucket of the data directory, loading the indexes and filters of its tables and
+     * replaying its commit logs
+     */
+    @Override
+    public void recover() throws IOException {
+        String[] names = root.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            bucket(name);
+        }
+    }
+
+    @Override
+    public void close() {
+        // let running flushes and compactions finish: interrupting them would close their files
+        flusher.shutdown();
+        compactor.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        committer.close();
+        reclaimer.close();
+        synchronized (buckets) {
+            for (LsmTree tree : buckets.values()) {
+                try {
+                    tree.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            buckets.clear();
+        }
+        bloomStats.close();
+    }
+}
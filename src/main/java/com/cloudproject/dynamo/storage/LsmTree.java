@@ -0,0 +1,653 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.models.Durability;
+
+import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Log-structured merge tree holding a single bucket of an {@link LsmStore}:
+ * 1. Writes go to the commit log and the sorted memtable. A full memtable is frozen and flushed in
+ *    the background into a new level 0 table.
+ * 2. Level 0 tables may overlap and are searched newest first; the tables of every deeper level are
+ *    non-overlapping and sorted by key, so a lookup reads at most one table per level.
+ * 3. A background compactor merges level 0 into level 1 once it holds too many tables, and any
+ *    deeper level into the next one once it grows past its size budget (ten times the budget of the
+ *    previous level). Tombstones are dropped once they reach the bottom level. Records whose time to
+ *    live has run out are turned into tombstones by the compaction that rewrites them, since older
+ *    records of their key may still sit in deeper levels.
+ * The set of live tables is recorded in an atomically replaced MANIFEST, so tables left behind by
+ * an interrupted flush or compaction are discarded on restart.
+ */
+class LsmTree implements Closeable {
+
+    static final int MAX_LEVELS = 7;
+    private static final int LEVEL_ZERO_TABLES = 4;
+    private static final int LEVEL_MULTIPLIER = 10;
+    private static final int MAX_READ_ATTEMPTS = 3;
+    private static final String MANIFEST = "MANIFEST";
+
+    private enum WriteMode {ALWAYS, IF_ABSENT, IF_PRESENT}
+
+    private final File dir;
+    private final long memtableSize;
+    private final long tableSize;
+    private final long levelBaseSize;
+    private final Executor flusher;
+    private final Executor compactor;
+    private final GroupCommitter committer;
+    private final double bloomFpp;
+    private final BloomStats bloomStats;
+    private final Object writeLock;
+    private final Object stateLock;
+    private final AtomicBoolean compacting;
+    private final String[] compactPointers;
+    private volatile State state;
+    private long nextId;
+
+    private LsmTree(File dir, long memtableSize, long tableSize, long levelBaseSize,
+                    Executor flusher, Executor compactor, GroupCommitter committer, double bloomFpp,
+                    BloomStats bloomStats) {
+        this.dir = dir;
+        this.memtableSize = memtableSize;
+        this.tableSize = tableSize;
+        this.levelBaseSize = levelBaseSize;
+        this.flusher = flusher;
+        this.compactor = compactor;
+        this.committer = committer;
+        this.bloomFpp = bloomFpp;
+        this.bloomStats = bloomStats;
+        this.writeLock = new Object();
+        this.stateLock = new Object();
+        this.compacting = new AtomicBoolean(false);
+        this.compactPointers = new String[MAX_LEVELS];
+    }
+
+    /**
+     * Method to open the tree of a bucket: loads the tables listed in the manifest, removes tables
+     * that never made it into the manifest and flushes any commit log left by a previous run
+     *
+     * @param dir           the bucket directory
+     * @param memtableSize  size after which the memtable is flushed
+     * @param tableSize     target size of the tables written by a compaction
+     * @param levelBaseSize size budget of level 1
+     * @param flusher       executor running memtable flushes
+     * @param compactor     executor running compactions
+     * @param committer     group commit of the engine
+     * @param bloomFpp      false positive rate of the Bloom filters of new tables
+     * @param bloomStats    counters of the Bloom filter lookups of the engine
+     * @return the opened tree
+     * @throws IOException if the tree cannot be opened
+     */
+    static LsmTree open(File dir, long memtableSize, long tableSize, long levelBaseSize,
+                        Executor flusher, Executor compactor, GroupCommitter committer, double bloomFpp,
+                        BloomStats bloomStats) throws IOException {
+        long start = System.nanoTime();
+        LsmTree tree = new LsmTree(dir, memtableSize, tableSize, levelBaseSize, flusher, compactor, committer,
+                bloomFpp, bloomStats);
+        List<List<SSTable>> levels = emptyLevels();
+        Set<Long> live = new HashSet<>();
+        long nextId = 1;
+
+        File manifest = new File(dir, MANIFEST);
+        if (manifest.exists()) {
+            for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 2) {
+                    continue;
+                }
+                if (parts[0].equals("next")) {
+                    nextId = Math.max(nextId, Long.parseLong(parts[1]));
+                } else {
+                    long id = Long.parseLong(parts[1]);
+                    levels.get(Integer.parseInt(parts[0]))
+                            .add(SSTable.open(new File(dir, LogSegment.fileName(id, SSTable.SUFFIX)), id));
+                    live.add(id);
+                }
+            }
+        }
+        levels.get(0).sort(Comparator.comparingLong(SSTable::getId).reversed());
+        for (int level = 1; level < MAX_LEVELS; level++) {
+            levels.get(level).sort(Comparator.comparing(SSTable::firstKey));
+        }
+
+        List<Long> logIds = new ArrayList<>();
+        String[] names = dir.list();
+        for (String name : names == null ? new String[0] : names) {
+            if (name.endsWith(".tmp")) {
+                new File(dir, name).delete();
+            } else if (name.endsWith(SSTable.SUFFIX)) {
+                long id = Long.parseLong(name.substring(0, name.length() - SSTable.SUFFIX.length()));
+                nextId = Math.max(nextId, id + 1);
+                if (!live.contains(id)) {
+                    // written by a flush or compaction that did not reach the manifest
+                    new File(dir, name).delete();
+                }
+            } else if (name.endsWith(MemTable.LOG_SUFFIX)) {
+                long id = Long.parseLong(name.substring(0, name.length() - MemTable.LOG_SUFFIX.length()));
+                nextId = Math.max(nextId, id + 1);
+                logIds.add(id);
+            }
+        }
+        Collections.sort(logIds);
+        long loaded = System.nanoTime();
+
+        tree.nextId = nextId;
+        List<MemTable> recovered = new ArrayList<>();
+        for (long id : logIds) {
+            recovered.add(0, MemTable.recover(new File(dir, LogSegment.fileName(id, MemTable.LOG_SUFFIX)), id));
+        }
+        tree.state = new State(MemTable.create(dir, tree.nextId++), recovered, levels);
+        // oldest first, so that the newest table ends up in front of level 0
+        for (int i = recovered.size() - 1; i >= 0; i--) {
+            tree.flush(recovered.get(i));
+        }
+        long end = System.nanoTime();
+        System.out.println("[Storage] Opened " + dir + ": " + live.size() + " tables in "
+                + TimeUnit.NANOSECONDS.toMillis(end - start) + " ms (tables "
+                + TimeUnit.NANOSECONDS.toMillis(loaded - start) + " ms, replay of " + logIds.size()
+                + " commit logs " + TimeUnit.NANOSECONDS.toMillis(end - loaded) + " ms)");
+        return tree;
+    }
+
+    /**
+     * Method to look up the latest record of a key
+     *
+     * @param key the key to be looked up
+     * @return the record (possibly a tombstone), or null if the tree holds no record of the key
+     * @throws IOException if a table cannot be read
+     */
+    LogRecord get(String key) throws IOException {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            try {
+                return lookup(state, key, bloomStats);
+            } catch (ClosedChannelException e) {
+                // a table was replaced by a compaction, retry against the new state
+            }
+        }
+        throw new IOException("Could not read " + key + " from " + dir);
+    }
+
+    private static LogRecord lookup(State state, String key, BloomStats stats) throws IOException {
+        LogRecord record = state.active.get(key);
+        if (record != null) {
+            return record;
+        }
+        for (MemTable table : state.immutables) {
+            record = table.get(key);
+            if (record != null) {
+                return record;
+            }
+        }
+        for (SSTable table : state.levels.get(0)) {
+            record = table.get(key, stats);
+            if (record != null) {
+                return record;
+            }
+        }
+        for (int level = 1; level < MAX_LEVELS; level++) {
+            SSTable table = floorTable(state.levels.get(level), key);
+            if (table != null) {
+                record = table.get(key, stats);
+                if (record != null) {
+                    return record;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the table of a sorted, non-overlapping level whose range may contain the key
+     */
+    private static SSTable floorTable(List<SSTable> tables, String key) {
+        int low = 0;
+        int high = tables.size() - 1;
+        SSTable floor = null;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (tables.get(mid).firstKey().compareTo(key) <= 0) {
+                floor = tables.get(mid);
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return floor;
+    }
+
+    /**
+     * Method to iterate the live records of a key range in key order. If a compaction deletes a
+     * table under the scan, the scan is re-positioned against the new state after the last key it
+     * returned.
+     *
+     * @param range the key range to be scanned
+     * @return iterator over the records, tombstones and expired records excluded
+     */
+    Iterator<LogRecord> scan(ScanRange range) {
+        return new LookaheadIterator<LogRecord>() {
+            private Iterator<LogRecord> merged = mergedIterator(state, range.seekKey());
+            private String lastKey;
+
+            @Override
+            protected LogRecord computeNext() {
+                for (int attempt = 0; ; attempt++) {
+                    try {
+                        while (merged.hasNext()) {
+                            LogRecord record = merged.next();
+                            if (range.isPastEnd(record.key)) {
+                                return null;
+                            }
+                            if (lastKey != null && record.key.compareTo(lastKey) <= 0) {
+                                continue;
+                            }
+                            lastKey = record.key;
+                            if (!record.isTombstone() && !record.expiredAt(System.currentTimeMillis())
+                                    && range.includes(record.key)) {
+                                return record;
+                            }
+                        }
+                        return null;
+                    } catch (UncheckedIOException e) {
+                        if (!(e.getCause() instanceof ClosedChannelException) || attempt >= MAX_READ_ATTEMPTS) {
+                            throw e;
+                        }
+                        merged = mergedIterator(state, lastKey != null ? lastKey : range.seekKey());
+                    }
+                }
+            }
+        };
+    }
+
+    private static Iterator<LogRecord> mergedIterator(State state, String fromKey) {
+        List<Iterator<LogRecord>> sources = new ArrayList<>();
+        sources.add(state.active.iterator(fromKey));
+        for (MemTable table : state.immutables) {
+            sources.add(table.iterator(fromKey));
+        }
+        for (List<SSTable> level : state.levels) {
+            for (SSTable table : level) {
+                if (table.lastKey().compareTo(fromKey) >= 0) {
+                    sources.add(table.iterator(fromKey));
+                }
+            }
+        }
+        return new MergeIterator(sources);
+    }
+
+    /**
+     * Method to write a key unconditionally
+     *
+     * @return always true
+     */
+    boolean put(LogRecord record, Durability durability) throws IOException {
+        return write(record, WriteMode.ALWAYS, durability);
+    }
+
+    /**
+     * Method to write a key only if it does not exist yet
+     *
+     * @return true if the key was written
+     */
+    boolean putIfAbsent(LogRecord record, Durability durability) throws IOException {
+        return write(record, WriteMode.IF_ABSENT, durability);
+    }
+
+    /**
+     * Method to overwrite a key only if it already exists
+     *
+     * @return true if the key was written
+     */
+    boolean replace(LogRecord record, Durability durability) throws IOException {
+        return write(record, WriteMode.IF_PRESENT, durability);
+    }
+
+    /**
+     * Method to delete a key by writing a tombstone for it
+     *
+     * @param key        the key to be deleted
+     * @param durability when the deletion may be acknowledged
+     * @return true if the key existed
+     */
+    boolean delete(String key, Durability durability) throws IOException {
+        return write(new LogRecord(key, LogRecord.FLAG_TOMBSTONE, 0, null), WriteMode.IF_PRESENT, durability);
+    }
+
+    private boolean write(LogRecord record, WriteMode mode, Durability durability) throws IOException {
+        MemTable active;
+        synchronized (writeLock) {
+            if (mode != WriteMode.ALWAYS) {
+                LogRecord current = get(record.key);
+                boolean exists = current != null && !current.isTombstone()
+                        && !current.expiredAt(System.currentTimeMillis());
+                if (exists == (mode == WriteMode.IF_ABSENT)) {
+                    return false;
+                }
+            }
+            active = state.active;
+            active.put(record);
+            if (active.bytes() >= memtableSize) {
+                freeze();
+            }
+        }
+        // sync outside the lock, so that writers arriving meanwhile join the same group commit
+        committer.commit(active, durability);
+        return true;
+    }
+
+    /**
+     * Replaces the full memtable with an empty one and schedules its flush.
+     * Must be called while holding writeLock.
+     */
+    private void freeze() throws IOException {
+        MemTable frozen;
+        synchronized (stateLock) {
+            State current = state;
+            frozen = current.active;
+            List<MemTable> immutables = new ArrayList<>();
+            immutables.add(frozen);
+            immutables.addAll(current.immutables);
+            state = new State(MemTable.create(dir, nextId++), immutables, current.levels);
+        }
+        flusher.execute(() -> {
+            try {
+                flush(frozen);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Writes a frozen memtable into a new level 0 table and drops its commit log
+     */
+    private void flush(MemTable memTable) throws IOException {
+        SSTable table = null;
+        if (!memTable.isEmpty()) {
+            long id = allocateId();
+            SSTable.Writer writer = new SSTable.Writer(new File(dir, LogSegment.fileName(id, SSTable.SUFFIX)), id, bloomFpp);
+            try {
+                Iterator<LogRecord> records = memTable.iterator(null);
+                while (records.hasNext()) {
+                    writer.add(records.next());
+                }
+                table = writer.finish();
+            } catch (IOException e) {
+                writer.abort();
+                throw e;
+            }
+        }
+        synchronized (stateLock) {
+            State current = state;
+            List<MemTable> immutables = new ArrayList<>(current.immutables);
+            immutables.remove(memTable);
+            List<List<SSTable>> levels = copyLevels(current.levels);
+            if (table != null) {
+                levels.get(0).add(0, table);
+            }
+            state = new State(current.active, immutables, levels);
+            writeManifest(state);
+        }
+        memTable.deleteLog();
+        scheduleCompaction();
+    }
+
+    private void scheduleCompaction() {
+        if (compacting.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    while (compactOnce()) {
+                        // keep going while some level is over its budget
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    e.printStackTrace();
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs a single compaction step, if any level needs one
+     *
+     * @return true if a compaction was performed
+     */
+    private boolean compactOnce() throws IOException {
+        State current = state;
+        int level = -1;
+        List<SSTable> upper = null;
+        if (current.levels.get(0).size() >= LEVEL_ZERO_TABLES) {
+            level = 0;
+            upper = new ArrayList<>(current.levels.get(0));
+        } else {
+            for (int i = 1; i < MAX_LEVELS - 1 && upper == null; i++) {
+                List<SSTable> tables = current.levels.get(i);
+                if (levelBytes(tables) > maxLevelBytes(i)) {
+                    level = i;
+                    upper = Collections.singletonList(pickTable(tables, compactPointers[i]));
+                }
+            }
+        }
+        if (upper == null) {
+            return false;
+        }
+
+        String first = null;
+        String last = null;
+        for (SSTable table : upper) {
+            first = first == null || table.firstKey().compareTo(first) < 0 ? table.firstKey() : first;
+            last = last == null || table.lastKey().compareTo(last) > 0 ? table.lastKey() : last;
+        }
+        List<SSTable> lower = new ArrayList<>();
+        for (SSTable table : current.levels.get(level + 1)) {
+            if (table.overlaps(first, last)) {
+                lower.add(table);
+            }
+        }
+        boolean bottom = true;
+        for (int i = level + 2; i < MAX_LEVELS; i++) {
+            bottom &= current.levels.get(i).isEmpty();
+        }
+
+        // upper tables are newer than lower ones, and level 0 is already ordered newest first
+        List<Iterator<LogRecord>> sources = new ArrayList<>();
+        for (SSTable table : upper) {
+            sources.add(table.iterator(null));
+        }
+        for (SSTable table : lower) {
+            sources.add(table.iterator(null));
+        }
+        long now = System.currentTimeMillis();
+        List<SSTable> outputs = new ArrayList<>();
+        SSTable.Writer writer = null;
+        try {
+            MergeIterator merged = new MergeIterator(sources);
+            while (merged.hasNext()) {
+                LogRecord record = merged.next();
+                if (!record.isTombstone() && record.expiredAt(now)) {
+                    record = new LogRecord(record.key, LogRecord.FLAG_TOMBSTONE, 0, null);
+                }
+                if (bottom && record.isTombstone()) {
+                    continue;
+                }
+                if (writer == null) {
+                    long id = allocateId();
+                    writer = new SSTable.Writer(new File(dir, LogSegment.fileName(id, SSTable.SUFFIX)), id, bloomFpp);
+                }
+                writer.add(record);
+                if (writer.size() >= tableSize) {
+                    outputs.add(writer.finish());
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                SSTable table = writer.finish();
+                writer = null;
+                if (table != null) {
+                    outputs.add(table);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            if (writer != null) {
+                writer.abort();
+            }
+            for (SSTable table : outputs) {
+                table.delete();
+            }
+            throw e;
+        }
+
+        synchronized (stateLock) {
+            State latest = state;
+            List<List<SSTable>> levels = copyLevels(latest.levels);
+            levels.get(level).removeAll(upper);
+            levels.get(level + 1).removeAll(lower);
+            levels.get(level + 1).addAll(outputs);
+            levels.get(level + 1).sort(Comparator.comparing(SSTable::firstKey));
+            state = new State(latest.active, latest.immutables, levels);
+            writeManifest(state);
+        }
+        for (SSTable table : upper) {
+            table.delete();
+        }
+        for (SSTable table : lower) {
+            table.delete();
+        }
+        if (level > 0) {
+            compactPointers[level] = last;
+        }
+        return true;
+    }
+
+    private static SSTable pickTable(List<SSTable> tables, String pointer) {
+        if (pointer != null) {
+            for (SSTable table : tables) {
+                if (table.firstKey().compareTo(pointer) > 0) {
+                    return table;
+                }
+            }
+        }
+        return tables.get(0);
+    }
+
+    private long maxLevelBytes(int level) {
+        long bytes = levelBaseSize;
+        for (int i = 1; i < level; i++) {
+            bytes *= LEVEL_MULTIPLIER;
+        }
+        return bytes;
+    }
+
+    private static long levelBytes(List<SSTable> tables) {
+        long bytes = 0;
+        for (SSTable table : tables) {
+            bytes += table.size();
+        }
+        return bytes;
+    }
+
+    private long allocateId() {
+        synchronized (stateLock) {
+            return nextId++;
+        }
+    }
+
+    /**
+     * Records the live tables of every level. Must be called while holding stateLock.
+     */
+    private void writeManifest(State state) throws IOException {
+        File tmp = new File(dir, MANIFEST + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+            writer.write("next " + nextId + "\n");
+            for (int level = 0; level < MAX_LEVELS; level++) {
+                for (SSTable table : state.levels.get(level)) {
+                    writer.write(level + " " + table.getId() + "\n");
+                }
+            }
+            writer.flush();
+            stream.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(dir, MANIFEST).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static List<List<SSTable>> emptyLevels() {
+        List<List<SSTable>> levels = new ArrayList<>();
+        for (int level = 0; level < MAX_LEVELS; level++) {
+            levels.add(new ArrayList<>());
+        }
+        return levels;
+    }
+
+    private static List<List<SSTable>> copyLevels(List<List<SSTable>> levels) {
+        List<List<SSTable>> copy = new ArrayList<>();
+        for (List<SSTable> level : levels) {
+            copy.add(new ArrayList<>(level));
+        }
+        return copy;
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * Method to force the commit logs of every memtable to the storage device. Tables are synced as
+     * they are written, so the memtables that are not flushed yet are all there is to sync
+     *
+     * @throws IOException if the sync fails
+     */
+    void sync() throws IOException {
+        State current = state;
+        List<MemTable> memTables = new ArrayList<>(current.immutables);
+        memTables.add(current.active);
+        for (MemTable memTable : memTables) {
+            try {
+                memTable.sync();
+            } catch (ClosedChannelException e) {
+                // flushed meanwhile into a synced table
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            State current = state;
+            current.active.close();
+            for (MemTable table : current.immutables) {
+                table.close();
+            }
+            for (List<SSTable> level : current.levels) {
+                for (SSTable table : level) {
+                    table.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Immutable snapshot of the memtables and tables of the tree. Readers work against the snapshot
+     * they started with; flushes and compactions publish a new one.
+     */
+    private static class State {
+        private final MemTable active;
+        private final List<MemTable> immutables;
+        private final List<List<SSTable>> levels;
+
+        State(MemTable active, List<MemTable> immutables, List<List<SSTable>> levels) {
+            this.active = active;
+            this.immutables = immutables;
+            this.levels = levels;
+        }
+    }
+}
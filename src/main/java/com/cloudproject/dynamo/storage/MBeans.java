@@ -0,0 +1,51 @@
+package com.cloudproject.dynamo.storage;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registration of the storage counters with the platform MBean server
+ */
+class MBeans {
+
+    private MBeans() {
+    }
+
+    /**
+     * Method to publish an MBean, replacing one left behind under the same name
+     *
+     * @param mbean the MBean
+     * @param name  the object name to publish it under
+     */
+    static void register(Object mbean, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to withdraw an MBean
+     *
+     * @param name the object name it was published under
+     */
+    static void unregister(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.config.StorageConfig;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read-only memory mapping of a data file that is only ever appended to (a {@link LogSegment}) or
+ * never changes at all (an {@link SSTable}). A read inside the mapped region is a bounds-checked
+ * slice of the mapping, with no system call and no copy beyond the one made by the decoder; reads
+ * past it fall back to a positioned read of the channel.
+ * <p>
+ * The mapping is grown by remapping once the file has grown by a sizable step past it, so a file
+ * that is still being appended to is not remapped on every write. The total size of all the
+ * mappings of the node is capped ({@link StorageConfig#getMappedSize()}); files that do not fit
+ * are read with positioned reads. A mapping is released eagerly when it is replaced or the file is
+ * closed (e.g. deleted by a merge or compaction) rather than whenever the garbage collector gets to
+ * it. Slices handed to a reader are only valid while the reader runs, which the read lock ensures.
+ * </p>
+ */
+class MappedFile implements Closeable {
+
+    private static final long REMAP_STEP = 1024 * 1024;
+    private static final AtomicLong mappedBytes = new AtomicLong();
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // mappings are left to the garbage collector
+            System.out.println("[Storage] Cannot unmap files eagerly: " + e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final FileChannel channel;
+    private final ReentrantReadWriteLock lock;
+    private volatile MappedByteBuffer mapping;
+    private boolean closed;
+
+    /**
+     * @param channel the channel of the file; it stays owned (and is closed) by the caller
+     */
+    MappedFile(FileChannel channel) {
+        this.channel = channel;
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Method to read a region of the file
+     *
+     * @param offset   the offset of the region
+     * @param length   the length of the region
+     * @param fileSize the number of bytes of the file that may be read (written and not truncated)
+     * @param reader   decodes the region; the buffer it is handed must not be used once it returns
+     * @param <T>      type of the decoded region
+     * @return the decoded region
+     * @throws IOException if the read fails, or the file was closed
+     */
+    <T> T read(long offset, int length, long fileSize, Reader<T> reader) throws IOException {
+        MappedByteBuffer current = mapping;
+        if (current == null || offset + length > current.capacity()) {
+            remap(offset + length, fileSize);
+        }
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            current = mapping;
+            if (current != null && offset + length <= current.capacity()) {
+                ByteBuffer region = current.duplicate();
+                region.limit((int) (offset + length));
+                region.position((int) offset);
+                return reader.read(region.slice());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return reader.read(readFully(channel, offset, length));
+    }
+
+    /**
+     * Maps the file up to its current size, if the region being read is past the mapping, the file
+     * has grown enough since it was last mapped and the mapping fits within the cap
+     */
+    private void remap(long needed, long fileSize) {
+        lock.writeLock().lock();
+        try {
+            long current = mapping == null ? 0 : mapping.capacity();
+            if (closed || needed <= current || fileSize > Integer.MAX_VALUE) {
+                return;
+            }
+            if (current > 0 && fileSize - current < Math.max(REMAP_STEP, current / 8)) {
+                // tail reads go to the channel until the file has grown enough to be worth a remap
+                return;
+            }
+            if (!reserve(fileSize - current)) {
+                return;
+            }
+            MappedByteBuffer fresh;
+            try {
+                fresh = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            } catch (IOException e) {
+                mappedBytes.addAndGet(current - fileSize);
+                e.printStackTrace();
+                return;
+            }
+            unmap(mapping);
+            mapping = fresh;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static boolean reserve(long bytes) {
+        long cap = StorageConfig.getMappedSize();
+        while (true) {
+            long mapped = mappedBytes.get();
+            if (mapped + bytes > cap) {
+                return false;
+            }
+            if (mappedBytes.compareAndSet(mapped, mapped + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Method to drop the mapping, e.g. before the file is truncated. The file is mapped again by
+     * the next read
+     */
+    void reset() {
+        lock.writeLock().lock();
+        try {
+            release();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method to return the total size of the mappings of the node
+     *
+     * @return mapped bytes
+     */
+    static long mappedBytes() {
+        return mappedBytes.get();
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            release();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unmaps the current mapping and returns its size to the cap. Must be called while holding
+     * the write lock
+     */
+    private void release() {
+        if (mapping != null) {
+            mappedBytes.addAndGet(-mapping.capacity());
+            unmap(mapping);
+            mapping = null;
+        }
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null || INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to read a region of a channel into a heap buffer with positioned reads
+     *
+     * @param channel  the channel
+     * @param position the offset of the region
+     * @param length   the length of the region
+     * @return buffer holding the region, positioned at 0
+     * @throws IOException if the read fails or the channel ends before the region does
+     */
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Method to copy a region out of a (possibly mapped) buffer, for callers that keep it
+     *
+     * @param buffer the region
+     * @return heap buffer holding a copy of the region, positioned at 0
+     */
+    static ByteBuffer copy(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return buffer;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer);
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Decodes a region of the file
+     *
+     * @param <T> type of the decoded region
+     */
+    interface Reader<T> {
+        T read(ByteBuffer buffer) throws IOException;
+    }
+}
@@ -0,0 +1,165 @@
+package com.cloudproject.dynamo.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sorted in-memory table of the most recent writes of an {@link LsmStore} bucket. Every write is
+ * first appended to the commit log of the table, so that the table can be rebuilt after a crash
+ * until it has been flushed to an {@link SSTable}.
+ */
+class MemTable implements Closeable, Syncable {
+
+    static final String LOG_SUFFIX = ".log";
+
+    private final long id;
+    private final File logFile;
+    private final FileChannel log;
+    private final ConcurrentSkipListMap<String, LogRecord> entries;
+    private final AtomicLong bytes;
+
+    private MemTable(long id, File logFile) throws IOException {
+        this.id = id;
+        this.logFile = logFile;
+        this.log = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.entries = new ConcurrentSkipListMap<>();
+        this.bytes = new AtomicLong();
+    }
+
+    /**
+     * Method to create an empty table with a fresh commit log
+     *
+     * @param dir the bucket directory
+     * @param id  the id of the table
+     * @return the new table
+     * @throws IOException if the commit log cannot be created
+     */
+    static MemTable create(File dir, long id) throws IOException {
+        return new MemTable(id, new File(dir, LogSegment.fileName(id, LOG_SUFFIX)));
+    }
+
+    /**
+     * Method to rebuild a table from an existing commit log, cutting off a torn tail
+     *
+     * @param logFile the commit log
+     * @param id      the id of the table
+     * @return the rebuilt table
+     * @throws IOException if the commit log cannot be read
+     */
+    static MemTable recover(File logFile, long id) throws IOException {
+        MemTable table = new MemTable(id, logFile);
+        long size = table.log.size();
+        long position = 0;
+        while (position + LogRecord.HEADER_SIZE <= size) {
+            ByteBuffer header = ByteBuffer.allocate(LogRecord.HEADER_SIZE);
+            table.log.read(header, position);
+            header.flip();
+            int length = LogRecord.encodedLength(header);
+            if (length < 0 || position + length > size) {
+                break;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            table.log.read(buffer, position);
+            buffer.flip();
+            LogRecord record = LogRecord.decode(buffer);
+            if (record == null) {
+                break;
+            }
+            table.apply(record, length);
+            position += length;
+        }
+        if (position < size) {
+            System.out.println("[Storage] Truncating torn tail of " + logFile + " at " + position);
+            table.log.truncate(position);
+        }
+        return table;
+    }
+
+    /**
+     * Method to log and apply a write. Callers serialize writes to a table.
+     *
+     * @param record the record to be written
+     * @throws IOException if the commit log cannot be written
+     */
+    void put(LogRecord record) throws IOException {
+        ByteBuffer encoded = record.encode();
+        int length = encoded.remaining();
+        long position = log.size();
+        while (encoded.hasRemaining()) {
+            position += log.write(encoded, position);
+        }
+        apply(record, length);
+    }
+
+    private void apply(LogRecord record, int length) {
+        entries.put(record.key, record);
+        bytes.addAndGet(length);
+    }
+
+    /**
+     * Method to look up the latest record of a key
+     *
+     * @param key the key to be looked up
+     * @return the record (possibly a tombstone), or null if the table holds no record of the key
+     */
+    LogRecord get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Method to iterate the records of the table in key order
+     *
+     * @param fromKey first key to be returned (inclusive), or null to start at the first record
+     * @return iterator over the records
+     */
+    Iterator<LogRecord> iterator(String fromKey) {
+        return (fromKey == null ? entries : entries.tailMap(fromKey, true)).values().iterator();
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /**
+     * Method to return the number of bytes written to the table
+     *
+     * @return approximate size of the table
+     */
+    long bytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        log.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    /**
+     * Method to close the table and remove its commit log, once it is safely flushed
+     */
+    void deleteLog() {
+        try {
+            close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        logFile.delete();
+    }
+}
@@ -0,0 +1,198 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.config.StorageConfig;
+import com.cloudproject.dynamo.models.Durability;
+import com.cloudproject.dynamo.models.ObjectIOModel;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class MemoryStore. Storage engine that keeps every bucket in a concurrent sorted map on the heap.
+ * Nothing is written to disk, so the contents of the node are lost when it stops and the requested
+ * durability of a write is ignored. Useful for cache-tier buckets and for benchmarking the network
+ * and quorum layers without filesystem noise. Records whose time to live has run out are treated as
+ * absent, and a background sweeper removes them, examining at most
+ * {@link StorageConfig#getExpirySweepRate()} records per second.
+ */
+public class MemoryStore implements StorageEngine {
+
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, ObjectIOModel>> buckets;
+    private final ScheduledExecutorService sweeper;
+    // position of the sweeper, only used by its thread
+    private final Deque<String> sweepBuckets;
+    private String sweepBucket;
+    private String sweepKey;
+
+    public MemoryStore() {
+        this.buckets = new ConcurrentHashMap<>();
+        this.sweepBuckets = new ArrayDeque<>();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-ttl-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (StorageConfig.getExpirySweepRate() > 0) {
+            this.sweeper.scheduleWithFixedDelay(this::sweepExpired, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public boolean createBucket(String bucket) {
+        return buckets.putIfAbsent(bucket, new ConcurrentSkipListMap<>()) == null;
+    }
+
+    @Override
+    public boolean dropBucket(String bucket) {
+        return buckets.remove(bucket) != null;
+    }
+
+    @Override
+    public ObjectIOModel get(String bucket, String key) {
+        Map<String, ObjectIOModel> records = buckets.get(bucket);
+        ObjectIOModel ioModel = records == null ? null : records.get(key);
+        return ioModel == null || ioModel.expiredAt(System.currentTimeMillis()) ? null : copy(ioModel);
+    }
+
+    @Override
+    public boolean put(String bucket, String key, ObjectIOModel ioModel, Durability durability) {
+        Map<String, ObjectIOModel> records = buckets.get(bucket);
+        if (records == null) {
+            return false;
+        }
+        records.put(key, copy(ioModel));
+        return true;
+    }
+
+    @Override
+    public boolean putIfAbsent(String bucket, String key, ObjectIOModel ioModel, Durability durability) {
+        Map<String, ObjectIOModel> records = buckets.get(bucket);
+        if (records == null) {
+            return false;
+        }
+        ObjectIOModel record = copy(ioModel);
+        ObjectIOModel previous = records.putIfAbsent(key, record);
+        while (previous != null && previous.expiredAt(System.currentTimeMillis())) {
+            if (records.replace(key, previous, record)) {
+                return true;
+            }
+            previous = records.putIfAbsent(key, record);
+        }
+        return previous == null;
+    }
+
+    @Override
+    public boolean replace(String bucket, String key, ObjectIOModel ioModel, Durability durability) {
+        Map<String, ObjectIOModel> records = buckets.get(bucket);
+        if (records == null) {
+            return false;
+        }
+        ObjectIOModel record = copy(ioModel);
+        ObjectIOModel current = records.get(key);
+        while (current != null && !current.expiredAt(System.currentTimeMillis())) {
+            if (records.replace(key, current, record)) {
+                return true;
+            }
+            current = records.get(key);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean delete(String bucket, String key, Durability durability) {
+        Map<String, ObjectIOModel> records = buckets.get(bucket);
+        ObjectIOModel removed = records == null ? null : records.remove(key);
+        return removed != null && !removed.expiredAt(System.currentTimeMillis());
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, ObjectIOModel>> scan(String bucket, String prefix, String startAfter) {
+        ConcurrentSkipListMap<String, ObjectIOModel> records = buckets.get(bucket);
+        if (records == null) {
+            return null;
+        }
+        ScanRange range = new ScanRange(prefix, startAfter);
+        ConcurrentNavigableMap<String, ObjectIOModel> tail = records.tailMap(range.seekKey(), true);
+        Iterator<Map.Entry<String, ObjectIOModel>> entries = tail.entrySet().iterator();
+        return new LookaheadIterator<Map.Entry<String, ObjectIOModel>>() {
+            @Override
+            protected Map.Entry<String, ObjectIOModel> computeNext() {
+                while (entries.hasNext()) {
+                    Map.Entry<String, ObjectIOModel> entry = entries.next();
+                    if (range.isPastEnd(entry.getKey())) {
+                        return null;
+                    }
+                    if (range.includes(entry.getKey()) && !entry.getValue().expiredAt(System.currentTimeMillis())) {
+                        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), copy(entry.getValue()));
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Removes expired records, examining at most the configured number of records and resuming where
+     * the previous run stopped. Every bucket is visited at most once per run
+     */
+    private void sweepExpired() {
+        int budget = StorageConfig.getExpirySweepRate();
+        long now = System.currentTimeMillis();
+        int swept = 0;
+        boolean listed = false;
+        while (budget > 0) {
+            if (sweepBucket == null) {
+                if (sweepBuckets.isEmpty()) {
+                    if (listed) {
+                        break;
+                    }
+                    sweepBuckets.addAll(buckets.keySet());
+                    listed = true;
+                    if (sweepBuckets.isEmpty()) {
+                        break;
+                    }
+                }
+                sweepBucket = sweepBuckets.poll();
+                sweepKey = null;
+            }
+            ConcurrentSkipListMap<String, ObjectIOModel> records = buckets.get(sweepBucket);
+            if (records != null) {
+                Map<String, ObjectIOModel> remaining = sweepKey == null ? records : records.tailMap(sweepKey, false);
+                Iterator<Map.Entry<String, ObjectIOModel>> entries = remaining.entrySet().iterator();
+                while (budget > 0 && entries.hasNext()) {
+                    Map.Entry<String, ObjectIOModel> entry = entries.next();
+                    budget--;
+                    sweepKey = entry.getKey();
+                    if (entry.getValue().expiredAt(now) && records.remove(entry.getKey(), entry.getValue())) {
+                        swept++;
+                    }
+                }
+            }
+            if (budget > 0) {
+                // reached the end of the bucket
+                sweepBucket = null;
+            }
+        }
+        if (swept > 0) {
+            System.out.println("[Storage] Swept " + swept + " expired records");
+        }
+    }
+
+    /**
+     * Stored records are private copies, since callers modify the {@link ObjectIOModel} they get back
+     */
+    private static ObjectIOModel copy(ObjectIOModel ioModel) {
+        return ioModel == null ? null : new ObjectIOModel(ioModel.getVersion(), ioModel.getValue(), ioModel.getExpiresAt());
+    }
+
+    @Override
+    public void sync(String bucket) {
+        // nothing is ever written to disk
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        buckets.clear();
+    }
+}
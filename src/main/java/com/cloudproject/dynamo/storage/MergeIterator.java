@@ -0,0 +1,74 @@
+package com.cloudproject.dynamo.storage;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges several key-ordered record iterators into a single key-ordered iterator. When more than
+ * one source holds a record of the same key, only the record of the newest source (the one with the
+ * lowest index in the source list) is returned.
+ */
+class MergeIterator implements Iterator<LogRecord> {
+
+    private final PriorityQueue<Head> heads;
+
+    /**
+     * @param sources key-ordered iterators, newest first
+     */
+    MergeIterator(List<Iterator<LogRecord>> sources) {
+        this.heads = new PriorityQueue<>();
+        for (int i = 0; i < sources.size(); i++) {
+            Iterator<LogRecord> source = sources.get(i);
+            if (source.hasNext()) {
+                heads.add(new Head(source, i, source.next()));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public LogRecord next() {
+        Head head = heads.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        LogRecord record = head.record;
+        advance(head);
+        // skip older records of the same key
+        while (!heads.isEmpty() && heads.peek().record.key.equals(record.key)) {
+            advance(heads.poll());
+        }
+        return record;
+    }
+
+    private void advance(Head head) {
+        if (head.source.hasNext()) {
+            head.record = head.source.next();
+            heads.add(head);
+        }
+    }
+
+    private static class Head implements Comparable<Head> {
+        private final Iterator<LogRecord> source;
+        private final int priority;
+        private LogRecord record;
+
+        Head(Iterator<LogRecord> source, int priority, LogRecord record) {
+            this.source = source;
+            this.priority = priority;
+            this.record = record;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            int cmp = record.key.compareTo(other.record.key);
+            return cmp != 0 ? cmp : Integer.compare(priority, other.priority);
+        }
+    }
+}
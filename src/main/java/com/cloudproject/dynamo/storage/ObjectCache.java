@@ -0,0 +1,358 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.models.ObjectIOModel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class ObjectCache. Node-local cache of the hottest records, kept in front of the storage engine
+ * and bounded by the (estimated) memory its entries hold. Eviction follows W-TinyLFU:
+ * 1. New entries enter a small LRU admission window (1% of the bound), so bursts of fresh keys do
+ *    not flush the cache.
+ * 2. Entries leaving the window compete with the coldest entry of the main area, and only the one
+ *    that was accessed more often recently (as estimated by a {@link FrequencySketch}) is kept.
+ * 3. The main area is a segmented LRU: entries hit again while on probation are promoted to the
+ *    protected segment (80% of the main area), which only ever demotes back to probation.
+ * Every record is copied on the way in and out, since callers modify the records they get back.
+ */
+public class ObjectCache implements ObjectCacheMBean {
+
+    private static final String MBEAN_NAME = "com.cloudproject.dynamo:type=ObjectCache";
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int EXPECTED_ENTRY_SIZE = 512;
+    private static final int STRIPES = 1024;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long maxBytes;
+    private final long windowMax;
+    private final long protectedMax;
+    private final HashMap<String, Node> entries;
+    private final AccessOrder[] regions;
+    private final long[] regionBytes;
+    private final FrequencySketch sketch;
+    private final long[] stamps;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes memory bound of the cache in bytes, 0 disables caching
+     */
+    public ObjectCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.windowMax = Math.max(1, this.maxBytes / 100);
+        this.protectedMax = (this.maxBytes - windowMax) * 80 / 100;
+        this.entries = new HashMap<>();
+        this.regions = new AccessOrder[]{new AccessOrder(), new AccessOrder(), new AccessOrder()};
+        this.regionBytes = new long[3];
+        this.sketch = new FrequencySketch((int) Math.min(1 << 24, this.maxBytes / EXPECTED_ENTRY_SIZE));
+        this.stamps = new long[STRIPES];
+    }
+
+    /**
+     * Method to look up a record
+     *
+     * @param bucket name of the bucket
+     * @param key    key of the record
+     * @return a copy of the cached record, or null on a miss. A record whose time to live has run
+     * out is dropped and counted as a miss
+     */
+    public synchronized ObjectIOModel get(String bucket, String key) {
+        String id = id(bucket, key);
+        sketch.increment(id.hashCode());
+        Node node = entries.get(id);
+        if (node != null && node.value.expiredAt(System.currentTimeMillis())) {
+            remove(node);
+            node = null;
+        }
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        onHit(node);
+        return copy(node.value);
+    }
+
+    /**
+     * Method to take a stamp before reading a record from the storage engine on a miss. The stamp
+     * changes whenever the record is invalidated, which lets {@link #put} drop a read that raced
+     * with a write instead of caching the stale record
+     *
+     * @param bucket name of the bucket
+     * @param key    key of the record
+     * @return the current stamp of the record
+     */
+    public synchronized long stamp(String bucket, String key) {
+        return stamps[stripe(id(bucket, key))];
+    }
+
+    /**
+     * Method to cache a record read from the storage engine
+     *
+     * @param bucket  name of the bucket
+     * @param key     key of the record
+     * @param ioModel the record
+     * @param stamp   the stamp taken before the record was read
+     */
+    public synchronized void put(String bucket, String key, ObjectIOModel ioModel, long stamp) {
+        String id = id(bucket, key);
+        if (stamps[stripe(id)] != stamp) {
+            return;
+        }
+        long weight = weight(id, ioModel);
+        Node node = entries.get(id);
+        if (weight > maxBytes - windowMax) {
+            if (node != null) {
+                remove(node);
+            }
+            return;
+        }
+        if (node != null) {
+            regionBytes[node.region] += weight - node.weight;
+            node.weight = weight;
+            node.value = copy(ioModel);
+            onHit(node);
+        } else {
+            node = new Node(bucket, id, copy(ioModel), weight);
+            entries.put(id, node);
+            regions[WINDOW].addLast(node);
+            regionBytes[WINDOW] += weight;
+        }
+        evict();
+    }
+
+    /**
+     * Method to drop a record from the cache, after it was written or deleted
+     *
+     * @param bucket name of the bucket
+     * @param key    key of the record
+     */
+    public synchronized void invalidate(String bucket, String key) {
+        String id = id(bucket, key);
+        stamps[stripe(id)]++;
+        Node node = entries.get(id);
+        if (node != null) {
+            remove(node);
+        }
+    }
+
+    /**
+     * Method to drop every record of a bucket from the cache, after the bucket was deleted
+     *
+     * @param bucket name of the bucket
+     */
+    public synchronized void invalidateBucket(String bucket) {
+        for (int i = 0; i < STRIPES; i++) {
+            stamps[i]++;
+        }
+        List<Node> dropped = new ArrayList<>();
+        for (Node node : entries.values()) {
+            if (node.bucket.equals(bucket)) {
+                dropped.add(node);
+            }
+        }
+        for (Node node : dropped) {
+            remove(node);
+        }
+    }
+
+    private void onHit(Node node) {
+        switch (node.region) {
+            case WINDOW:
+            case PROTECTED:
+                regions[node.region].moveToEnd(node);
+                break;
+            case PROBATION:
+                move(node, PROTECTED);
+                while (regionBytes[PROTECTED] > protectedMax) {
+                    move(regions[PROTECTED].first(), PROBATION);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Moves the entries overflowing the window to probation, then evicts until the cache is within
+     * its bound again, keeping whichever of the newest candidate and the coldest victim is more
+     * frequently accessed
+     */
+    private void evict() {
+        while (regionBytes[WINDOW] > windowMax) {
+            move(regions[WINDOW].first(), PROBATION);
+        }
+        while (regionBytes[WINDOW] + regionBytes[PROBATION] + regionBytes[PROTECTED] > maxBytes) {
+            Node victim = regions[PROBATION].first();
+            Node candidate = regions[PROBATION].last();
+            if (victim == null) {
+                victim = regions[PROTECTED].first() != null ? regions[PROTECTED].first() : regions[WINDOW].first();
+                candidate = victim;
+            }
+            if (candidate != victim
+                    && sketch.frequency(candidate.id.hashCode()) <= sketch.frequency(victim.id.hashCode())) {
+                victim = candidate;
+            }
+            remove(victim);
+            evictions++;
+        }
+    }
+
+    private void move(Node node, int region) {
+        regions[node.region].remove(node);
+        regionBytes[node.region] -= node.weight;
+        node.region = region;
+        regions[region].addLast(node);
+        regionBytes[region] += node.weight;
+    }
+
+    private void remove(Node node) {
+        entries.remove(node.id);
+        regions[node.region].remove(node);
+        regionBytes[node.region] -= node.weight;
+    }
+
+    private static String id(String bucket, String key) {
+        return bucket + '\0' + key;
+    }
+
+    private static int stripe(String id) {
+        return (id.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    private static long weight(String id, ObjectIOModel ioModel) {
+        int valueLength = ioModel.getValue() == null ? 0 : ioModel.getValue().length();
+        return ENTRY_OVERHEAD + 2L * (id.length() + valueLength);
+    }
+
+    private static ObjectIOModel copy(ObjectIOModel ioModel) {
+        return new ObjectIOModel(ioModel.getVersion(), ioModel.getValue(), ioModel.getExpiresAt());
+    }
+
+    /**
+     * Method to publish the counters of the cache over JMX
+     */
+    public void registerMBean() {
+        MBeans.register(this, MBEAN_NAME);
+    }
+
+    /**
+     * Method to withdraw the counters of the cache from JMX
+     */
+    public void unregisterMBean() {
+        MBeans.unregister(MBEAN_NAME);
+    }
+
+    @Override
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    @Override
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long getBytes() {
+        return regionBytes[WINDOW] + regionBytes[PROBATION] + regionBytes[PROTECTED];
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hits=" + hits + " misses=" + misses + " evictions=" + evictions + " entries=" + entries.size()
+                + " bytes=" + getBytes() + "/" + maxBytes;
+    }
+
+    private static final class Node {
+        final String bucket;
+        final String id;
+        ObjectIOModel value;
+        long weight;
+        int region;
+        Node prev;
+        Node next;
+
+        Node(String bucket, String id, ObjectIOModel value, long weight) {
+            this.bucket = bucket;
+            this.id = id;
+            this.value = value;
+            this.weight = weight;
+            this.region = WINDOW;
+        }
+    }
+
+    /**
+     * Doubly linked list of the entries of a region, from least to most recently used
+     */
+    private static final class AccessOrder {
+        private Node head;
+        private Node tail;
+
+        Node first() {
+            return head;
+        }
+
+        Node last() {
+            return tail;
+        }
+
+        void addLast(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToEnd(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+}
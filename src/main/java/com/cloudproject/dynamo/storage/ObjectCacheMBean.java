@@ -0,0 +1,57 @@
+package com.cloudproject.dynamo.storage;
+
+/**
+ * Management interface of the {@link ObjectCache}, through which its counters can be read over JMX
+ * (for example with jconsole) to size the cache.
+ */
+public interface ObjectCacheMBean {
+
+    /**
+     * Method to return the number of reads served from the cache
+     *
+     * @return number of cache hits
+     */
+    long getHits();
+
+    /**
+     * Method to return the number of reads that had to go to the storage engine
+     *
+     * @return number of cache misses
+     */
+    long getMisses();
+
+    /**
+     * Method to return the number of entries evicted, or refused admission, to stay within the bound
+     *
+     * @return number of evictions
+     */
+    long getEvictions();
+
+    /**
+     * Method to return the fraction of reads served from the cache
+     *
+     * @return hit rate, between 0 and 1
+     */
+    double getHitRate();
+
+    /**
+     * Method to return the number of entries held by the cache
+     *
+     * @return number of entries
+     */
+    int getEntries();
+
+    /**
+     * Method to return the estimated memory held by the entries of the cache
+     *
+     * @return size of the cache in bytes
+     */
+    long getBytes();
+
+    /**
+     * Method to return the memory bound of the cache
+     *
+     * @return maximum size of the cache in bytes
+     */
+    long getMaxBytes();
+}
@@ -0,0 +1,486 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.consistenthash.CityHash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Class OffHeapKeyDir. Key directory of a bucket kept outside the Java heap, so that the heap usage of a node does not
+ * grow with the number of keys it holds and the garbage collector never has to trace them:
+ * 1. The directory is split into shards by the top bits of the 64-bit CityHash fingerprint of the
+ *    key. Every shard is an open-addressing hash table with linear probing in a direct buffer, with
+ *    a lock of its own, and grows by doubling once three quarters full.
+ * 2. A slot holds the fingerprint, the position of the key in the key arena of the shard, the
+ *    segment id and offset of the record packed into one long, its length, version and expiry.
+ *    Fingerprints are compared first, and the stored key is only compared when they are equal.
+ * 3. The key arena is a direct buffer the keys are appended to. Removed keys leave garbage behind,
+ *    which is dropped when the shard is rebuilt: when it grows, or when half of its arena is garbage.
+ * Lookups encode the key into a per-thread buffer, so probing the table allocates nothing; only the
+ * returned {@link KeyDirEntry} is allocated. Removal shifts the following slots back instead of
+ * leaving tombstones, so lookups never probe past removed keys.
+ */
+class OffHeapKeyDir {
+
+    private static final int SHARD_BITS = 6;
+    private static final int SHARDS = 1 << SHARD_BITS;
+    private static final int INITIAL_SLOTS = 16;
+    private static final int INITIAL_ARENA = 512;
+
+    // slot layout
+    private static final int SLOT_SIZE = 48;
+    private static final int FINGERPRINT = 0;
+    private static final int KEY_OFFSET = 8;
+    private static final int KEY_LENGTH = 12;
+    private static final int LOCATION = 16;
+    private static final int VERSION = 24;
+    private static final int EXPIRES_AT = 32;
+    private static final int LENGTH = 40;
+
+    private static final long MAX_PACKED = 0xFFFFFFFFL;
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private final Shard[] shards;
+
+    OffHeapKeyDir() {
+        this.shards = new Shard[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * Method to look up the entry of a key
+     *
+     * @param key the key
+     * @return the entry, or null if the key is not in the directory
+     */
+    KeyDirEntry get(String key) {
+        int length = encode(key);
+        byte[] bytes = SCRATCH.get();
+        long fingerprint = fingerprint(bytes, length);
+        Shard shard = shard(fingerprint);
+        long stamp = shard.lock.readLock();
+        try {
+            int slot = shard.find(fingerprint, bytes, length);
+            return slot < 0 ? null : shard.entry(slot);
+        } finally {
+            shard.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Method to check whether a key is in the directory and has not expired, without allocating
+     *
+     * @param key the key
+     * @param now the current time in milliseconds since the epoch
+     * @return true if the key is live
+     */
+    boolean isLive(String key, long now) {
+        int length = encode(key);
+        byte[] bytes = SCRATCH.get();
+        long fingerprint = fingerprint(bytes, length);
+        Shard shard = shard(fingerprint);
+        long stamp = shard.lock.readLock();
+        try {
+            int slot = shard.find(fingerprint, bytes, length);
+            if (slot < 0) {
+                return false;
+            }
+            long expiresAt = shard.table.getLong(slot * SLOT_SIZE + EXPIRES_AT);
+            return expiresAt == 0 || expiresAt > now;
+        } finally {
+            shard.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Method to point a key at a record
+     *
+     * @return the previous entry of the key, or null if it had none
+     */
+    KeyDirEntry put(String key, KeyDirEntry entry) {
+        checkPackable(entry);
+        int length = encode(key);
+        byte[] bytes = SCRATCH.get();
+        long fingerprint = fingerprint(bytes, length);
+        Shard shard = shard(fingerprint);
+        long stamp = shard.lock.writeLock();
+        try {
+            int slot = shard.find(fingerprint, bytes, length);
+            if (slot >= 0) {
+                KeyDirEntry previous = shard.entry(slot);
+                shard.write(slot, entry);
+                return previous;
+            }
+            shard.insert(fingerprint, bytes, length, entry);
+            return null;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Method to remove a key
+     *
+     * @return the removed entry, or null if the key was not in the directory
+     */
+    KeyDirEntry remove(String key) {
+        return remove(key, null);
+    }
+
+    /**
+     * Method to remove a key only if it still points at the given record
+     *
+     * @param expected the entry the key must point at, or null to remove it whatever it points at
+     * @return the removed entry, or null if nothing was removed
+     */
+    KeyDirEntry remove(String key, KeyDirEntry expected) {
+        int length = encode(key);
+        byte[] bytes = SCRATCH.get();
+        long fingerprint = fingerprint(bytes, length);
+        Shard shard = shard(fingerprint);
+        long stamp = shard.lock.writeLock();
+        try {
+            int slot = shard.find(fingerprint, bytes, length);
+            if (slot < 0 || (expected != null && !shard.matches(slot, expected))) {
+                return null;
+            }
+            KeyDirEntry previous = shard.entry(slot);
+            shard.delete(slot);
+            return previous;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Method to point a key at another record only if it still points at the given one
+     *
+     * @return true if the key was pointed at the new record
+     */
+    boolean replace(String key, KeyDirEntry expected, KeyDirEntry entry) {
+        checkPackable(entry);
+        int length = encode(key);
+        byte[] bytes = SCRATCH.get();
+        long fingerprint = fingerprint(bytes, length);
+        Shard shard = shard(fingerprint);
+        long stamp = shard.lock.writeLock();
+        try {
+            int slot = shard.find(fingerprint, bytes, length);
+            if (slot < 0 || !shard.matches(slot, expected)) {
+                return false;
+            }
+            shard.write(slot, entry);
+            return true;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Method to return the number of keys in the directory
+     *
+     * @return number of keys
+     */
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            long stamp = shard.lock.readLock();
+            size += shard.size;
+            shard.lock.unlockRead(stamp);
+        }
+        return size;
+    }
+
+    /**
+     * Method to visit every key of the directory. A shard is visited as a whole while holding its
+     * lock, so a key is visited exactly once unless it is written meanwhile; the visitor must not
+     * modify the directory
+     *
+     * @param visitor called for every key and its entry
+     * @throws IOException if the visitor fails
+     */
+    void forEach(Visitor visitor) throws IOException {
+        for (Shard shard : shards) {
+            long stamp = shard.lock.readLock();
+            try {
+                for (int slot = 0; slot < shard.capacity; slot++) {
+                    if (shard.table.getLong(slot * SLOT_SIZE + FINGERPRINT) != 0) {
+                        visitor.visit(shard.key(slot), shard.entry(slot));
+                    }
+                }
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Method to remove every key and give the memory of the directory back
+     */
+    void clear() {
+        for (Shard shard : shards) {
+            long stamp = shard.lock.writeLock();
+            shard.reset(INITIAL_SLOTS, INITIAL_ARENA);
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    private Shard shard(long fingerprint) {
+        return shards[(int) (fingerprint >>> (Long.SIZE - SHARD_BITS))];
+    }
+
+    private static void checkPackable(KeyDirEntry entry) {
+        if (entry.segmentId < 0 || entry.segmentId > MAX_PACKED || entry.offset < 0 || entry.offset > MAX_PACKED) {
+            throw new IllegalArgumentException("Segment " + entry.segmentId + " offset " + entry.offset
+                    + " does not fit in the key directory");
+        }
+    }
+
+    private static long fingerprint(byte[] bytes, int length) {
+        long fingerprint = CityHash.cityHash64(bytes, 0, length);
+        // 0 marks an empty slot
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    /**
+     * Encodes a key in UTF-8 into the buffer of the calling thread, exactly like
+     * {@link String#getBytes} with {@link StandardCharsets#UTF_8}
+     *
+     * @return the length of the encoded key
+     */
+    private static int encode(String key) {
+        byte[] bytes = SCRATCH.get();
+        if (bytes.length < key.length() * 3) {
+            bytes = new byte[Math.max(key.length() * 3, bytes.length * 2)];
+            SCRATCH.set(bytes);
+        }
+        int length = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xC0 | (c >> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < key.length()
+                    && Character.isLowSurrogate(key.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, key.charAt(++i));
+                bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced like the JDK encoder does
+                bytes[length++] = (byte) '?';
+            } else {
+                bytes[length++] = (byte) (0xE0 | (c >> 12));
+                bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Visitor of the keys of the directory
+     */
+    interface Visitor {
+        void visit(String key, KeyDirEntry entry) throws IOException;
+    }
+
+    /**
+     * One open-addressing table and its key arena. Every method must be called holding the lock
+     */
+    private static class Shard {
+        private final StampedLock lock = new StampedLock();
+        private ByteBuffer table;
+        private ByteBuffer arena;
+        private int capacity;
+        private int size;
+        private int garbage;
+
+        Shard() {
+            reset(INITIAL_SLOTS, INITIAL_ARENA);
+        }
+
+        void reset(int slots, int arenaSize) {
+            table = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+            arena = ByteBuffer.allocateDirect(arenaSize);
+            capacity = slots;
+            size = 0;
+            garbage = 0;
+        }
+
+        /**
+         * Returns the slot of a key, or -1 if the key is not in the table
+         */
+        int find(long fingerprint, byte[] key, int length) {
+            int mask = capacity - 1;
+            for (int slot = (int) fingerprint & mask; ; slot = (slot + 1) & mask) {
+                int base = slot * SLOT_SIZE;
+                long stored = table.getLong(base + FINGERPRINT);
+                if (stored == 0) {
+                    return -1;
+                }
+                if (stored == fingerprint && table.getInt(base + KEY_LENGTH) == length
+                        && sameKey(table.getInt(base + KEY_OFFSET), key, length)) {
+                    return slot;
+                }
+            }
+        }
+
+        private boolean sameKey(int offset, byte[] key, int length) {
+            for (int i = 0; i < length; i++) {
+                if (arena.get(offset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void insert(long fingerprint, byte[] key, int length, KeyDirEntry entry) {
+            if ((size + 1) * 4L > capacity * 3L) {
+                rebuild(capacity * 2, length);
+            } else if (arena.remaining() < length) {
+                rebuild(capacity, length);
+            }
+            int offset = arena.position();
+            arena.put(key, 0, length);
+            int mask = capacity - 1;
+            int slot = (int) fingerprint & mask;
+            while (table.getLong(slot * SLOT_SIZE + FINGERPRINT) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            int base = slot * SLOT_SIZE;
+            table.putLong(base + FINGERPRINT, fingerprint);
+            table.putInt(base + KEY_OFFSET, offset);
+            table.putInt(base + KEY_LENGTH, length);
+            write(slot, entry);
+            size++;
+        }
+
+        void write(int slot, KeyDirEntry entry) {
+            int base = slot * SLOT_SIZE;
+            table.putLong(base + LOCATION, (entry.segmentId << 32) | entry.offset);
+            table.putLong(base + VERSION, entry.version);
+            table.putLong(base + EXPIRES_AT, entry.expiresAt);
+            table.putInt(base + LENGTH, entry.length);
+        }
+
+        boolean matches(int slot, KeyDirEntry entry) {
+            int base = slot * SLOT_SIZE;
+            return table.getLong(base + LOCATION) == ((entry.segmentId << 32) | entry.offset)
+                    && table.getInt(base + LENGTH) == entry.length
+                    && table.getLong(base + VERSION) == entry.version
+                    && table.getLong(base + EXPIRES_AT) == entry.expiresAt;
+        }
+
+        KeyDirEntry entry(int slot) {
+            int base = slot * SLOT_SIZE;
+            long location = table.getLong(base + LOCATION);
+            return new KeyDirEntry(location >>> 32, location & MAX_PACKED, table.getInt(base + LENGTH),
+                    table.getLong(base + VERSION), table.getLong(base + EXPIRES_AT));
+        }
+
+        String key(int slot) {
+            int base = slot * SLOT_SIZE;
+            byte[] key = new byte[table.getInt(base + KEY_LENGTH)];
+            int offset = table.getInt(base + KEY_OFFSET);
+            for (int i = 0; i < key.length; i++) {
+                key[i] = arena.get(offset + i);
+            }
+            return new String(key, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Empties a slot, shifting back the slots of the same probe sequence that follow it
+         */
+        void delete(int slot) {
+            garbage += table.getInt(slot * SLOT_SIZE + KEY_LENGTH);
+            int mask = capacity - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+                long fingerprint = table.getLong(next * SLOT_SIZE + FINGERPRINT);
+                if (fingerprint == 0) {
+                    break;
+                }
+                int home = (int) fingerprint & mask;
+                // the slot may fill the hole only if its home is not between the hole and itself
+                boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+                if (movable) {
+                    copySlot(next, hole);
+                    hole = next;
+                }
+            }
+            clearSlot(hole);
+            size--;
+            if (garbage > INITIAL_ARENA && garbage * 2 > arena.position()) {
+                rebuild(capacity, 0);
+            }
+        }
+
+        private void copySlot(int from, int to) {
+            for (int i = 0; i < SLOT_SIZE; i += Long.BYTES) {
+                table.putLong(to * SLOT_SIZE + i, table.getLong(from * SLOT_SIZE + i));
+            }
+        }
+
+        private void clearSlot(int slot) {
+            for (int i = 0; i < SLOT_SIZE; i += Long.BYTES) {
+                table.putLong(slot * SLOT_SIZE + i, 0);
+            }
+        }
+
+        /**
+         * Copies the live slots and keys into a new table and arena, leaving the garbage behind
+         *
+         * @param slots number of slots of the new table
+         * @param extra free arena space needed on top of the live keys
+         */
+        private void rebuild(int slots, int extra) {
+            ByteBuffer oldTable = table;
+            ByteBuffer oldArena = arena;
+            int oldCapacity = capacity;
+            long liveBytes = (long) oldArena.position() - garbage;
+            long arenaSize = Math.max(INITIAL_ARENA, (liveBytes + extra) * 2);
+            if (arenaSize > Integer.MAX_VALUE) {
+                arenaSize = Integer.MAX_VALUE;
+                if (liveBytes + extra > arenaSize) {
+                    throw new IllegalStateException("Key directory shard is full");
+                }
+            }
+            table = ByteBuffer.allocateDirect(Math.multiplyExact(slots, SLOT_SIZE));
+            arena = ByteBuffer.allocateDirect((int) arenaSize);
+            capacity = slots;
+            garbage = 0;
+            int mask = slots - 1;
+            for (int old = 0; old < oldCapacity; old++) {
+                int oldBase = old * SLOT_SIZE;
+                long fingerprint = oldTable.getLong(oldBase + FINGERPRINT);
+                if (fingerprint == 0) {
+                    continue;
+                }
+                int keyOffset = oldTable.getInt(oldBase + KEY_OFFSET);
+                int keyLength = oldTable.getInt(oldBase + KEY_LENGTH);
+                int offset = arena.position();
+                ByteBuffer key = oldArena.duplicate();
+                key.limit(keyOffset + keyLength).position(keyOffset);
+                arena.put(key);
+                int slot = (int) fingerprint & mask;
+                while (table.getLong(slot * SLOT_SIZE + FINGERPRINT) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                int base = slot * SLOT_SIZE;
+                for (int i = 0; i < SLOT_SIZE; i += Long.BYTES) {
+                    table.putLong(base + i, oldTable.getLong(oldBase + i));
+                }
+                table.putInt(base + KEY_OFFSET, offset);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.config.StorageConfig;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class Reclaimer. Reclaims the disk space of the buckets dropped from a data directory:
+ * 1. Dropping a bucket only renames its directory into the trash directory of the data directory,
+ *    which hides the bucket at once whatever its size.
+ * 2. A background task then deletes the contents of the trash, at most
+ *    {@link StorageConfig#getReclaimRate()} files per second, so that the deletion of a large bucket
+ *    does not compete with the requests of the node for the disk.
+ * 3. The trash is on disk, so the deletions left over when the node stops resume when it restarts.
+ */
+class Reclaimer implements Closeable {
+
+    static final String TRASH_DIR = ".trash";
+
+    private final File trash;
+    private final ScheduledExecutorService background;
+    // directories being emptied, innermost first, only used by the background thread
+    private final Deque<Frame> frames;
+
+    /**
+     * @param root the data directory whose dropped buckets are reclaimed
+     * @param name name of the background thread
+     */
+    Reclaimer(File root, String name) {
+        this.trash = new File(root, TRASH_DIR);
+        this.frames = new ArrayDeque<>();
+        this.background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        String[] pending = trash.list();
+        if (pending != null && pending.length > 0) {
+            System.out.println("[Storage] Reclaiming " + pending.length + " dropped buckets in " + trash);
+        }
+        this.background.scheduleWithFixedDelay(this::reclaim, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Method to check whether a bucket name is reserved by the reclaimer
+     *
+     * @param bucket name of the bucket
+     * @return true if no bucket may be created with that name
+     */
+    static boolean isReserved(String bucket) {
+        return TRASH_DIR.equals(bucket);
+    }
+
+    /**
+     * Method to drop the directory of a bucket by moving it into the trash
+     *
+     * @param dir directory of the bucket
+     * @return true if the directory was moved, false if it does not exist
+     * @throws IOException if the directory could not be moved
+     */
+    boolean drop(File dir) throws IOException {
+        if (!dir.exists()) {
+            return false;
+        }
+        if (!trash.isDirectory() && !trash.mkdirs()) {
+            throw new IOException("Could not create " + trash);
+        }
+        File target = new File(trash, dir.getName() + "." + UUID.randomUUID());
+        Files.move(dir.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    /**
+     * Deletes up to a second's worth of files from the trash, resuming the walk where the previous
+     * run stopped
+     */
+    private void reclaim() {
+        int budget = StorageConfig.getReclaimRate();
+        int deleted = 0;
+        try {
+            while (deleted < budget) {
+                Frame frame = frames.peek();
+                if (frame == null) {
+                    String[] names = trash.list();
+                    if (names == null || names.length == 0) {
+                        break;
+                    }
+                    frame = new Frame(new File(trash, names[0]));
+                    frames.push(frame);
+                }
+                if (frame.index < frame.names.length) {
+                    File child = new File(frame.dir, frame.names[frame.index++]);
+                    if (child.isDirectory() && !Files.isSymbolicLink(child.toPath())) {
+                        frames.push(new Frame(child));
+                    } else {
+                        Files.deleteIfExists(child.toPath());
+                        deleted++;
+                    }
+                } else if (frame.dir.delete() || !frame.dir.exists()) {
+                    frames.pop();
+                    deleted++;
+                } else {
+                    // written to after it was listed: list it again
+                    frames.pop();
+                    frames.push(new Frame(frame.dir));
+                    if (frames.peek().names.length == 0) {
+                        throw new IOException("Could not delete " + frame.dir);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            frames.clear();
+            e.printStackTrace();
+        }
+        if (deleted > 0) {
+            System.out.println("[Storage] Reclaimed " + deleted + " files of dropped buckets");
+        }
+    }
+
+    @Override
+    public void close() {
+        // let a running pass finish, the next start resumes where it stopped
+        background.shutdown();
+        try {
+            background.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Directory being emptied, with the listing it is walked from
+     */
+    private static class Frame {
+        private final File dir;
+        private final String[] names;
+        private int index;
+
+        Frame(File dir) {
+            String[] names = dir.list();
+            this.dir = dir;
+            this.names = names == null ? new String[0] : names;
+        }
+    }
+}
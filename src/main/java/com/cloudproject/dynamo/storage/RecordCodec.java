@@ -0,0 +1,164 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.compression.Codec;
+import com.cloudproject.dynamo.models.ObjectIOModel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary encoding of a single {@link ObjectIOModel}, as stored in a file by the {@link FileStore}:
+ * <pre>
+ * | magic (4) | format version (1) | codec (1) | version (8) | expires at (8) | value length (4) | crc32 (4) | value |
+ * </pre>
+ * The value is the UTF-8 encoded value, compressed with the {@link Codec} whose id is in the header.
+ * The checksum covers the version, the expiry, the value length and the stored value. An expiry of 0
+ * stands for a record without a time to live, a value length of -1 for a null value. Records of
+ * format version 2 have no expiry, records of format version 1 have no codec byte either and are
+ * never compressed. Files that do not start with the magic are records of the JSON format used before.
+ */
+class RecordCodec {
+
+    static final int MAGIC = 0x44594E52;
+    static final byte FORMAT_VERSION = 3;
+    private static final byte FORMAT_VERSION_2 = 2;
+    private static final byte FORMAT_VERSION_1 = 1;
+
+    private RecordCodec() {
+    }
+
+    /**
+     * Method to encode a record
+     *
+     * @param ioModel   the record
+     * @param codec     the codec the value is compressed with
+     * @param threshold size below which values are left uncompressed
+     * @return buffer holding the encoded record, positioned at 0
+     */
+    static ByteBuffer encode(ObjectIOModel ioModel, Codec codec, int threshold) {
+        byte[] value = null;
+        if (ioModel.getValue() != null) {
+            value = ioModel.getValue().getBytes(StandardCharsets.UTF_8);
+            byte[] compressed = codec.compress(value, threshold);
+            if (compressed != null) {
+                value = compressed;
+            } else {
+                codec = Codec.NONE;
+            }
+        }
+        int headerSize = headerSize(FORMAT_VERSION);
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + (value == null ? 0 : value.length));
+        buffer.putInt(MAGIC);
+        buffer.put(FORMAT_VERSION);
+        buffer.put((byte) (value == null ? Codec.NONE.getId() : codec.getId()));
+        buffer.putLong(ioModel.getVersion());
+        buffer.putLong(ioModel.getExpiresAt());
+        buffer.putInt(value == null ? -1 : value.length);
+        buffer.putInt(0);
+        if (value != null) {
+            buffer.put(value);
+        }
+        buffer.putInt(headerSize - 4, checksum(buffer, FORMAT_VERSION, value == null ? 0 : value.length));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Method to check if a buffer holds a record of this format
+     *
+     * @param buffer the buffer, positioned at the start of the record
+     * @return true if the record is binary, false if it is a legacy JSON record
+     */
+    static boolean isBinary(ByteBuffer buffer) {
+        return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC;
+    }
+
+    /**
+     * Method to read the expiry of a record without decoding (or checking) the rest of it
+     *
+     * @param buffer the buffer, positioned at the start of the record; the header is enough
+     * @return the expiry, or 0 if the record has none or is of an earlier format
+     */
+    static long expiresAt(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < headerSize(FORMAT_VERSION) || buffer.getInt(start) != MAGIC
+                || buffer.get(start + 4) != FORMAT_VERSION) {
+            return 0;
+        }
+        return buffer.getLong(start + 4 + 1 + 1 + 8);
+    }
+
+    /**
+     * Method to return the size of the header of the current format
+     *
+     * @return header size in bytes
+     */
+    static int headerSize() {
+        return headerSize(FORMAT_VERSION);
+    }
+
+    /**
+     * Method to decode a record
+     *
+     * @param buffer the buffer, positioned at the start of the record
+     * @return the record
+     * @throws IOException if the record is truncated, of an unknown format version or corrupt
+     */
+    static ObjectIOModel decode(ByteBuffer buffer) throws IOException {
+        ByteBuffer record = buffer.slice();
+        if (record.remaining() < headerSize(FORMAT_VERSION_1) || record.getInt() != MAGIC) {
+            throw new IOException("Not a binary record");
+        }
+        byte format = record.get();
+        if (format != FORMAT_VERSION && format != FORMAT_VERSION_2 && format != FORMAT_VERSION_1) {
+            throw new IOException("Unknown record format version " + format);
+        }
+        int headerSize = headerSize(format);
+        if (record.capacity() < headerSize) {
+            throw new IOException("Truncated record");
+        }
+        Codec codec = format == FORMAT_VERSION_1 ? Codec.NONE : Codec.forId(record.get());
+        long version = record.getLong();
+        long expiresAt = format == FORMAT_VERSION ? record.getLong() : 0;
+        int length = record.getInt();
+        int crc = record.getInt();
+        if (length < -1 || record.remaining() < Math.max(length, 0)) {
+            throw new IOException("Truncated record");
+        }
+        if (checksum(record, format, Math.max(length, 0)) != crc) {
+            throw new IOException("Record checksum mismatch");
+        }
+        if (length < 0) {
+            return new ObjectIOModel(version, null, expiresAt);
+        }
+        byte[] value = new byte[length];
+        record.get(value);
+        return new ObjectIOModel(version, new String(codec.decompress(value), StandardCharsets.UTF_8), expiresAt);
+    }
+
+    private static int headerSize(byte format) {
+        if (format == FORMAT_VERSION_1) {
+            return 4 + 1 + 8 + 4 + 4;
+        }
+        return format == FORMAT_VERSION_2 ? 4 + 1 + 1 + 8 + 4 + 4 : 4 + 1 + 1 + 8 + 8 + 4 + 4;
+    }
+
+    /**
+     * Computes the checksum of the version, expiry, value length and value of the record at the
+     * start of the buffer
+     */
+    private static int checksum(ByteBuffer record, byte format, int valueLength) {
+        int headerSize = headerSize(format);
+        ByteBuffer covered = record.duplicate();
+        covered.limit(headerSize - 4);
+        covered.position(format == FORMAT_VERSION_1 ? 4 + 1 : 4 + 1 + 1);
+        CRC32 crc = new CRC32();
+        crc.update(covered);
+        covered.limit(headerSize + valueLength);
+        covered.position(headerSize);
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,384 @@
+package com.cloudproject.dynamo.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted table of an {@link LsmStore} bucket. Records (in the {@link LogRecord} format) are
+ * stored in key order, followed by a {@link BloomFilter} of their keys, a sparse index holding the
+ * key and offset of every {@value #INDEX_INTERVAL}th record, the last key of the table and a fixed
+ * size footer:
+ * <pre>
+ * | records | bloom filter | index entries (key length, key, offset) | last key (length, key) |
+ * | bloom offset (8) | index offset (8) | index count (4) | magic (4) |
+ * </pre>
+ * A point lookup of a missing key is usually rejected by the in-memory filter; otherwise it binary
+ * searches the in-memory sparse index and decodes a single block of records straight out of the
+ * memory-mapped table (see {@link MappedFile}). Tables written before
+ * the filter was added (without the bloom offset in their footer) are still readable.
+ */
+class SSTable implements Closeable {
+
+    static final String SUFFIX = ".sst";
+    private static final int INDEX_INTERVAL = 16;
+    private static final int FOOTER_SIZE = 8 + 8 + 4 + 4;
+    private static final int MAGIC = 0x55AB1E02;
+    private static final int FOOTER_SIZE_V1 = 8 + 4 + 4;
+    private static final int MAGIC_V1 = 0x55AB1E01;
+
+    private final long id;
+    private final File file;
+    private final FileChannel channel;
+    private final MappedFile mapped;
+    private final String[] indexKeys;
+    private final long[] indexOffsets;
+    private final long dataEnd;
+    private final BloomFilter filter;
+    private final String lastKey;
+    private final long size;
+
+    private SSTable(long id, File file, FileChannel channel, String[] indexKeys, long[] indexOffsets,
+                    long dataEnd, BloomFilter filter, String lastKey, long size) {
+        this.id = id;
+        this.file = file;
+        this.channel = channel;
+        this.mapped = new MappedFile(channel);
+        this.indexKeys = indexKeys;
+        this.indexOffsets = indexOffsets;
+        this.dataEnd = dataEnd;
+        this.filter = filter;
+        this.lastKey = lastKey;
+        this.size = size;
+    }
+
+    /**
+     * Method to open a table, loading its Bloom filter and sparse index into memory
+     *
+     * @param file the table file
+     * @param id   the id of the table
+     * @return the opened table
+     * @throws IOException if the file cannot be read or is not a valid table
+     */
+    static SSTable open(File file, long id) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < FOOTER_SIZE_V1) {
+                throw new IOException("Truncated table " + file);
+            }
+            int magic = readFully(channel, size - 4, 4).getInt();
+            int footerSize = magic == MAGIC_V1 ? FOOTER_SIZE_V1 : FOOTER_SIZE;
+            if ((magic != MAGIC && magic != MAGIC_V1) || size < footerSize) {
+                throw new IOException("Corrupt table footer in " + file);
+            }
+            ByteBuffer footer = readFully(channel, size - footerSize, footerSize);
+            long bloomOffset = magic == MAGIC_V1 ? -1 : footer.getLong();
+            long indexOffset = footer.getLong();
+            int indexCount = footer.getInt();
+            long dataEnd = bloomOffset < 0 ? indexOffset : bloomOffset;
+            if (indexOffset < 0 || indexOffset > size - footerSize || dataEnd < 0 || dataEnd > indexOffset) {
+                throw new IOException("Corrupt table footer in " + file);
+            }
+            BloomFilter filter = null;
+            if (bloomOffset >= 0) {
+                filter = BloomFilter.readFrom(readFully(channel, bloomOffset, (int) (indexOffset - bloomOffset)));
+            }
+            ByteBuffer index = readFully(channel, indexOffset, (int) (size - footerSize - indexOffset));
+            String[] keys = new String[indexCount];
+            long[] offsets = new long[indexCount];
+            for (int i = 0; i < indexCount; i++) {
+                keys[i] = readKey(index);
+                offsets[i] = index.getLong();
+            }
+            String lastKey = readKey(index);
+            return new SSTable(id, file, channel, keys, offsets, dataEnd, filter, lastKey, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Corrupt table " + file, e);
+        }
+    }
+
+    /**
+     * Method to look up the record of a key
+     *
+     * @param key   the key to be looked up
+     * @param stats counters of the filter lookups
+     * @return the record (possibly a tombstone), or null if this table holds no record of the key
+     * @throws IOException if the table cannot be read
+     */
+    LogRecord get(String key, BloomStats stats) throws IOException {
+        if (!inRange(key)) {
+            return null;
+        }
+        if (filter != null && !filter.mightContain(key)) {
+            stats.recordNegative();
+            return null;
+        }
+        LogRecord found = readBlock(floorBlock(key), buffer -> {
+            while (buffer.hasRemaining()) {
+                LogRecord record = LogRecord.decode(buffer);
+                if (record == null) {
+                    throw new IOException("Corrupt record in " + file);
+                }
+                int cmp = record.key.compareTo(key);
+                if (cmp == 0) {
+                    return record;
+                } else if (cmp > 0) {
+                    break;
+                }
+            }
+            return null;
+        });
+        if (found == null) {
+            stats.recordFalsePositive();
+        } else {
+            stats.recordPositive();
+        }
+        return found;
+    }
+
+    /**
+     * Method to iterate the records of the table in key order
+     *
+     * @param fromKey first key to be returned (inclusive), or null to start at the first record
+     * @return iterator over the records; read failures surface as {@link UncheckedIOException}
+     */
+    Iterator<LogRecord> iterator(String fromKey) {
+        return new Iterator<LogRecord>() {
+            private int block = fromKey == null ? 0 : Math.max(floorBlock(fromKey), 0);
+            private ByteBuffer buffer;
+            private LogRecord next = advance();
+
+            private LogRecord advance() {
+                try {
+                    while (true) {
+                        if (buffer == null || !buffer.hasRemaining()) {
+                            if (block >= indexKeys.length) {
+                                return null;
+                            }
+                            buffer = readBlock(block++, MappedFile::copy);
+                        }
+                        LogRecord record = LogRecord.decode(buffer);
+                        if (record == null) {
+                            throw new IOException("Corrupt record in " + file);
+                        }
+                        if (fromKey == null || record.key.compareTo(fromKey) >= 0) {
+                            return record;
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public LogRecord next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                LogRecord current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    private boolean inRange(String key) {
+        return indexKeys.length > 0 && key.compareTo(indexKeys[0]) >= 0 && key.compareTo(lastKey) <= 0;
+    }
+
+    private int floorBlock(String key) {
+        int position = Arrays.binarySearch(indexKeys, key);
+        return position >= 0 ? position : -position - 2;
+    }
+
+    private <T> T readBlock(int block, MappedFile.Reader<T> reader) throws IOException {
+        long start = indexOffsets[block];
+        long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+        return mapped.read(start, (int) (end - start), dataEnd, reader);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        return MappedFile.readFully(channel, position, length);
+    }
+
+    private static String readKey(ByteBuffer buffer) {
+        byte[] key = new byte[buffer.getInt()];
+        buffer.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String firstKey() {
+        return indexKeys[0];
+    }
+
+    String lastKey() {
+        return lastKey;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Method to check if the key range of this table overlaps the given range
+     *
+     * @param first first key of the range (inclusive)
+     * @param last  last key of the range (inclusive)
+     * @return true if the ranges overlap
+     */
+    boolean overlaps(String first, String last) {
+        return firstKey().compareTo(last) <= 0 && lastKey.compareTo(first) >= 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mapped.close();
+        channel.close();
+    }
+
+    /**
+     * Method to close the table and remove its file
+     */
+    void delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        file.delete();
+    }
+
+    /**
+     * Writes a new table from records added in strictly increasing key order
+     */
+    static class Writer {
+        private final long id;
+        private final File file;
+        private final FileOutputStream fileStream;
+        private final DataOutputStream out;
+        private final List<String> indexKeys;
+        private final List<Long> indexOffsets;
+        private final double fpp;
+        private long[] keyHashes;
+        private long offset;
+        private int count;
+        private String lastKey;
+
+        /**
+         * @param file the table file
+         * @param id   the id of the table
+         * @param fpp  false positive rate of the Bloom filter of the table
+         * @throws IOException if the file cannot be created
+         */
+        Writer(File file, long id, double fpp) throws IOException {
+            this.id = id;
+            this.fpp = fpp;
+            this.keyHashes = new long[1024];
+            this.file = file;
+            this.fileStream = new FileOutputStream(file);
+            this.out = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024));
+            this.indexKeys = new ArrayList<>();
+            this.indexOffsets = new ArrayList<>();
+        }
+
+        /**
+         * Method to append a record to the table
+         *
+         * @param record the record, whose key must be greater than the key of the previous record
+         * @throws IOException if the write fails
+         */
+        void add(LogRecord record) throws IOException {
+            if (count % INDEX_INTERVAL == 0) {
+                indexKeys.add(record.key);
+                indexOffsets.add(offset);
+            }
+            ByteBuffer encoded = record.encode();
+            out.write(encoded.array(), 0, encoded.limit());
+            offset += encoded.limit();
+            lastKey = record.key;
+            if (count == keyHashes.length) {
+                keyHashes = Arrays.copyOf(keyHashes, count * 2);
+            }
+            keyHashes[count++] = BloomFilter.hash(record.key);
+        }
+
+        /**
+         * Method to return the number of bytes of records written so far
+         *
+         * @return size of the table so far
+         */
+        long size() {
+            return offset;
+        }
+
+        /**
+         * Method to write the Bloom filter, index and footer, sync the file and open it for reading
+         *
+         * @return the finished table, or null if no record was added
+         * @throws IOException if the table cannot be written
+         */
+        SSTable finish() throws IOException {
+            if (count == 0) {
+                abort();
+                return null;
+            }
+            // sized for the exact number of keys, since the table never changes
+            BloomFilter filter = BloomFilter.create(count, fpp);
+            for (int i = 0; i < count; i++) {
+                filter.add(keyHashes[i]);
+            }
+            filter.writeTo(out);
+            long bloomOffset = offset;
+            long indexOffset = offset + filter.serializedSize();
+            for (int i = 0; i < indexKeys.size(); i++) {
+                writeKey(indexKeys.get(i));
+                out.writeLong(indexOffsets.get(i));
+            }
+            writeKey(lastKey);
+            out.writeLong(bloomOffset);
+            out.writeLong(indexOffset);
+            out.writeInt(indexKeys.size());
+            out.writeInt(MAGIC);
+            out.flush();
+            fileStream.getFD().sync();
+            out.close();
+            return SSTable.open(file, id);
+        }
+
+        /**
+         * Method to discard a partially written table
+         */
+        void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            file.delete();
+        }
+
+        private void writeKey(String key) throws IOException {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
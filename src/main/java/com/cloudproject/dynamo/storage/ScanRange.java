@@ -0,0 +1,49 @@
+package com.cloudproject.dynamo.storage;
+
+/**
+ * Key range of a bucket scan: every key that starts with the prefix and sorts strictly after the
+ * start key. Keys are compared by their natural (String) ordering.
+ */
+class ScanRange {
+
+    private final String prefix;
+    private final String startAfter;
+
+    /**
+     * @param prefix     prefix every returned key starts with, or null for all keys
+     * @param startAfter key after which the scan starts (exclusive), or null to start at the beginning
+     */
+    ScanRange(String prefix, String startAfter) {
+        this.prefix = prefix == null ? "" : prefix;
+        this.startAfter = startAfter;
+    }
+
+    /**
+     * Method to return the first key a sorted source has to be positioned at
+     *
+     * @return the lowest key that may be part of the range
+     */
+    String seekKey() {
+        return startAfter != null && startAfter.compareTo(prefix) >= 0 ? startAfter : prefix;
+    }
+
+    /**
+     * Method to check if a key is part of the range
+     *
+     * @param key the key to be checked
+     * @return true if the key is part of the range
+     */
+    boolean includes(String key) {
+        return key.startsWith(prefix) && (startAfter == null || key.compareTo(startAfter) > 0);
+    }
+
+    /**
+     * Method to check if a key sorts after every key of the range, so that a sorted scan can stop
+     *
+     * @param key the key to be checked
+     * @return true if no later key can be part of the range
+     */
+    boolean isPastEnd(String key) {
+        return !key.startsWith(prefix) && key.compareTo(prefix) > 0;
+    }
+}
@@ -0,0 +1,169 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.models.Durability;
+import com.cloudproject.dynamo.models.ObjectIOModel;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interface to be implemented by the node-local storage engines. A storage engine keeps the
+ * records ({@link ObjectIOModel}) of every bucket hosted on this node.
+ */
+public interface StorageEngine extends Closeable {
+
+    /**
+     * Method to create a bucket
+     *
+     * @param bucket name of the bucket
+     * @return true if the bucket was created, false if it already exists or could not be created
+     */
+    boolean createBucket(String bucket);
+
+    /**
+     * Method to delete a bucket along with all its records
+     *
+     * @param bucket name of the bucket
+     * @return true if the bucket existed and was deleted
+     */
+    boolean dropBucket(String bucket);
+
+    /**
+     * Method to read a record
+     *
+     * @param bucket name of the bucket
+     * @param key    key of the record
+     * @return the record, or null if the bucket or the key does not exist
+     * @throws IOException if the record cannot be read
+     */
+    ObjectIOModel get(String bucket, String key) throws IOException;
+
+    /**
+     * Method to write a record, whether or not its key exists
+     *
+     * @param durability when the write may be acknowledged
+     * @return true if the record was written, false if the bucket does not exist
+     * @throws IOException if the record cannot be written
+     */
+    boolean put(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException;
+
+    /**
+     * Method to write a record only if its key does not exist yet
+     *
+     * @param durability when the write may be acknowledged
+     * @return true if the record was written, false if the bucket does not exist or the key exists
+     * @throws IOException if the record cannot be written
+     */
+    boolean putIfAbsent(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException;
+
+    /**
+     * Method to overwrite a record only if its key already exists
+     *
+     * @param durability when the write may be acknowledged
+     * @return true if the record was written, false if the bucket or the key does not exist
+     * @throws IOException if the record cannot be written
+     */
+    boolean replace(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException;
+
+    /**
+     * Method to delete a record
+     *
+     * @param durability when the deletion may be acknowledged
+     * @return true if the record existed and was deleted
+     * @throws IOException if the deletion cannot be written
+     */
+    boolean delete(String bucket, String key, Durability durability) throws IOException;
+
+    /**
+     * Method to force every write made to a bucket so far to the storage device, whatever durability
+     * it was written with. Lets a bulk load write every record without waiting for a sync, and sync
+     * once before it is acknowledged
+     *
+     * @param bucket name of the bucket
+     * @throws IOException if the sync fails
+     */
+    void sync(String bucket) throws IOException;
+
+    /**
+     * Method to scan the records of a bucket in ascending key order. Records are read lazily while
+     * the iterator advances, so the bucket is never materialized in memory; a record that cannot be
+     * read makes the iterator throw an {@link UncheckedIOException}.
+     *
+     * @param bucket     name of the bucket
+     * @param prefix     prefix every returned key starts with, or null for all keys
+     * @param startAfter key after which the scan starts (exclusive), or null to start at the beginning
+     * @return iterator over (key, record) pairs, or null if the bucket does not exist
+     * @throws IOException if the bucket cannot be opened
+     */
+    Iterator<Map.Entry<String, ObjectIOModel>> scan(String bucket, String prefix, String startAfter)
+            throws IOException;
+
+    /**
+     * Method to load the index of every bucket on disk, so that the first request to a bucket after
+     * a restart does not pay for it. Engines without an index do nothing
+     *
+     * @throws IOException if a bucket cannot be opened
+     */
+    default void recover() throws IOException {
+    }
+
+    /**
+     * Method to release every resource held by the engine
+     */
+    @Override
+    void close();
+
+    /**
+     * Method to open the storage engine with the given name over the data directories of the node.
+     * With several directories every bucket is striped across them by a {@link StripedStore}
+     *
+     * @param name  name of the engine ("file", "memory", "bitcask" or "lsm")
+     * @param roots the data directories, one per volume
+     * @return the opened engine
+     */
+    static StorageEngine open(String name, List<File> roots) {
+        if (roots.size() == 1 || name.equals("memory")) {
+            return open(name, roots.get(0));
+        }
+        return new StripedStore(name, roots);
+    }
+
+    /**
+     * Method to open the storage engine with the given name
+     *
+     * @param name name of the engine ("file", "memory", "bitcask" or "lsm")
+     * @param root the data directory under which every bucket is stored
+     * @return the opened engine
+     */
+    static StorageEngine open(String name, File root) {
+        return open(name, root, null);
+    }
+
+    /**
+     * Method to open the storage engine with the given name on one volume of the node
+     *
+     * @param name   name of the engine ("file", "memory", "bitcask" or "lsm")
+     * @param root   the data directory under which every bucket is stored
+     * @param volume id of the volume of the data directory, or null if the node has a single one
+     * @return the opened engine
+     */
+    static StorageEngine open(String name, File root, String volume) {
+        switch (name) {
+            case "file":
+                return new FileStore(root, volume);
+            case "memory":
+                return new MemoryStore();
+            case "bitcask":
+                return new BitcaskStore(root, volume);
+            case "lsm":
+                return new LsmStore(root, volume);
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + name);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.cloudproject.dynamo.storage;
+
+import com.cloudproject.dynamo.config.StorageConfig;
+import com.cloudproject.dynamo.consistenthash.CityHash;
+import com.cloudproject.dynamo.models.Durability;
+import com.cloudproject.dynamo.models.ObjectIOModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Future;
+
+/**
+ * Class StripedStore. Storage engine of a node with several data directories, one per volume
+ * (JBOD), so that the I/O of the node scales with the number of disks:
+ * 1. Every volume runs an engine of its own, with its own background tasks and group commit, and
+ *    holds a stripe of every bucket: a key lives on the volume picked by its CityHash.
+ * 2. The operations of every volume run on I/O threads of its own ({@link Volume}), so a slow disk
+ *    only holds up the keys stored on it. Bucket operations and scans run on every volume at once.
+ * 3. The usage and latency of every volume are published over JMX ({@link VolumeStats}).
+ * Since the stripe of a key depends on the number of volumes, every data directory records its
+ * place in the list, and the node refuses to start if the list has changed.
+ */
+public class StripedStore implements StorageEngine {
+
+    private static final String LAYOUT_FILE = ".volume";
+
+    private final Volume[] volumes;
+
+    /**
+     * @param engine name of the storage engine of every volume
+     * @param roots  the data directories, one per volume
+     */
+    public StripedStore(String engine, List<File> roots) {
+        for (int i = 0; i < roots.size(); i++) {
+            checkLayout(roots.get(i), i, roots.size());
+        }
+        this.volumes = new Volume[roots.size()];
+        for (int i = 0; i < roots.size(); i++) {
+            volumes[i] = new Volume(engine, String.valueOf(i), roots.get(i), StorageConfig.getVolumeThreads());
+            System.out.println("[Storage] Volume " + i + ": " + volumes[i].getStats());
+        }
+    }
+
+    /**
+     * Checks that a data directory holds the given stripe, or records it if the directory is new
+     */
+    private static void checkLayout(File root, int index, int count) {
+        File layout = new File(root, LAYOUT_FILE);
+        try {
+            if (!layout.isFile()) {
+                if (!root.isDirectory() && !root.mkdirs()) {
+                    throw new IOException("Could not create " + root);
+                }
+                Files.write(layout.toPath(), (index + "/" + count).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            String[] fields = new String(Files.readAllBytes(layout.toPath()), StandardCharsets.UTF_8).trim().split("/");
+            if (fields.length != 2 || Integer.parseInt(fields[0]) != index || Integer.parseInt(fields[1]) != count) {
+                throw new IllegalStateException(root + " holds volume " + String.join(" of ", fields)
+                        + " but is configured as volume " + index + " of " + count);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the volume holding a key
+     */
+    private Volume volume(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = CityHash.cityHash64(bytes, 0, bytes.length);
+        return volumes[(int) Long.remainderUnsigned(hash, volumes.length)];
+    }
+
+    /**
+     * Runs an operation on every volume at once and waits for all of them
+     *
+     * @return the results, in volume order
+     * @throws IOException if the operation failed on a volume
+     */
+    private <T> List<T> onEveryVolume(VolumeTask<T> task) throws IOException {
+        List<Future<T>> futures = new ArrayList<>();
+        for (Volume volume : volumes) {
+            futures.add(volume.submit(() -> task.call(volume)));
+        }
+        List<T> results = new ArrayList<>();
+        IOException failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(Volume.await(future));
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    @Override
+    public boolean createBucket(String bucket) {
+        try {
+            return onEveryVolume(volume -> volume.engine.createBucket(bucket)).contains(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean dropBucket(String bucket) {
+        try {
+            return onEveryVolume(volume -> volume.engine.dropBucket(bucket)).contains(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public ObjectIOModel get(String bucket, String key) throws IOException {
+        Volume volume = volume(key);
+        return volume.call(() -> volume.engine.get(bucket, key));
+    }
+
+    @Override
+    public boolean put(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        Volume volume = volume(key);
+        return volume.call(() -> volume.engine.put(bucket, key, ioModel, durability));
+    }
+
+    @Override
+    public boolean putIfAbsent(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        Volume volume = volume(key);
+        return volume.call(() -> volume.engine.putIfAbsent(bucket, key, ioModel, durability));
+    }
+
+    @Override
+    public boolean replace(String bucket, String key, ObjectIOModel ioModel, Durability durability) throws IOException {
+        Volume volume = volume(key);
+        return volume.call(() -> volume.engine.replace(bucket, key, ioModel, durability));
+    }
+
+    @Override
+    public boolean delete(String bucket, String key, Durability durability) throws IOException {
+        Volume volume = volume(key);
+        return volume.call(() -> volume.engine.delete(bucket, key, durability));
+    }
+
+    /**
+     * Merges the key-ordered scans of the stripes of the bucket. The scans are opened on every
+     * volume at once; the records are then read on the calling thread as the merge reaches them
+     */
+    @Override
+    public Iterator<Map.Entry<String, ObjectIOModel>> scan(String bucket, String prefix, String startAfter)
+            throws IOException {
+        List<Iterator<Map.Entry<String, ObjectIOModel>>> stripes =
+                onEveryVolume(volume -> volume.engine.scan(bucket, prefix, startAfter));
+        PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparing((Head head) -> head.entry.getKey()));
+        boolean exists = false;
+        for (Iterator<Map.Entry<String, ObjectIOModel>> stripe : stripes) {
+            exists |= stripe != null;
+            if (stripe != null && stripe.hasNext()) {
+                heads.add(new Head(stripe.next(), stripe));
+            }
+        }
+        if (!exists) {
+            return null;
+        }
+        return new LookaheadIterator<Map.Entry<String, ObjectIOModel>>() {
+            @Override
+            protected Map.Entry<String, ObjectIOModel> computeNext() {
+                Head head = heads.poll();
+                if (head == null) {
+                    return null;
+                }
+                Map.Entry<String, ObjectIOModel> entry = head.entry;
+                if (head.rest.hasNext()) {
+                    heads.add(new Head(head.rest.next(), head.rest));
+                }
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public void sync(String bucket) throws IOException {
+        onEveryVolume(volume -> {
+            volume.engine.sync(bucket);
+            return null;
+        });
+    }
+
+    @Override
+    public void recover() throws IOException {
+        onEveryVolume(volume -> {
+            volume.engine.recover();
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        for (Volume volume : volumes) {
+            System.out.println("[Storage] Volume " + volume.id + ": " + volume.getStats());
+            volume.close();
+        }
+    }
+
+    /**
+     * Operation run on every volume
+     *
+     * @param <T> type of the result of the operation
+     */
+    private interface VolumeTask<T> {
+        T call(Volume volume) throws IOException;
+    }
+
+    /**
+     * Next record of the scan of a stripe
+     */
+    private static class Head {
+        private final Map.Entry<String, ObjectIOModel> entry;
+        private final Iterator<Map.Entry<String, ObjectIOModel>> rest;
+
+        Head(Map.Entry<String, ObjectIOModel> entry, Iterator<Map.Entry<String, ObjectIOModel>> rest) {
+            this.entry = entry;
+            this.rest = rest;
+        }
+    }
+}
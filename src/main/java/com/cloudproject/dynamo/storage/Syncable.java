@@ -0,0 +1,16 @@
+package com.cloudproject.dynamo.storage;
+
+import java.io.IOException;
+
+/**
+ * A log file whose appended records can be forced to the storage device
+ */
+interface Syncable {
+
+    /**
+     * Method to force every record appended so far to the storage device
+     *
+     * @throws IOException if the sync fails
+     */
+    void sync() throws IOException;
+}
@@ -0,0 +1,133 @@
+package com.cloudproject.dynamo.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One data directory of a {@link StripedStore}: the storage engine holding the stripe of every
+ * bucket that lives on the volume, the I/O threads its operations run on and its counters. Every
+ * volume has threads of its own, so a slow or saturated disk only holds up the operations on it.
+ */
+class Volume implements Closeable {
+
+    final String id;
+    final File root;
+    final StorageEngine engine;
+    private final ThreadPoolExecutor executor;
+    private final VolumeStats stats;
+
+    /**
+     * @param engine  name of the storage engine
+     * @param id      id of the volume
+     * @param root    the data directory on the volume
+     * @param threads number of I/O threads of the volume
+     */
+    Volume(String engine, String id, File root, int threads) {
+        this.id = id;
+        this.root = root;
+        this.engine = StorageEngine.open(engine, root, id);
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "volume-" + id + "-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.stats = new VolumeStats(id, root, executor);
+    }
+
+    /**
+     * Method to run an operation on an I/O thread of the volume
+     *
+     * @param task the operation
+     * @param <T>  type of the result of the operation
+     * @return future result of the operation
+     */
+    <T> Future<T> submit(Task<T> task) {
+        long start = System.nanoTime();
+        return executor.submit(() -> {
+            boolean failed = true;
+            try {
+                T result = task.call();
+                failed = false;
+                return result;
+            } finally {
+                stats.record(System.nanoTime() - start, failed);
+            }
+        });
+    }
+
+    /**
+     * Method to run an operation on an I/O thread of the volume and wait for its result
+     *
+     * @param task the operation
+     * @param <T>  type of the result of the operation
+     * @return the result of the operation
+     * @throws IOException if the operation fails
+     */
+    <T> T call(Task<T> task) throws IOException {
+        return await(submit(task));
+    }
+
+    /**
+     * Method to wait for the result of an operation, rethrowing what it threw
+     *
+     * @param future future result of the operation
+     * @param <T>    type of the result of the operation
+     * @return the result of the operation
+     * @throws IOException if the operation fails, or the wait is interrupted
+     */
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    VolumeStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        engine.close();
+        stats.close();
+    }
+
+    /**
+     * Operation on the engine of a volume
+     *
+     * @param <T> type of the result of the operation
+     */
+    interface Task<T> {
+        T call() throws IOException;
+    }
+}
@@ -0,0 +1,107 @@
+package com.cloudproject.dynamo.storage;
+
+import java.io.File;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the I/O of one volume of a {@link StripedStore}, published over JMX as
+ * com.cloudproject.dynamo:type=Volume,volume=ID
+ */
+public class VolumeStats implements VolumeStatsMBean {
+
+    private final String name;
+    private final File root;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong operations;
+    private final AtomicLong errors;
+    private final AtomicLong totalNanos;
+    private final AtomicLong maxNanos;
+
+    /**
+     * @param volume   id of the volume
+     * @param root     the data directory on the volume
+     * @param executor the I/O threads of the volume
+     */
+    VolumeStats(String volume, File root, ThreadPoolExecutor executor) {
+        this.name = "com.cloudproject.dynamo:type=Volume,volume=" + volume;
+        this.root = root;
+        this.executor = executor;
+        this.operations = new AtomicLong();
+        this.errors = new AtomicLong();
+        this.totalNanos = new AtomicLong();
+        this.maxNanos = new AtomicLong();
+        MBeans.register(this, name);
+    }
+
+    /**
+     * Method to count a finished operation
+     *
+     * @param nanos  latency of the operation
+     * @param failed true if the operation failed
+     */
+    void record(long nanos, boolean failed) {
+        operations.incrementAndGet();
+        if (failed) {
+            errors.incrementAndGet();
+        }
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override
+    public String getPath() {
+        return root.getPath();
+    }
+
+    @Override
+    public long getTotalSpace() {
+        return root.getTotalSpace();
+    }
+
+    @Override
+    public long getUsableSpace() {
+        return root.getUsableSpace();
+    }
+
+    @Override
+    public long getOperations() {
+        return operations.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        long operations = this.operations.get();
+        return operations == 0 ? 0 : totalNanos.get() / 1000.0 / operations;
+    }
+
+    @Override
+    public long getMaxLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+    }
+
+    @Override
+    public int getQueuedOperations() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Method to withdraw the counters from JMX, once the volume is closed
+     */
+    void close() {
+        MBeans.unregister(name);
+    }
+
+    @Override
+    public String toString() {
+        return "path=" + getPath() + " usable=" + getUsableSpace() + " operations=" + getOperations()
+                + " errors=" + getErrors() + " meanLatencyMicros=" + String.format("%.1f", getMeanLatencyMicros())
+                + " maxLatencyMicros=" + getMaxLatencyMicros();
+    }
+}
@@ -0,0 +1,65 @@
+package com.cloudproject.dynamo.storage;
+
+/**
+ * Management interface of the {@link VolumeStats} of a data directory, through which the usage
+ * and I/O latency of every volume of a node can be read over JMX.
+ */
+public interface VolumeStatsMBean {
+
+    /**
+     * Method to return the path of the data directory on the volume
+     *
+     * @return path of the data directory
+     */
+    String getPath();
+
+    /**
+     * Method to return the size of the filesystem holding the data directory
+     *
+     * @return size in bytes
+     */
+    long getTotalSpace();
+
+    /**
+     * Method to return the space left on the filesystem holding the data directory
+     *
+     * @return usable space in bytes
+     */
+    long getUsableSpace();
+
+    /**
+     * Method to return the number of storage operations that ran on the volume
+     *
+     * @return number of operations
+     */
+    long getOperations();
+
+    /**
+     * Method to return the number of storage operations on the volume that failed
+     *
+     * @return number of failed operations
+     */
+    long getErrors();
+
+    /**
+     * Method to return the mean latency of the operations on the volume, time spent waiting for
+     * an I/O thread included
+     *
+     * @return mean latency in microseconds
+     */
+    double getMeanLatencyMicros();
+
+    /**
+     * Method to return the highest latency of an operation on the volume
+     *
+     * @return highest latency in microseconds
+     */
+    long getMaxLatencyMicros();
+
+    /**
+     * Method to return the number of operations waiting for an I/O thread of the volume
+     *
+     * @return number of queued operations
+     */
+    int getQueuedOperations();
+}
@@ -0,0 +1,302 @@
+package com.cloudproject.dynamo.msgmanager;
+
+import com.cloudproject.dynamo.models.*;
+import javafx.util.Pair;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link WireCodec}: every message type goes through a round trip, malformed input is
+ * rejected, and the encoded messages are compared with their Java serialization
+ */
+public class WireCodecTest {
+
+    private static final DynamoNode SOURCE = new DynamoNode("node-1", "10.0.0.1:9000", 1234, false);
+
+    /**
+     * Returns a message of every type, with every variant of the payloads that vary within a type
+     */
+    private static List<DynamoMessage> messages() {
+        ArrayList<DynamoNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            nodes.add(new DynamoNode(i == 0 ? null : "node-" + i, "10.0.0." + i + ":9000", i * 100, i == 4));
+        }
+        ObjectInputModel input = objectInput("k1", "h\u00e9llo w\u00f6rld \u2713");
+        input.setDurability(Durability.SYNC);
+        input.setTtl(60L);
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            large.append("abc");
+        }
+        ArrayList<ScanEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            entries.add(new ScanEntry("key" + i, new ObjectIOModel(i, "value" + i)));
+        }
+        ArrayList<ObjectIOModel> values = new ArrayList<>(Arrays.asList(
+                new ObjectIOModel(3, "v", 1700000000000L), new ObjectIOModel(-1, null)));
+        ArrayList<Map.Entry<String, ObjectIOModel>> records = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            records.add(new AbstractMap.SimpleImmutableEntry<>("key" + i,
+                    new ObjectIOModel(i, i == 9 ? large.toString() : "value" + i, i % 2 == 0 ? 0 : 1700000000000L)));
+        }
+
+        return Arrays.asList(
+                message(MessageTypes.PING, null, 1),
+                message(MessageTypes.NODE_LIST, nodes, 2),
+                message(MessageTypes.BUCKET_CREATE, "bucket", 3),
+                message(MessageTypes.BUCKET_DELETE, "bucket", 4),
+                message(MessageTypes.OBJECT_CREATE, new Pair<>("b", input), 5),
+                message(MessageTypes.OBJECT_UPDATE, new Pair<>("b", objectInput("k2", large.toString())), 6),
+                message(MessageTypes.OBJECT_READ, new Pair<>("b", "k"), 7),
+                message(MessageTypes.OBJECT_DELETE, new Pair<>("b", "k"), 8),
+                message(MessageTypes.ACKNOWLEDGEMENT, new AckPayload(MessageTypes.OBJECT_CREATE, "b/k1", 9, true), 9),
+                message(MessageTypes.ACKNOWLEDGEMENT, new ObjectIOModel(7, "val"), 10),
+                message(MessageTypes.ACKNOWLEDGEMENT, null, 11),
+                message(MessageTypes.FORWARD, new ForwardPayload(MessageTypes.OBJECT_CREATE, "b", input, 12), 12),
+                message(MessageTypes.FORWARD, new ForwardPayload(MessageTypes.OBJECT_READ, "b", "k", 13), 13),
+                message(MessageTypes.FORWARD,
+                        new ForwardPayload(MessageTypes.BUCKET_SCAN, "b", new ScanRequest(null, "a", 5), 14), 14),
+                message(MessageTypes.FORWARD,
+                        new ForwardPayload(MessageTypes.BUCKET_CREATE, "b", null, Long.MIN_VALUE), Long.MIN_VALUE),
+                message(MessageTypes.FORWARD_ACK, true, 15),
+                message(MessageTypes.FORWARD_ACK, false, 16),
+                message(MessageTypes.FORWARD_ACK_READ, values, 17),
+                message(MessageTypes.BUCKET_SCAN, new Pair<>("b", new ScanRequest("p", null, 100)), 18),
+                message(MessageTypes.SCAN_RESULT, new ScanPage(entries, "key9"), 19),
+                message(MessageTypes.FORWARD_ACK_SCAN, new ScanPage(new ArrayList<>(), null), 20),
+                message(MessageTypes.FORWARD, new ForwardPayload(MessageTypes.BUCKET_IMPORT, "b", "dump", 21), 21),
+                message(MessageTypes.FORWARD, new ForwardPayload(MessageTypes.BUCKET_EXPORT, "b", "dump", 22), 22),
+                message(MessageTypes.BULK_LOAD, new BulkBatch("b", records, false, 0), 23),
+                message(MessageTypes.BULK_DUMP, "b", 24),
+                message(MessageTypes.BULK_RECORDS, new BulkBatch("b", new ArrayList<>(), true, Long.MIN_VALUE), 25),
+                message(MessageTypes.ACKNOWLEDGEMENT, new AckPayload(MessageTypes.BULK_RECORDS, "b", 26, true), 26));
+    }
+
+    /**
+     * Every type is sent as a message of its own or as the request of a forwarded message
+     */
+    @Test
+    public void everyTypeIsCovered() {
+        Set<MessageTypes> covered = EnumSet.noneOf(MessageTypes.class);
+        for (DynamoMessage msg : messages()) {
+            covered.add(msg.type);
+            if (msg.payload instanceof ForwardPayload) {
+                covered.add(((ForwardPayload) msg.payload).getRequestType());
+            }
+        }
+        assertEquals(EnumSet.allOf(MessageTypes.class), covered);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        for (DynamoMessage msg : messages()) {
+            byte[] encoded = WireCodec.encode(msg);
+            // decoded from a direct buffer, like the receive buffers of the event loops
+            ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.length);
+            buffer.put(encoded).flip();
+            DynamoMessage decoded = WireCodec.decode(buffer);
+
+            assertEquals(msg.type, decoded.type);
+            assertEquals(msg.type.name(), msg.txnID, decoded.txnID);
+            assertEquals(describe(msg.srcNode), describe(decoded.srcNode));
+            assertEquals(msg.type.name(), describe(msg.payload), describe(decoded.payload));
+        }
+    }
+
+    @Test
+    public void truncatedMessagesAreRejected() throws IOException {
+        for (DynamoMessage msg : messages()) {
+            byte[] encoded = WireCodec.encode(msg);
+            for (int length = 0; length < encoded.length; length++) {
+                try {
+                    WireCodec.decode(ByteBuffer.wrap(encoded, 0, length));
+                    fail(msg.type.name() + " truncated to " + length + " bytes was decoded");
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void trailingBytesAreRejected() throws IOException {
+        byte[] encoded = WireCodec.encode(message(MessageTypes.BUCKET_CREATE, "bucket", 1));
+        try {
+            WireCodec.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length + 1)));
+            fail("message with a trailing byte was decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void otherVersionIsRejected() throws IOException {
+        byte[] encoded = WireCodec.encode(message(MessageTypes.PING, null, 1));
+        encoded[0]++;
+        try {
+            WireCodec.decode(ByteBuffer.wrap(encoded));
+            fail("message of another version was decoded");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("version"));
+        }
+    }
+
+    @Test
+    public void oversizedValueIsRejected() throws IOException {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            large.append('a');
+        }
+        byte[] encoded = WireCodec.encode(message(MessageTypes.OBJECT_CREATE,
+                new Pair<>("b", objectInput("k", large.toString())), 1));
+        // compressed to far less than its size, so only its declared size gives it away
+        assertTrue(encoded.length < 10_000);
+        System.setProperty("dynamo.transfer.max.bytes", "10000");
+        try {
+            WireCodec.decode(ByteBuffer.wrap(encoded));
+            fail("value larger than the largest message was decoded");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            System.clearProperty("dynamo.transfer.max.bytes");
+        }
+    }
+
+    @Test
+    public void oversizedLengthIsRejected() throws IOException {
+        byte[] encoded = WireCodec.encode(message(MessageTypes.BUCKET_CREATE, "bucket", 1));
+        // the varint length of the bucket name, the last field, made to claim far more bytes than left
+        int at = encoded.length - "bucket".length() - 1;
+        byte[] forged = Arrays.copyOf(encoded, at + 5);
+        forged[at] = (byte) 0xff;
+        forged[at + 1] = (byte) 0xff;
+        forged[at + 2] = (byte) 0xff;
+        forged[at + 3] = (byte) 0xff;
+        forged[at + 4] = 0x07;
+        try {
+            WireCodec.decode(ByteBuffer.wrap(forged));
+            fail("length larger than the message was decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void payloadNotMatchingItsTypeIsRejected() {
+        try {
+            WireCodec.encode(message(MessageTypes.BUCKET_CREATE, 5, 1));
+            fail("payload of the wrong class was encoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void smallerThanJavaSerialization() throws IOException {
+        for (DynamoMessage msg : messages()) {
+            int wire = WireCodec.encode(msg).length;
+            int java = serializedSize(msg);
+            System.out.printf("%-20s wire %6d  java %6d%n", msg.type.name(), wire, java);
+            assertTrue(msg.type.name() + ": " + wire + " bytes, serialized " + java, wire < java);
+        }
+    }
+
+    private static DynamoMessage message(MessageTypes type, Object payload, long txnID) {
+        return new DynamoMessage(SOURCE, type, payload, txnID);
+    }
+
+    private static ObjectInputModel objectInput(String key, String value) {
+        ObjectInputModel input = new ObjectInputModel();
+        input.setKey(key);
+        input.setValue(value);
+        return input;
+    }
+
+    private static int serializedSize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.size();
+    }
+
+    /**
+     * Returns the fields of a payload carried on the wire, since the payload classes do not define
+     * equals
+     */
+    private static String describe(Object o) {
+        if (o == null) {
+            return "null";
+        }
+        if (o instanceof DynamoNode) {
+            DynamoNode node = (DynamoNode) o;
+            return "node(" + node.name + "," + node.getAddress() + "," + node.getHeartbeat() + ","
+                    + node.isApiNode() + ")";
+        }
+        if (o instanceof Pair) {
+            return "pair(" + describe(((Pair<?, ?>) o).getKey()) + "," + describe(((Pair<?, ?>) o).getValue()) + ")";
+        }
+        if (o instanceof List) {
+            StringBuilder list = new StringBuilder("[");
+            for (Object element : (List<?>) o) {
+                list.append(describe(element)).append(",");
+            }
+            return list.append("]").toString();
+        }
+        if (o instanceof AckPayload) {
+            AckPayload ack = (AckPayload) o;
+            return "ack(" + ack.getRequestType() + "," + ack.getIdentifier() + "," + ack.getTxnID() + ","
+                    + ack.isStatus() + ")";
+        }
+        if (o instanceof ObjectIOModel) {
+            ObjectIOModel model = (ObjectIOModel) o;
+            return "io(" + model.getVersion() + "," + model.getValue() + "," + model.getExpiresAt() + ")";
+        }
+        if (o instanceof ObjectInputModel) {
+            ObjectInputModel model = (ObjectInputModel) o;
+            return "input(" + model.getKey() + "," + model.getValue() + "," + model.getDurability() + ","
+                    + model.getTtl() + ")";
+        }
+        if (o instanceof ScanRequest) {
+            ScanRequest request = (ScanRequest) o;
+            return "scan(" + request.getPrefix() + "," + request.getStartAfter() + "," + request.getLimit() + ")";
+        }
+        if (o instanceof ScanPage) {
+            ScanPage page = (ScanPage) o;
+            StringBuilder entries = new StringBuilder("page(");
+            for (ScanEntry entry : page.getEntries()) {
+                entries.append(entry.getKey()).append("=").append(entry.getValue())
+                        .append("@").append(entry.getVersion()).append(";");
+            }
+            return entries.append(page.getContinuation()).append(")").toString();
+        }
+        if (o instanceof BulkBatch) {
+            BulkBatch batch = (BulkBatch) o;
+            StringBuilder records = new StringBuilder("batch(" + batch.getBucket() + "," + batch.isLast() + ","
+                    + batch.getAckID() + ",");
+            for (Map.Entry<String, ObjectIOModel> record : batch.getRecords()) {
+                records.append(record.getKey()).append("=").append(describe(record.getValue())).append(";");
+            }
+            return records.append(")").toString();
+        }
+        if (o instanceof ForwardPayload) {
+            ForwardPayload forward = (ForwardPayload) o;
+            return "forward(" + forward.getRequestType() + "," + forward.getBucketName() + ","
+                    + describe(forward.getInputModel()) + "," + forward.getTxnID() + ")";
+        }
+        return o.getClass().getSimpleName() + ":" + o;
+    }
+}